@@ -53,7 +53,8 @@ public class HydroidApplication {
          DefaultResourceLoader resourceLoader = new DefaultResourceLoader();
          InputStream configInputStream = resourceLoader.getResource(configFilePath).getInputStream();
          applicationProperties.load(configInputStream);
-         setSystemProperties("s3.use.file.system", "s3.use.file.system.path", "use.local.image.service");
+         setSystemProperties("s3.use.file.system", "s3.use.file.system.path", "use.local.image.service",
+               "jena.use.tdb", "jena.tdb.path");
       } catch (Exception e) {
          logger.warn("loadApplicationProperties - Exception: ", e);
       }
@@ -27,6 +27,33 @@ public class HydroidConfiguration {
    @Value("${solr.url}")
    private String solrUrl;
 
+   @Value("${solr.batch.size:50}")
+   private int solrBatchSize;
+
+   @Value("${solr.commit.within:10000}")
+   private int solrCommitWithin;
+
+   @Value("${solr.async.enabled:false}")
+   private boolean solrAsyncEnabled;
+
+   @Value("${solr.async.threads:2}")
+   private int solrAsyncThreads;
+
+   @Value("${solr.async.queue.size:1000}")
+   private int solrAsyncQueueSize;
+
+   @Value("${solr.reindex.threads:4}")
+   private int solrReindexThreads;
+
+   @Value("${solr.config.name:hydroid}")
+   private String solrConfigName;
+
+   @Value("${solr.num.shards:1}")
+   private int solrNumShards;
+
+   @Value("${solr.replication.factor:1}")
+   private int solrReplicationFactor;
+
    @Value("${s3.bucket}")
    private String s3Bucket;
 
@@ -48,12 +75,87 @@ public class HydroidConfiguration {
    @Value("${store.ga.vocabs.only}")
    private boolean storeGAVocabsOnly;
 
+   @Value("${enhancer.rdf.predicates:}")
+   private String enhancerRdfPredicates;
+
+   @Value("${enhancer.rdf.gzip:true}")
+   private boolean enhancerRdfGzip;
+
+   @Value("${enhancer.prefetch:4}")
+   private int enhancerPrefetch;
+
+   @Value("${enhancer.prefetch.budget.mb:64}")
+   private long enhancerPrefetchBudgetMb;
+
+   @Value("${rdf.conversion.cache.size:100}")
+   private int rdfConversionCacheSize;
+
+   @Value("${rdf.conversion.persist:false}")
+   private boolean rdfConversionPersist;
+
+   @Value("${thumbnail.sizes:200}")
+   private String thumbnailSizes;
+
+   @Value("${thumbnail.quality:0.8}")
+   private float thumbnailQuality;
+
+   @Value("${thumbnail.threads:2}")
+   private int thumbnailThreads;
+
+   @Value("${thumbnail.cache.size:200}")
+   private int thumbnailCacheSize;
+
+   @Value("${download.bundle.prefetch:4}")
+   private int downloadBundlePrefetch;
+
+   @Value("${download.bundle.threads:8}")
+   private int downloadBundleThreads;
+
+   @Value("${download.cache.max.age:3600}")
+   private int downloadCacheMaxAge;
+
    @Value("${s3.output.bucket}")
    private String s3OutputBucket;
 
    @Value("${s3.output.url}")
    private String s3OutputUrl;
 
+   @Value("${s3.max.connections:50}")
+   private int s3MaxConnections;
+
+   @Value("${s3.connection.timeout:10000}")
+   private int s3ConnectionTimeout;
+
+   @Value("${s3.socket.timeout:50000}")
+   private int s3SocketTimeout;
+
+   @Value("${s3.multipart.threshold.mb:16}")
+   private int s3MultipartThresholdMb;
+
+   @Value("${s3.multipart.part.size.mb:8}")
+   private int s3MultipartPartSizeMb;
+
+   @Value("${s3.multipart.threads:4}")
+   private int s3MultipartThreads;
+
+   @Value("${s3.cache.enabled:true}")
+   private boolean s3CacheEnabled;
+
+   @Value("${s3.cache.dir:}")
+   private String s3CacheDir;
+
+   @Value("${s3.cache.disk.size.mb:512}")
+   private long s3CacheDiskSizeMb;
+
+   @Value("${s3.cache.heap.size.mb:16}")
+   private long s3CacheHeapSizeMb;
+
+   @Value("${s3.cache.heap.object.size.kb:64}")
+   private int s3CacheHeapObjectSizeKb;
+
+   @Value("${s3.cache.ttl:300}")
+   private int s3CacheTtl;
+
    @Value("${hydroid.pid.path}")
    private String hydroidPidPath;
 
@@ -90,6 +192,42 @@ public class HydroidConfiguration {
       return solrUrl;
    }
 
+   public int getSolrBatchSize() {
+      return solrBatchSize;
+   }
+
+   public int getSolrCommitWithin() {
+      return solrCommitWithin;
+   }
+
+   public boolean isSolrAsyncEnabled() {
+      return solrAsyncEnabled;
+   }
+
+   public int getSolrAsyncThreads() {
+      return solrAsyncThreads;
+   }
+
+   public int getSolrAsyncQueueSize() {
+      return solrAsyncQueueSize;
+   }
+
+   public int getSolrReindexThreads() {
+      return solrReindexThreads;
+   }
+
+   public String getSolrConfigName() {
+      return solrConfigName;
+   }
+
+   public int getSolrNumShards() {
+      return solrNumShards;
+   }
+
+   public int getSolrReplicationFactor() {
+      return solrReplicationFactor;
+   }
+
    public String getS3Bucket() {
       return s3Bucket;
    }
@@ -114,6 +252,58 @@ public class HydroidConfiguration {
       return storeGAVocabsOnly;
    }
 
+   public String getEnhancerRdfPredicates() {
+      return enhancerRdfPredicates;
+   }
+
+   public boolean isEnhancerRdfGzip() {
+      return enhancerRdfGzip;
+   }
+
+   public int getEnhancerPrefetch() {
+      return enhancerPrefetch;
+   }
+
+   public long getEnhancerPrefetchBudgetMb() {
+      return enhancerPrefetchBudgetMb;
+   }
+
+   public int getRdfConversionCacheSize() {
+      return rdfConversionCacheSize;
+   }
+
+   public boolean isRdfConversionPersist() {
+      return rdfConversionPersist;
+   }
+
+   public String getThumbnailSizes() {
+      return thumbnailSizes;
+   }
+
+   public float getThumbnailQuality() {
+      return thumbnailQuality;
+   }
+
+   public int getThumbnailThreads() {
+      return thumbnailThreads;
+   }
+
+   public int getThumbnailCacheSize() {
+      return thumbnailCacheSize;
+   }
+
+   public int getDownloadBundlePrefetch() {
+      return downloadBundlePrefetch;
+   }
+
+   public int getDownloadBundleThreads() {
+      return downloadBundleThreads;
+   }
+
+   public int getDownloadCacheMaxAge() {
+      return downloadCacheMaxAge;
+   }
+
    public String getS3OutputBucket() {
       return s3OutputBucket;
    }
@@ -122,6 +312,54 @@ public class HydroidConfiguration {
       return s3OutputUrl;
    }
 
+   public int getS3MaxConnections() {
+      return s3MaxConnections;
+   }
+
+   public int getS3ConnectionTimeout() {
+      return s3ConnectionTimeout;
+   }
+
+   public int getS3SocketTimeout() {
+      return s3SocketTimeout;
+   }
+
+   public int getS3MultipartThresholdMb() {
+      return s3MultipartThresholdMb;
+   }
+
+   public int getS3MultipartPartSizeMb() {
+      return s3MultipartPartSizeMb;
+   }
+
+   public int getS3MultipartThreads() {
+      return s3MultipartThreads;
+   }
+
+   public boolean isS3CacheEnabled() {
+      return s3CacheEnabled;
+   }
+
+   public String getS3CacheDir() {
+      return s3CacheDir;
+   }
+
+   public long getS3CacheDiskSizeMb() {
+      return s3CacheDiskSizeMb;
+   }
+
+   public long getS3CacheHeapSizeMb() {
+      return s3CacheHeapSizeMb;
+   }
+
+   public int getS3CacheHeapObjectSizeKb() {
+      return s3CacheHeapObjectSizeKb;
+   }
+
+   public int getS3CacheTtl() {
+      return s3CacheTtl;
+   }
+
    public String getHydroidPidPath() {
       return hydroidPidPath;
    }
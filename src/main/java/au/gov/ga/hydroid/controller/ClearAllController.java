@@ -1,6 +1,7 @@
 package au.gov.ga.hydroid.controller;
 
 import au.gov.ga.hydroid.HydroidConfiguration;
+import au.gov.ga.hydroid.model.Document;
 import au.gov.ga.hydroid.service.DocumentService;
 import au.gov.ga.hydroid.service.JenaService;
 import au.gov.ga.hydroid.service.SolrClient;
@@ -8,6 +9,7 @@ import au.gov.ga.hydroid.utils.HydroidException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.bind.annotation.ResponseBody;
@@ -29,6 +31,7 @@ public class ClearAllController {
    private SolrClient solrClient;
 
    @Autowired
+   @Value("#{systemProperties['jena.use.tdb'] != null ? jenaTdb : jenaServiceImpl}")
    private JenaService jenaService;
 
    @Autowired
@@ -43,6 +46,11 @@ public class ClearAllController {
          logger.debug("Deleting from SOLR - SUCCESS");
          logger.debug("Deleting from Jena");
          jenaService.deleteRdfDefault();
+         for (Document document : documentService.findAll()) {
+            if (document.getUrn() != null) {
+               jenaService.deleteRdf(document.getUrn());
+            }
+         }
          logger.debug("Deleting from Jena - SUCCESS");
          logger.debug("Deleting from Postgres");
          documentService.clearAll();
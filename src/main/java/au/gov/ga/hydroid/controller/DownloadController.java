@@ -2,26 +2,50 @@ package au.gov.ga.hydroid.controller;
 
 import au.gov.ga.hydroid.HydroidConfiguration;
 import au.gov.ga.hydroid.model.Document;
+import au.gov.ga.hydroid.model.DocumentType;
+import au.gov.ga.hydroid.model.RdfFormat;
 import au.gov.ga.hydroid.service.DocumentService;
+import au.gov.ga.hydroid.service.RdfConversionService;
 import au.gov.ga.hydroid.service.S3Client;
-import org.apache.commons.io.IOUtils;
+import au.gov.ga.hydroid.service.ThumbnailService;
+import au.gov.ga.hydroid.utils.HttpUtils;
+import au.gov.ga.hydroid.utils.HydroidException;
+import au.gov.ga.hydroid.utils.IOUtils;
+import com.amazonaws.services.s3.model.ObjectMetadata;
 import org.apache.tika.Tika;
 import org.jboss.resteasy.util.DateUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.InputStreamResource;
+import org.springframework.core.io.Resource;
+import org.springframework.http.CacheControl;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
-import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
+import javax.annotation.PreDestroy;
+import javax.servlet.http.HttpServletResponse;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
 
@@ -34,136 +58,603 @@ public class DownloadController {
 
    private static Logger logger = LoggerFactory.getLogger(DownloadController.class);
 
+   // Only the start of each object is looked at to work out its media type
+   private static final int MEDIA_TYPE_DETECTION_LENGTH = 8192;
+   private static final int STREAM_BUFFER_SIZE = 8192;
+   private static final Tika TIKA = new Tika();
+   private static final MediaType BINARY_OCTET_STREAM = MediaType.valueOf("binary/octet-stream");
+   private static final String RDF_VARY = HttpHeaders.ACCEPT + ", " + HttpHeaders.ACCEPT_ENCODING;
+
+   private static final String BUNDLE_RDFS = "rdfs";
+   private static final String BUNDLE_DOCUMENTS = "documents";
+   private static final String BUNDLE_IMAGES = "images";
+   // Read ahead of each prefetched object, which also bounds the memory a bundle can hold
+   private static final int BUNDLE_READ_AHEAD = 256 * 1024;
+
    @Autowired
    private HydroidConfiguration configuration;
 
    @Autowired
-   @Value("#{systemProperties['s3.use.file.system'] != null ? s3FileSystem : s3ClientImpl}")
+   @Value("#{systemProperties['s3.use.file.system'] != null ? s3FileSystem : cachingS3Client}")
    private S3Client s3Client;
 
    @Autowired
    private DocumentService documentService;
 
-   private MediaType getMediaType(byte[] content, MediaType fallBackMediaType) {
+   @Autowired
+   private RdfConversionService rdfConversionService;
+
+   @Autowired
+   private ThumbnailService thumbnailService;
+
+   private ExecutorService bundleExecutor;
+
+   private MediaType getMediaType(byte[] head, MediaType fallBackMediaType) {
       MediaType mediaType;
       try {
-         mediaType = MediaType.valueOf(new Tika().detect(content));
+         mediaType = MediaType.valueOf(TIKA.detect(head));
       } catch (Exception e) {
          logger.debug("getMediaType - Exception: ", e);
          mediaType = fallBackMediaType;
       }
       return mediaType;
    }
-   
+
+   private boolean acceptsGzip(String acceptEncoding) {
+      if (acceptEncoding == null) {
+         return false;
+      }
+      for (String encoding : acceptEncoding.split(",")) {
+         String[] parts = encoding.trim().split(";");
+         String name = parts[0].trim();
+         boolean refused = parts.length > 1 && parts[1].replace(" ", "").matches("q=0(\\.0*)?");
+         if (!refused && (IOUtils.GZIP_ENCODING.equalsIgnoreCase(name) || "*".equals(name))) {
+            return true;
+         }
+      }
+      return false;
+   }
+
+   // null when the object does not exist or its metadata cannot be read
+   private ObjectMetadata getObjectMetadata(String bucket, String key) {
+      try {
+         return s3Client.getObjectMetadata(bucket, key);
+      } catch (Exception e) {
+         logger.debug("getObjectMetadata - Exception: ", e);
+         return null;
+      }
+   }
+
    private HttpHeaders getHttpHeaders(MediaType mediaType, long length, String fileName) {
       HttpHeaders headers = new HttpHeaders();
       headers.setContentType(mediaType);
-      headers.setContentLength(length);
+      if (length >= 0) {
+         headers.setContentLength(length);
+      }
       headers.setContentDispositionFormData("attachment", fileName);
       return headers;
    }
 
-   private ResponseEntity<byte[]> donwloadSingle(String bucket, String key, String fileName,
-                                                 MediaType fallBackMediaType) {
+   private void addCacheHeaders(HttpHeaders headers, String eTag, Date lastModified) {
+      headers.setCacheControl(CacheControl.maxAge(configuration.getDownloadCacheMaxAge(), TimeUnit.SECONDS)
+            .getHeaderValue());
+      if (eTag != null) {
+         headers.setETag(eTag);
+      }
+      if (lastModified != null) {
+         headers.setLastModified(lastModified.getTime());
+      }
+   }
+
+   private ResponseEntity<Resource> notModified(String eTag, Date lastModified, String vary) {
+      HttpHeaders headers = new HttpHeaders();
+      addCacheHeaders(headers, eTag, lastModified);
+      if (vary != null) {
+         headers.set(HttpHeaders.VARY, vary);
+      }
+      return new ResponseEntity<>(headers, HttpStatus.NOT_MODIFIED);
+   }
+
+   // A range is only honoured when If-Range, if sent, still matches the current entity tag
+   private long[] getRange(HttpHeaders requestHeaders, long length, String eTag) {
+      String ifRange = requestHeaders.getFirst(HttpHeaders.IF_RANGE);
+      if (ifRange != null && !ifRange.equals(eTag)) {
+         return null;
+      }
+      return HttpUtils.getRange(requestHeaders.getFirst(HttpHeaders.RANGE), length);
+   }
+
+   // Objects stored without a specific type are application/octet-stream, or binary/octet-stream in S3
+   private MediaType getMediaType(ObjectMetadata metadata, MediaType fallBackMediaType) {
+      if (metadata == null || metadata.getContentType() == null) {
+         return fallBackMediaType;
+      }
+      try {
+         MediaType mediaType = MediaType.valueOf(metadata.getContentType());
+         if (MediaType.APPLICATION_OCTET_STREAM.equals(mediaType) || BINARY_OCTET_STREAM.equals(mediaType)) {
+            return fallBackMediaType;
+         }
+         return mediaType;
+      } catch (Exception e) {
+         logger.debug("getMediaType - Exception: ", e);
+         return fallBackMediaType;
+      }
+   }
+
+   private ResponseEntity<Resource> downloadRange(String bucket, String key, String fileName,
+                                                  MediaType fallBackMediaType, ObjectMetadata metadata, String eTag,
+                                                  long[] range) {
+      long length = metadata.getContentLength();
+      HttpHeaders headers = new HttpHeaders();
+      if (range == HttpUtils.UNSATISFIABLE_RANGE) {
+         headers.set(HttpHeaders.CONTENT_RANGE, HttpUtils.getContentRange(range, length));
+         return new ResponseEntity<>(headers, HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE);
+      }
+
+      InputStream fileContent = s3Client.getFile(bucket, key, range[0], range[1]);
+      if (fileContent == null) {
+         return new ResponseEntity<>(HttpStatus.NOT_FOUND);
+      }
+
+      // The start of the object is not at hand so the stored content type is used
+      headers = getHttpHeaders(getMediaType(metadata, fallBackMediaType), range[1] - range[0] + 1, fileName);
+      headers.set(HttpHeaders.CONTENT_RANGE, HttpUtils.getContentRange(range, length));
+      headers.set(HttpHeaders.ACCEPT_RANGES, "bytes");
+      addCacheHeaders(headers, eTag, metadata.getLastModified());
+      return new ResponseEntity<>(new InputStreamResource(fileContent), headers, HttpStatus.PARTIAL_CONTENT);
+   }
+
+   private void closeQuietly(InputStream inputStream) {
+      try {
+         if (inputStream != null) {
+            inputStream.close();
+         }
+      } catch (Exception e) {
+         logger.debug("closeQuietly - Exception: ", e);
+      }
+   }
+
+   /**
+    * The stream is copied to the response by the message converter, which closes it when done.
+    * The entity tag is the one given, typically the document sha1, or else the one of the stored object.
+    */
+   private ResponseEntity<Resource> donwloadSingle(String bucket, String key, String fileName,
+                                                   MediaType fallBackMediaType, String eTag,
+                                                   HttpHeaders requestHeaders) {
+      InputStream fileContent = null;
       try {
 
-         byte[] fileContent = s3Client.getFileAsByteArray(bucket, key);
+         ObjectMetadata metadata = getObjectMetadata(bucket, key);
+         if (eTag == null && metadata != null) {
+            eTag = HttpUtils.quoteETag(metadata.getETag());
+         }
+         Date lastModified = metadata == null ? null : metadata.getLastModified();
+         if (HttpUtils.isNotModified(requestHeaders.getFirst(HttpHeaders.IF_NONE_MATCH), eTag)) {
+            return notModified(eTag, lastModified, null);
+         }
+
+         long length = metadata == null ? -1 : metadata.getContentLength();
+         long[] range = getRange(requestHeaders, length, eTag);
+         if (range != null) {
+            return downloadRange(bucket, key, fileName, fallBackMediaType, metadata, eTag, range);
+         }
+
+         fileContent = s3Client.getFile(bucket, key);
          if (fileContent == null) {
             return new ResponseEntity<>(HttpStatus.NOT_FOUND);
          }
 
-         MediaType mediaType = getMediaType(fileContent, fallBackMediaType);
-         HttpHeaders headers = getHttpHeaders(mediaType, fileContent.length, fileName);
-         return new ResponseEntity<>(fileContent, headers, HttpStatus.OK);
+         InputStream buffered = new BufferedInputStream(fileContent, STREAM_BUFFER_SIZE);
+         // The content is only sniffed when no specific type was stored with the object
+         MediaType mediaType = getMediaType(metadata, null);
+         if (mediaType == null) {
+            mediaType = getMediaType(IOUtils.peek(buffered, MEDIA_TYPE_DETECTION_LENGTH), fallBackMediaType);
+         }
+         HttpHeaders headers = getHttpHeaders(mediaType, length, fileName);
+         if (length >= 0) {
+            headers.set(HttpHeaders.ACCEPT_RANGES, "bytes");
+         }
+         addCacheHeaders(headers, eTag, lastModified);
+         return new ResponseEntity<>(new InputStreamResource(buffered), headers, HttpStatus.OK);
 
       } catch (Exception e) {
          logger.error("downloadSingle - Exception: ", e);
+         closeQuietly(fileContent);
          return new ResponseEntity<>(HttpStatus.INTERNAL_SERVER_ERROR);
       }
    }
 
+   private ResponseEntity<Resource> gzippedResponse(InputStream gzippedContent, long length, MediaType mediaType,
+                                                    String fileName, boolean gzip, String eTag,
+                                                    Date lastModified) throws IOException {
+      HttpHeaders headers;
+      InputStream content;
+      if (gzip) {
+         headers = getHttpHeaders(mediaType, length, fileName);
+         headers.set(HttpHeaders.CONTENT_ENCODING, IOUtils.GZIP_ENCODING);
+         content = gzippedContent;
+      } else {
+         headers = getHttpHeaders(mediaType, -1, fileName);
+         content = new GZIPInputStream(gzippedContent, STREAM_BUFFER_SIZE);
+      }
+      addCacheHeaders(headers, eTag, lastModified);
+      headers.set(HttpHeaders.VARY, RDF_VARY);
+      return new ResponseEntity<>(new InputStreamResource(content), headers, HttpStatus.OK);
+   }
+
+   private ResponseEntity<Resource> downloadCompressed(String bucket, String key, String fileName,
+                                                       MediaType fallBackMediaType, boolean gzip,
+                                                       ObjectMetadata metadata, String eTag) {
+      InputStream fileContent = null;
+      try {
+
+         fileContent = s3Client.getFile(bucket, key);
+         if (fileContent == null) {
+            return new ResponseEntity<>(HttpStatus.NOT_FOUND);
+         }
+
+         InputStream buffered = new BufferedInputStream(fileContent, STREAM_BUFFER_SIZE);
+         byte[] head = IOUtils.peek(buffered, MEDIA_TYPE_DETECTION_LENGTH);
+         long length = metadata == null ? -1 : metadata.getContentLength();
+         Date lastModified = metadata == null ? null : metadata.getLastModified();
+
+         // Stored before compression was enabled
+         if (!IOUtils.isGzipped(head)) {
+            HttpHeaders headers = getHttpHeaders(getMediaType(head, fallBackMediaType), length, fileName);
+            addCacheHeaders(headers, eTag, lastModified);
+            return new ResponseEntity<>(new InputStreamResource(buffered), headers, HttpStatus.OK);
+         }
+
+         MediaType mediaType = getMediaType(IOUtils.decompressHead(head, MEDIA_TYPE_DETECTION_LENGTH),
+               fallBackMediaType);
+         return gzippedResponse(buffered, length, mediaType, fileName, gzip, eTag, lastModified);
+
+      } catch (Exception e) {
+         logger.error("downloadCompressed - Exception: ", e);
+         closeQuietly(fileContent);
+         return new ResponseEntity<>(HttpStatus.INTERNAL_SERVER_ERROR);
+      }
+   }
+
+   // null means the stored RDF/XML, which is also what clients not asking for a known format get
+   private RdfFormat getRequestedFormat(String accept) {
+      if (accept == null) {
+         return null;
+      }
+      List<MediaType> acceptedTypes;
+      try {
+         acceptedTypes = MediaType.parseMediaTypes(accept);
+      } catch (Exception e) {
+         logger.debug("getRequestedFormat - Exception: ", e);
+         return null;
+      }
+      MediaType.sortBySpecificityAndQuality(acceptedTypes);
+      for (MediaType acceptedType : acceptedTypes) {
+         if (acceptedType.getQualityValue() == 0 || acceptedType.isWildcardType()) {
+            continue;
+         }
+         for (RdfFormat format : RdfFormat.values()) {
+            if (acceptedType.includes(format.getMediaType())) {
+               return format == RdfFormat.RDF_XML ? null : format;
+            }
+         }
+      }
+      return null;
+   }
+
+   /**
+    * Every representation (format and encoding) of the stored RDF gets its own entity tag,
+    * derived from the one of the stored object so a 304 needs no conversion or download.
+    */
+   private String getRdfETag(ObjectMetadata metadata, RdfFormat format, boolean gzip) {
+      if (metadata == null || metadata.getETag() == null) {
+         return null;
+      }
+      StringBuilder eTag = new StringBuilder(metadata.getETag().replace("\"", ""));
+      if (format != null) {
+         eTag.append("-").append(format.getExtension());
+      }
+      if (gzip) {
+         eTag.append("-").append(IOUtils.GZIP_ENCODING);
+      }
+      return HttpUtils.quoteETag(eTag.toString());
+   }
+
    @RequestMapping(value = "/rdfs/{urn}", method = {RequestMethod.GET})
-   public @ResponseBody ResponseEntity<byte[]> downloadRDF(@PathVariable String urn) {
-      return donwloadSingle(configuration.getS3OutputBucket(), configuration.getS3EnhancerOutput() + urn, urn,
-            MediaType.APPLICATION_XML);
+   public @ResponseBody ResponseEntity<Resource> downloadRDF(@PathVariable String urn,
+                                                             @RequestHeader HttpHeaders requestHeaders) {
+      RdfFormat format = getRequestedFormat(requestHeaders.getFirst(HttpHeaders.ACCEPT));
+      boolean gzip = acceptsGzip(requestHeaders.getFirst(HttpHeaders.ACCEPT_ENCODING));
+      String bucket = configuration.getS3OutputBucket();
+      String key = configuration.getS3EnhancerOutput() + urn;
+      try {
+         ObjectMetadata metadata = getObjectMetadata(bucket, key);
+         // RDFs stored before compression was enabled are sent as they are
+         boolean sentGzipped = gzip && (format != null
+               || metadata != null && IOUtils.GZIP_ENCODING.equals(metadata.getContentEncoding()));
+         String eTag = getRdfETag(metadata, format, sentGzipped);
+         Date lastModified = metadata == null ? null : metadata.getLastModified();
+         if (HttpUtils.isNotModified(requestHeaders.getFirst(HttpHeaders.IF_NONE_MATCH), eTag)) {
+            return notModified(eTag, lastModified, RDF_VARY);
+         }
+
+         if (format == null) {
+            return downloadCompressed(bucket, key, urn, MediaType.APPLICATION_XML, gzip, metadata, eTag);
+         }
+         byte[] converted = rdfConversionService.getConverted(urn, format);
+         if (converted == null) {
+            return new ResponseEntity<>(HttpStatus.NOT_FOUND);
+         }
+         return gzippedResponse(new ByteArrayInputStream(converted), converted.length, format.getMediaType(),
+               urn + "." + format.getExtension(), gzip, eTag, lastModified);
+      } catch (Exception e) {
+         logger.error("downloadRDF - Exception: ", e);
+         return new ResponseEntity<>(HttpStatus.INTERNAL_SERVER_ERROR);
+      }
    }
 
    @RequestMapping(value = "/documents/{urn}", method = {RequestMethod.GET})
-   public @ResponseBody ResponseEntity<byte[]> downloadDocument(@PathVariable String urn) {
+   public @ResponseBody ResponseEntity<Resource> downloadDocument(@PathVariable String urn,
+                                                                  @RequestHeader HttpHeaders requestHeaders) {
       Document document = documentService.findByUrn(urn);
       if (document == null) {
          return new ResponseEntity<>(HttpStatus.NOT_FOUND);
       }
       String[] bucketAndKey = document.getOrigin().split(":");
       String fileName = bucketAndKey[1].substring(bucketAndKey[1].lastIndexOf("/") + 1);
-      return donwloadSingle(bucketAndKey[0], bucketAndKey[1], fileName, MediaType.APPLICATION_OCTET_STREAM);
+      return donwloadSingle(bucketAndKey[0], bucketAndKey[1], fileName, MediaType.APPLICATION_OCTET_STREAM,
+            HttpUtils.quoteETag(document.getSha1Hash()), requestHeaders);
    }
 
-   private int addFilesToBundle(String[] urnArray, ZipOutputStream zipOut) {
-      int filesAdded = 0;
+   private static class BundleEntry {
+
+      private final String name;
+      private final String bucket;
+      private final String key;
+      private final boolean rdf;
+      private Future<InputStream> content;
 
+      BundleEntry(String name, String bucket, String key, boolean rdf) {
+         this.name = name;
+         this.bucket = bucket;
+         this.key = key;
+         this.rdf = rdf;
+      }
+
+   }
+
+   private List<BundleEntry> getBundleEntries(String[] urnArray, List<String> include) {
+      List<BundleEntry> entries = new ArrayList<>();
       for (String urn : urnArray) {
-         int length;
-         byte[] buffer = new byte[1024];
-         try (InputStream fileContent = s3Client.getFile(configuration.getS3OutputBucket(),
-               configuration.getS3EnhancerOutput() + urn)) {
-            zipOut.putNextEntry(new ZipEntry(urn + ".rdf"));
-            while ((length = fileContent.read(buffer)) > 0) {
-               zipOut.write(buffer, 0, length);
+         if (include.contains(BUNDLE_RDFS)) {
+            entries.add(new BundleEntry(urn + ".rdf", configuration.getS3OutputBucket(),
+                  configuration.getS3EnhancerOutput() + urn, true));
+         }
+         if (!include.contains(BUNDLE_DOCUMENTS) && !include.contains(BUNDLE_IMAGES)) {
+            continue;
+         }
+         Document document = documentService.findByUrn(urn);
+         if (document == null || document.getOrigin() == null) {
+            continue;
+         }
+         String fileName = document.getOrigin().substring(document.getOrigin().lastIndexOf("/") + 1);
+         if (document.getType() == DocumentType.IMAGE) {
+            if (include.contains(BUNDLE_IMAGES)) {
+               entries.add(new BundleEntry(BUNDLE_IMAGES + "/" + urn + "/" + fileName,
+                     configuration.getS3OutputBucket(), configuration.getS3EnhancerOutputImages() + urn, false));
+            }
+         // Documents harvested from a url were never copied to S3
+         } else if (include.contains(BUNDLE_DOCUMENTS) && !document.getOrigin().contains("://")
+               && document.getOrigin().contains(":")) {
+            String[] bucketAndKey = document.getOrigin().split(":", 2);
+            entries.add(new BundleEntry(BUNDLE_DOCUMENTS + "/" + urn + "/" + fileName, bucketAndKey[0],
+                  bucketAndKey[1], false));
+         }
+      }
+      return entries;
+   }
+
+   // The start of the object is read straight away so its download overlaps the writing of the entries before it
+   private InputStream openBundleEntry(BundleEntry entry) throws IOException {
+      InputStream content = s3Client.getFile(entry.bucket, entry.key);
+      if (content == null) {
+         return null;
+      }
+      InputStream buffered = new BufferedInputStream(entry.rdf ? IOUtils.decompressIfGzipped(content) : content,
+            BUNDLE_READ_AHEAD);
+      IOUtils.peek(buffered, BUNDLE_READ_AHEAD);
+      return buffered;
+   }
+
+   // Shared by all the bundle downloads, when it is busy the request thread fetches the entry itself
+   private synchronized ExecutorService getBundleExecutor() {
+      if (bundleExecutor == null) {
+         int threads = Math.max(1, configuration.getDownloadBundleThreads());
+         bundleExecutor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+               new ArrayBlockingQueue<>(threads * 2), new ThreadPoolExecutor.CallerRunsPolicy());
+      }
+      return bundleExecutor;
+   }
+
+   private void prefetch(List<BundleEntry> entries, int from) {
+      int to = Math.min(entries.size(), from + Math.max(1, configuration.getDownloadBundlePrefetch()));
+      for (int i = from; i < to; i++) {
+         BundleEntry entry = entries.get(i);
+         if (entry.content == null) {
+            entry.content = getBundleExecutor().submit(() -> openBundleEntry(entry));
+         }
+      }
+   }
+
+   // null when the object could not be fetched, the entry is then left out of the bundle
+   private InputStream getBundleEntryContent(List<BundleEntry> entries, int index) {
+      prefetch(entries, index);
+      BundleEntry entry = entries.get(index);
+      try {
+         return entry.content.get();
+      } catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+         throw new HydroidException(e);
+      } catch (ExecutionException e) {
+         logger.error("getBundleEntryContent - failed to fetch " + entry.name + ": ", e.getCause());
+         return null;
+      }
+   }
+
+   // Objects already being fetched are waited for so their connections are given back
+   private void closePrefetched(List<BundleEntry> entries, int from) {
+      for (int i = from; i < entries.size(); i++) {
+         Future<InputStream> content = entries.get(i).content;
+         if (content != null) {
+            try {
+               closeQuietly(content.get());
+            } catch (Exception e) {
+               logger.debug("closePrefetched - Exception: ", e);
             }
-            zipOut.closeEntry();
-            fileContent.close();
-            filesAdded ++;
-         } catch (Exception e) {
-            logger.error("addFilesToBundle - Exception: ", e);
          }
       }
+   }
 
+   private void writeBundleEntry(ZipOutputStream zipOut, String name, InputStream content, byte[] buffer)
+         throws IOException {
+      try (InputStream is = content) {
+         zipOut.putNextEntry(new ZipEntry(name));
+         int length;
+         while ((length = is.read(buffer)) != -1) {
+            zipOut.write(buffer, 0, length);
+         }
+         zipOut.closeEntry();
+      }
+   }
+
+   private int writeBundle(List<BundleEntry> entries, int index, InputStream firstContent, OutputStream out)
+         throws IOException {
+      int filesAdded = 0;
+      int current = index;
+      try {
+         ZipOutputStream zipOut = new ZipOutputStream(out);
+         byte[] buffer = new byte[STREAM_BUFFER_SIZE];
+         InputStream content = firstContent;
+         while (true) {
+            if (content != null) {
+               writeBundleEntry(zipOut, entries.get(current).name, content, buffer);
+               filesAdded ++;
+            }
+            if (++current >= entries.size()) {
+               break;
+            }
+            content = getBundleEntryContent(entries, current);
+         }
+         zipOut.finish();
+         zipOut.flush();
+      } finally {
+         closePrefetched(entries, current + 1);
+      }
       return filesAdded;
    }
 
+   /**
+    * Streams a zip with the RDFs of the given urns, include=rdfs,documents,images also bundles the originals.
+    * The next few objects are fetched while the current entry is being written.
+    */
    @RequestMapping(value = "/bundle/{urnList}", method = {RequestMethod.GET})
-   public @ResponseBody ResponseEntity<byte[]> downloadBundle(@PathVariable String urnList) {
+   public void downloadBundle(@PathVariable String urnList,
+                              @RequestParam(value = "include", defaultValue = BUNDLE_RDFS) String include,
+                              HttpServletResponse response) {
+      List<BundleEntry> entries = new ArrayList<>();
+      int index = 0;
       try {
-         String[] urnArray = urnList.split(",");
-         String outputFileName = "rdfs-bundle-" + DateUtil.formatDate(new Date(), "yyyyMMddHHmm") + ".zip";
+         entries = getBundleEntries(urnList.split(","), Arrays.asList(include.split(",")));
 
-         // Generate full zip with all <urn>.rdf files
-         File zipFile = File.createTempFile(outputFileName, null);
-         ZipOutputStream zipOut  = new ZipOutputStream(new FileOutputStream(zipFile));
-         int filesAdded = addFilesToBundle(urnArray, zipOut);
-         zipOut.close();
+         // Nothing is sent until there is at least one file to bundle
+         InputStream firstContent = null;
+         for (; index < entries.size() && firstContent == null; index++) {
+            firstContent = getBundleEntryContent(entries, index);
+         }
+         if (firstContent == null) {
+            response.setContentType(MediaType.TEXT_PLAIN_VALUE);
+            response.getOutputStream().write("No files were found or bundled for download.".getBytes());
+            return;
+         }
+
+         String outputFileName = "rdfs-bundle-" + DateUtil.formatDate(new Date(), "yyyyMMddHHmm") + ".zip";
+         HttpHeaders headers = getHttpHeaders(MediaType.APPLICATION_OCTET_STREAM, -1, outputFileName);
+         headers.forEach((name, values) -> values.forEach(value -> response.addHeader(name, value)));
+         int filesAdded = writeBundle(entries, index - 1, firstContent, response.getOutputStream());
+         logger.debug("downloadBundle - " + filesAdded + " files bundled into " + outputFileName);
 
-         if (filesAdded == 0) {
-            return new ResponseEntity<>("No files were found or bundled for download.".getBytes(),
-                  HttpStatus.OK);
+      } catch (Exception e) {
+         logger.error("downloadBundle - Exception: ", e);
+         closePrefetched(entries, index);
+         if (!response.isCommitted()) {
+            IOUtils.sendResponseError(response, HttpStatus.INTERNAL_SERVER_ERROR.value());
          }
+      }
+   }
 
-         byte[] zipContent = IOUtils.toByteArray(new FileInputStream(zipFile));
-         HttpHeaders headers = getHttpHeaders(MediaType.APPLICATION_OCTET_STREAM, zipContent.length,
-               outputFileName);
+   /**
+    * &lt;urn&gt;_thumb is the default size and &lt;urn&gt;_thumb_&lt;size&gt; any of the other configured ones,
+    * a thumbnail that was not created yet is created on the spot.
+    */
+   private ResponseEntity<Resource> downloadThumbnail(Document document, String urn, String size,
+                                                      HttpHeaders requestHeaders) {
+      try {
+         List<Integer> sizes = thumbnailService.getSizes();
+         if (sizes.isEmpty()) {
+            return new ResponseEntity<>(HttpStatus.NOT_FOUND);
+         }
+         int thumbnailSize = size.isEmpty() ? sizes.get(0) : Integer.parseInt(size.substring(1));
+         if (!sizes.contains(thumbnailSize)) {
+            return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
+         }
 
-         return new ResponseEntity<>(zipContent, headers, HttpStatus.OK);
+         String eTag = HttpUtils.quoteETag(document.getSha1Hash() == null ? null
+               : document.getSha1Hash() + "-" + thumbnailSize);
+         if (HttpUtils.isNotModified(requestHeaders.getFirst(HttpHeaders.IF_NONE_MATCH), eTag)) {
+            return notModified(eTag, null, null);
+         }
 
+         byte[] thumbnail = thumbnailService.getThumbnail(urn, thumbnailSize);
+         if (thumbnail == null) {
+            return new ResponseEntity<>(HttpStatus.NOT_FOUND);
+         }
+         // Thumbnails created before they were JPEGs are PNGs
+         HttpHeaders headers = getHttpHeaders(getMediaType(thumbnail, MediaType.IMAGE_JPEG), thumbnail.length,
+               urn + "_thumb");
+         addCacheHeaders(headers, eTag, null);
+         return new ResponseEntity<>(new ByteArrayResource(thumbnail), headers, HttpStatus.OK);
+      } catch (NumberFormatException e) {
+         return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
       } catch (Exception e) {
-         logger.error("downloadBundle - Exception: ", e);
+         logger.error("downloadThumbnail - Exception: ", e);
          return new ResponseEntity<>(HttpStatus.INTERNAL_SERVER_ERROR);
       }
    }
 
    @RequestMapping(value = "/images/{urn}", method = {RequestMethod.GET})
-   public@ResponseBody ResponseEntity<byte[]> downloadImage(@PathVariable String urn) {
-      String urnNoThumb = urn;
-      if (urn.contains("_thumb")) {
-         urnNoThumb = urnNoThumb.replace("_thumb", "");
-      }
+   public @ResponseBody ResponseEntity<Resource> downloadImage(@PathVariable String urn,
+                                                               @RequestHeader HttpHeaders requestHeaders) {
+      int thumbPosition = urn.indexOf("_thumb");
+      String urnNoThumb = thumbPosition < 0 ? urn : urn.substring(0, thumbPosition);
       Document document = documentService.findByUrn(urnNoThumb);
       if (document == null) {
          return new ResponseEntity<>(HttpStatus.NOT_FOUND);
       }
+      if (thumbPosition >= 0) {
+         return downloadThumbnail(document, urnNoThumb, urn.substring(thumbPosition + "_thumb".length()),
+               requestHeaders);
+      }
       String fileName = document.getOrigin().substring(document.getOrigin().lastIndexOf("/") + 1);
       return donwloadSingle(configuration.getS3OutputBucket(), configuration.getS3EnhancerOutputImages() + urn,
-            fileName, MediaType.APPLICATION_OCTET_STREAM);
+            fileName, MediaType.APPLICATION_OCTET_STREAM, null, requestHeaders);
+   }
+
+   @PreDestroy
+   public synchronized void shutdown() {
+      if (bundleExecutor != null) {
+         bundleExecutor.shutdownNow();
+         bundleExecutor = null;
+      }
    }
 
-}
+}
\ No newline at end of file
@@ -73,7 +73,8 @@ public class EnhancerController {
 
       document.setOrigin("Manual Enhancement/UI");
       document.setDateCreated(new Date());
-      if (!enhancerService.enhance(document)) {
+      // Indexed straight away so the response tells whether the document really is searchable
+      if (!enhancerService.enhanceNow(document)) {
          return new ResponseEntity<>(
                new ServiceResponse("There has been an error enhancing your document, please try again later."),
                HttpStatus.OK);
@@ -102,7 +103,7 @@ public class EnhancerController {
             document.setDateCreated(metadata.get("Creation-Date") == null ? null :
                   DateUtils.parseDate(metadata.get("Creation-Date"), new String[]{"yyyy-MM-dd'T'HH:mm:ss'Z'"}));
 
-            if (!enhancerService.enhance(document)) {
+            if (!enhancerService.enhanceNow(document)) {
                return new ResponseEntity<>(
                      new ServiceResponse("There has been an error enhancing your document, please try again later."),
                      HttpStatus.OK);
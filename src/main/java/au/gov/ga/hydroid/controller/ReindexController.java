@@ -0,0 +1,43 @@
+package au.gov.ga.hydroid.controller;
+
+import au.gov.ga.hydroid.HydroidConfiguration;
+import au.gov.ga.hydroid.dto.ServiceResponse;
+import au.gov.ga.hydroid.service.SolrReindexService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.ResponseBody;
+import org.springframework.web.bind.annotation.RestController;
+
+/**
+ * Rebuilds the Solr index from the stored enhancement results (no Stanbol calls).
+ */
+@RestController
+@RequestMapping("/reindex")
+public class ReindexController {
+
+   @Autowired
+   private HydroidConfiguration configuration;
+
+   @Autowired
+   private SolrReindexService solrReindexService;
+
+   // With rebuild=true the index is built into a new collection and solr.collection (an alias) is
+   // switched to it at the end, otherwise documents are indexed again in place
+   @RequestMapping(value = "/solr", method = {RequestMethod.POST})
+   public @ResponseBody ResponseEntity<ServiceResponse> reindexSolr(
+         @RequestParam(value = "rebuild", defaultValue = "false") boolean rebuild) {
+      boolean started = rebuild ? solrReindexService.startRebuild(configuration.getSolrCollection())
+            : solrReindexService.startReindex(configuration.getSolrCollection());
+      if (!started) {
+         return new ResponseEntity<>(new ServiceResponse("The reindex process is currently in progress, try again later."),
+               HttpStatus.OK);
+      }
+      return new ResponseEntity<>(new ServiceResponse("The reindex process has started successfully."),
+            HttpStatus.OK);
+   }
+
+}
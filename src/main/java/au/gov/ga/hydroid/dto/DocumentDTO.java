@@ -1,6 +1,8 @@
 package au.gov.ga.hydroid.dto;
 
 import au.gov.ga.hydroid.model.DocumentType;
+import org.apache.http.client.utils.DateUtils;
+import org.apache.tika.metadata.Metadata;
 
 import java.util.Date;
 
@@ -73,6 +75,18 @@ public class DocumentDTO {
       this.sha1Hash = sha1Hash;
    }
 
+   // Copies title, author and creation date extracted by Tika
+   public void copyMetadata(Metadata metadata) {
+      if (metadata.get("title") != null) {
+         setTitle(metadata.get("title"));
+      } else if (metadata.get("dc:title") != null) {
+         setTitle(metadata.get("dc:title"));
+      }
+      setAuthor(metadata.get("author") == null ? metadata.get("Author") : metadata.get("author"));
+      setDateCreated(metadata.get("Creation-Date") == null ? null :
+            DateUtils.parseDate(metadata.get("Creation-Date"), new String[]{"yyyy-MM-dd'T'HH:mm:ss'Z'"}));
+   }
+
     @Override
     public String toString() {
         return "DocumentDTO {" +
@@ -1,6 +1,7 @@
 package au.gov.ga.hydroid.job;
 
 import au.gov.ga.hydroid.service.EnhancerService;
+import au.gov.ga.hydroid.service.SolrClient;
 import org.quartz.DisallowConcurrentExecution;
 import org.quartz.Job;
 import org.quartz.JobExecutionContext;
@@ -27,15 +28,27 @@ public class EnhancerJob implements Job {
    @Autowired
    private EnhancerService enhancerService;
 
+   @Autowired
+   private SolrClient solrClient;
+
    @Override
    public void execute(JobExecutionContext jobExecutionContext)  {
       Instant started = Instant.now();
       logger.info("execute started at..: " + started.toString());
-      enhancerService.enhanceDocuments();
-      enhancerService.enhanceDatasets();
-      enhancerService.enhanceModels();
-      enhancerService.enhanceImages();
-       enhancerService.enhanceCMINodes();
+      try {
+         enhancerService.enhanceDocuments();
+         enhancerService.enhanceDatasets();
+         enhancerService.enhanceModels();
+         enhancerService.enhanceImages();
+         enhancerService.enhanceCMINodes();
+      } finally {
+         // Send the last (partial) batch of documents to Solr, a failure here must not hide the one above
+         try {
+            solrClient.flush();
+         } catch (Exception e) {
+            logger.error("execute - failed to flush the Solr updates: ", e);
+         }
+      }
       Instant finished = Instant.now();
       logger.info("execute finished at.: " + finished);
       logger.info("execute elapsed time: " + Duration.between(started, finished));
@@ -0,0 +1,99 @@
+package au.gov.ga.hydroid.model;
+
+import au.gov.ga.hydroid.utils.HydroidException;
+import org.apache.jena.rdf.model.*;
+import org.apache.jena.vocabulary.SKOS;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.*;
+
+/**
+ * In-memory SKOS broader/narrower index of the hydroid vocabulary, built once at startup,
+ * used to index every ancestor of a concept along with the concept itself.
+ */
+@Component
+public class ConceptHierarchy {
+
+   private static final Logger logger = LoggerFactory.getLogger(ConceptHierarchy.class);
+   private static final String VOCABULARY_RDF = "hydroid.rdf";
+
+   private Map<String, String> labels = Collections.emptyMap();
+   private Map<String, List<String>> ancestors = Collections.emptyMap();
+
+   @PostConstruct
+   public void init() {
+      load(VOCABULARY_RDF);
+   }
+
+   public void load(String rdfName) {
+      try {
+         Model model = ModelFactory.createDefaultModel().read(rdfName);
+         Map<String, String> conceptLabels = new HashMap<>();
+         Map<String, Set<String>> broaderConcepts = new HashMap<>();
+
+         StmtIterator prefLabels = model.listStatements(null, SKOS.prefLabel, (RDFNode) null);
+         while (prefLabels.hasNext()) {
+            Statement statement = prefLabels.nextStatement();
+            conceptLabels.putIfAbsent(statement.getSubject().getURI(), statement.getString());
+         }
+
+         // The vocabulary states the hierarchy both ways but either one on its own is enough
+         StmtIterator broader = model.listStatements(null, SKOS.broader, (RDFNode) null);
+         while (broader.hasNext()) {
+            Statement statement = broader.nextStatement();
+            addBroader(broaderConcepts, statement.getSubject().getURI(), statement.getResource().getURI());
+         }
+         StmtIterator narrower = model.listStatements(null, SKOS.narrower, (RDFNode) null);
+         while (narrower.hasNext()) {
+            Statement statement = narrower.nextStatement();
+            addBroader(broaderConcepts, statement.getResource().getURI(), statement.getSubject().getURI());
+         }
+
+         Map<String, List<String>> conceptAncestors = new HashMap<>();
+         for (String concept : broaderConcepts.keySet()) {
+            conceptAncestors.put(concept, Collections.unmodifiableList(findAncestors(broaderConcepts, concept)));
+         }
+
+         labels = conceptLabels;
+         ancestors = conceptAncestors;
+         logger.info("load - " + conceptLabels.size() + " concepts, " + conceptAncestors.size()
+               + " with broader concepts, loaded from " + rdfName);
+      } catch (Exception e) {
+         throw new HydroidException(e);
+      }
+   }
+
+   private void addBroader(Map<String, Set<String>> broaderConcepts, String concept, String broaderConcept) {
+      if (concept != null && broaderConcept != null) {
+         broaderConcepts.computeIfAbsent(concept, key -> new LinkedHashSet<>()).add(broaderConcept);
+      }
+   }
+
+   // Closest ancestors first, a concept reachable through several paths is only listed once
+   private List<String> findAncestors(Map<String, Set<String>> broaderConcepts, String concept) {
+      Set<String> found = new LinkedHashSet<>();
+      Deque<String> pending = new ArrayDeque<>(broaderConcepts.get(concept));
+      while (!pending.isEmpty()) {
+         String ancestor = pending.poll();
+         if (!ancestor.equals(concept) && found.add(ancestor)) {
+            pending.addAll(broaderConcepts.getOrDefault(ancestor, Collections.emptySet()));
+         }
+      }
+      return new ArrayList<>(found);
+   }
+
+   /**
+    * returns the broader concepts of the given concept at every level, empty if it has none
+    */
+   public List<String> getAncestors(String conceptUri) {
+      return ancestors.getOrDefault(conceptUri, Collections.emptyList());
+   }
+
+   public String getLabel(String conceptUri) {
+      return labels.get(conceptUri);
+   }
+
+}
@@ -18,6 +18,7 @@ public class Document {
    private Date processDate;
    private String parserName;
    private String sha1Hash;
+   private String fingerprint;
 
    public long getId() {
       return id;
@@ -99,4 +100,12 @@ public class Document {
       this.sha1Hash = sha1Hash;
    }
 
+   public String getFingerprint() {
+      return fingerprint;
+   }
+
+   public void setFingerprint(String fingerprint) {
+      this.fingerprint = fingerprint;
+   }
+
 }
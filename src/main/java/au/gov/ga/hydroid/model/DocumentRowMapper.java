@@ -32,6 +32,7 @@ public class DocumentRowMapper implements RowMapper {
          document.setProcessDate(resultSet.getTimestamp("process_date"));
          document.setParserName(resultSet.getString("parser_name"));
          document.setSha1Hash(resultSet.getString("sha1_hash"));
+         document.setFingerprint(resultSet.getString("fingerprint"));
       } catch (SQLException e) {
          throw new HydroidException(e);
       }
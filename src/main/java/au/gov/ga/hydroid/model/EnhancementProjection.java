@@ -0,0 +1,59 @@
+package au.gov.ga.hydroid.model;
+
+import au.gov.ga.hydroid.HydroidConfiguration;
+import org.apache.jena.rdf.model.Statement;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Keeps only the enhancement triples our consumers use (enhancer.rdf.predicates), so the RDF
+ * stored in S3 and Jena is not the full Stanbol graph with every annotation's confidence and provenance.
+ */
+@Component
+public class EnhancementProjection {
+
+   @Autowired
+   private HydroidConfiguration configuration;
+
+   private Set<String> predicates = new HashSet<>();
+
+   @PostConstruct
+   public void init() {
+      String enhancerRdfPredicates = configuration.getEnhancerRdfPredicates();
+      if (enhancerRdfPredicates != null) {
+         for (String predicate : enhancerRdfPredicates.split(",")) {
+            if (!predicate.trim().isEmpty()) {
+               predicates.add(predicate.trim().toLowerCase());
+            }
+         }
+      }
+   }
+
+   /**
+    * false when no predicates are configured and the full graph is stored
+    */
+   public boolean isEnabled() {
+      return !predicates.isEmpty();
+   }
+
+   // Predicates are matched on their local name, the same way HydroidSolrMapper reads them
+   public List<Statement> project(List<Statement> rdfDocument) {
+      if (!isEnabled()) {
+         return rdfDocument;
+      }
+      List<Statement> projected = new ArrayList<>();
+      for (Statement statement : rdfDocument) {
+         if (predicates.contains(statement.getPredicate().getLocalName().toLowerCase())) {
+            projected.add(statement);
+         }
+      }
+      return projected;
+   }
+
+}
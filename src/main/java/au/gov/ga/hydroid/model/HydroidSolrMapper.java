@@ -3,10 +3,12 @@ package au.gov.ga.hydroid.model;
 import au.gov.ga.hydroid.HydroidConfiguration;
 import au.gov.ga.hydroid.dto.DocumentDTO;
 import org.apache.jena.rdf.model.*;
+import org.apache.solr.common.SolrInputDocument;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Created by u24529 on 27/04/2016.
@@ -21,25 +23,31 @@ public class HydroidSolrMapper {
    private static final String GA_PUBLIC_VOCABS = "GAPublicVocabsSandbox";
    private static final String SOLR_DOCUMENT_KEY = "about";
 
-   private static final List<String> VALID_PREDICATES = Arrays.asList(EXTRACTED_FROM, ENTITY_REFERENCE,
-         ENTITY_LABEL, SELECTION_CONTEXT);
+   // The predicates we are after, anything else is skipped before its object is read
+   private enum MappedPredicate { EXTRACTED_FROM, ENTITY_REFERENCE, ENTITY_LABEL, SELECTION_CONTEXT, NONE }
+
+   // Predicate URI to mapped predicate, there are only a handful of distinct predicates in the Stanbol output
+   private final Map<String, MappedPredicate> predicateCache = new ConcurrentHashMap<>();
 
    @Autowired
    private HydroidConfiguration configuration;
 
-   private Properties initProperties(DocumentDTO document) {
-      Properties properties = new Properties();
-      properties.put("content", document.getContent());
-      properties.put("title", document.getTitle());
-      properties.put("docType", document.getDocType());
-      properties.put("docOrigin", document.getOrigin());
+   @Autowired
+   private ConceptHierarchy conceptHierarchy;
+
+   private SolrInputDocument initDocument(DocumentDTO document) {
+      SolrInputDocument solrDocument = new SolrInputDocument();
+      solrDocument.setField("content", document.getContent());
+      solrDocument.setField("title", document.getTitle());
+      solrDocument.setField("docType", document.getDocType());
+      solrDocument.setField("docOrigin", document.getOrigin());
       if (document.getAuthor() != null) {
-         properties.put("creator", document.getAuthor());
+         solrDocument.setField("creator", document.getAuthor());
       }
       if (document.getDateCreated() != null) {
-         properties.put("created", document.getDateCreated());
+         solrDocument.setField("created", document.getDateCreated());
       }
-      return properties;
+      return solrDocument;
    }
 
    private void addStatementToRDF(List<Statement> rdfDocument, Resource subject, String propertyName, String value) {
@@ -69,83 +77,118 @@ public class HydroidSolrMapper {
       return documentUrl;
    }
 
-   // Add a new subject to the GA Vocab Subjects list
-   private void addGAVocabSubject(Map<String,String> gaVocabSubjects, Statement statement) {
-      String subject = statement.getSubject().getLocalName().toLowerCase();
-      String predicate = statement.getPredicate().getLocalName().toLowerCase();
-      String objectValue = statement.getObject().isLiteral() ? statement.getObject().asLiteral().getString()
-            : statement.getObject().asResource().getURI();
-      if ("entity-reference".equalsIgnoreCase(predicate) && objectValue.contains(GA_PUBLIC_VOCABS)
-            && gaVocabSubjects.get(subject) == null) {
-         gaVocabSubjects.put(subject, objectValue);
+   private MappedPredicate toMappedPredicate(Property predicate) {
+      switch (predicate.getLocalName().toLowerCase()) {
+         case EXTRACTED_FROM:
+            return MappedPredicate.EXTRACTED_FROM;
+         case ENTITY_REFERENCE:
+            return MappedPredicate.ENTITY_REFERENCE;
+         case ENTITY_LABEL:
+            return MappedPredicate.ENTITY_LABEL;
+         case SELECTION_CONTEXT:
+            return MappedPredicate.SELECTION_CONTEXT;
+         default:
+            return MappedPredicate.NONE;
       }
    }
 
-   // add new value if not there yet
-   private void addMultiValuedField(Map<String,List<String>> multiValuedFields, String predicate, String objectValue) {
-      List<String> multiValuedField = multiValuedFields.get(predicate);
-      if (!multiValuedField.contains(objectValue)) {
-         multiValuedField.add(objectValue);
+   private MappedPredicate getMappedPredicate(Property predicate) {
+      MappedPredicate mappedPredicate = predicateCache.get(predicate.getURI());
+      if (mappedPredicate == null) {
+         mappedPredicate = toMappedPredicate(predicate);
+         predicateCache.put(predicate.getURI(), mappedPredicate);
       }
+      return mappedPredicate;
    }
 
-   private boolean processStatement(Statement statement, Properties properties, Map<String,List<String>> multiValuedFields) {
-      String predicate = statement.getPredicate().getLocalName().toLowerCase();
-      String objectValue = statement.getObject().isLiteral() ? statement.getObject().asLiteral().getString()
-            : statement.getObject().asResource().getURI();
+   private String getObjectValue(Statement statement) {
+      RDFNode object = statement.getObject();
+      return object.isLiteral() ? object.asLiteral().getString() : object.asResource().getURI();
+   }
 
-      // Discard if the predicate is not included in the list we are after
-      if (!VALID_PREDICATES.contains(predicate)) {
-         return false;
+   // Multi-valued fields are only added when they have values, same as an empty list used to be
+   private void setMultiValuedField(SolrInputDocument solrDocument, String fieldName, Set<String> values) {
+      if (!values.isEmpty()) {
+         solrDocument.setField(fieldName, values);
       }
+   }
 
-      if (EXTRACTED_FROM.equalsIgnoreCase(predicate) && !properties.containsKey(SOLR_DOCUMENT_KEY)) {
-         properties.put(SOLR_DOCUMENT_KEY, objectValue);
-
-      } else if (multiValuedFields.get(predicate) != null) {
-         addMultiValuedField(multiValuedFields, predicate, objectValue);
-
-      } else {
-         properties.put(predicate, objectValue);
+   // Each concept and all its broader concepts, so a broad concept is found with a single term lookup
+   private void addConceptHierarchy(SolrInputDocument solrDocument, Set<String> concepts) {
+      Set<String> hierarchyConcepts = new LinkedHashSet<>();
+      for (String concept : concepts) {
+         hierarchyConcepts.add(concept);
+         hierarchyConcepts.addAll(conceptHierarchy.getAncestors(concept));
       }
-
-      return true;
+      Set<String> hierarchyLabels = new LinkedHashSet<>();
+      for (String concept : hierarchyConcepts) {
+         String label = conceptHierarchy.getLabel(concept);
+         if (label != null) {
+            hierarchyLabels.add(label);
+         }
+      }
+      setMultiValuedField(solrDocument, "conceptHierarchy", hierarchyConcepts);
+      setMultiValuedField(solrDocument, "conceptHierarchyLabel", hierarchyLabels);
    }
 
-   public Properties generateDocument(List<Statement> rdfDocument, DocumentDTO document) {
-      Map<String,String> gaVocabSubjects = new HashMap<>();
-      Map<String,List<String>> multiValuedFields = new HashMap<>();
-      multiValuedFields.put(ENTITY_REFERENCE, new ArrayList<>());
-      multiValuedFields.put(ENTITY_LABEL, new ArrayList<>());
-      multiValuedFields.put(SELECTION_CONTEXT, new ArrayList<>());
+   /**
+    * Maps the enhancement statements to a Solr document in a single pass over the statements,
+    * an empty document is returned when no labels or concepts (or no GA vocabs when required) were found.
+    */
+   public SolrInputDocument generateDocument(List<Statement> rdfDocument, DocumentDTO document) {
+      boolean gaVocabsFound = false;
+      Set<String> labels = new LinkedHashSet<>();
+      Set<String> concepts = new LinkedHashSet<>();
+      Set<String> selectionContexts = new LinkedHashSet<>();
 
-      Properties properties = initProperties(document);
+      SolrInputDocument solrDocument = initDocument(document);
+      String about = null;
 
       for (Statement statement : rdfDocument) {
-         if (processStatement(statement, properties, multiValuedFields)) {
-            addGAVocabSubject(gaVocabSubjects, statement);
+         switch (getMappedPredicate(statement.getPredicate())) {
+            case EXTRACTED_FROM:
+               if (about == null) {
+                  about = getObjectValue(statement);
+                  solrDocument.setField(SOLR_DOCUMENT_KEY, about);
+               } else {
+                  solrDocument.setField(EXTRACTED_FROM, getObjectValue(statement));
+               }
+               break;
+            case ENTITY_REFERENCE:
+               String concept = getObjectValue(statement);
+               concepts.add(concept);
+               gaVocabsFound = gaVocabsFound || concept.contains(GA_PUBLIC_VOCABS);
+               break;
+            case ENTITY_LABEL:
+               labels.add(getObjectValue(statement));
+               break;
+            case SELECTION_CONTEXT:
+               selectionContexts.add(getObjectValue(statement));
+               break;
+            default:
+               break;
          }
       }
 
       // GAPublicVocabs is required but none was found
-      boolean isGAVocabsNotValid = configuration.isStoreGAVocabsOnly() && gaVocabSubjects.isEmpty();
+      boolean isGAVocabsNotValid = configuration.isStoreGAVocabsOnly() && !gaVocabsFound;
 
-      // No labels or concepts were found so we discard the process by clearing all the properties
-      if (isGAVocabsNotValid || (multiValuedFields.get(ENTITY_LABEL).isEmpty()
-            && multiValuedFields.get(ENTITY_REFERENCE).isEmpty())) {
-         properties.clear();
+      // No labels or concepts were found so we discard the process by returning an empty document
+      if (isGAVocabsNotValid || (labels.isEmpty() && concepts.isEmpty())) {
+         solrDocument.clear();
 
       } else {
          // Add additional statements to RDF and generate documentURL
-         String documentUrl = addStatementsToRDF(rdfDocument, properties.getProperty(SOLR_DOCUMENT_KEY), document);
+         String documentUrl = addStatementsToRDF(rdfDocument, about, document);
 
-         properties.put("label", multiValuedFields.get(ENTITY_LABEL));
-         properties.put("concept", multiValuedFields.get(ENTITY_REFERENCE));
-         properties.put("docUrl", documentUrl);
-         properties.put("selectionContext", multiValuedFields.get(SELECTION_CONTEXT));
+         setMultiValuedField(solrDocument, "label", labels);
+         setMultiValuedField(solrDocument, "concept", concepts);
+         solrDocument.setField("docUrl", documentUrl);
+         setMultiValuedField(solrDocument, "selectionContext", selectionContexts);
+         addConceptHierarchy(solrDocument, concepts);
       }
 
-      return properties;
+      return solrDocument;
    }
 
 }
@@ -0,0 +1,37 @@
+package au.gov.ga.hydroid.model;
+
+import org.springframework.http.MediaType;
+
+/**
+ * The RDF serializations the enhancement RDFs can be downloaded as.
+ */
+public enum RdfFormat {
+
+   RDF_XML("application/rdf+xml", "RDF/XML", "rdf"),
+   TURTLE("text/turtle", "TURTLE", "ttl"),
+   N_TRIPLES("application/n-triples", "N-TRIPLES", "nt"),
+   JSON_LD("application/ld+json", "JSON-LD", "jsonld");
+
+   private final MediaType mediaType;
+   private final String jenaLang;
+   private final String extension;
+
+   RdfFormat(String mediaType, String jenaLang, String extension) {
+      this.mediaType = MediaType.valueOf(mediaType);
+      this.jenaLang = jenaLang;
+      this.extension = extension;
+   }
+
+   public MediaType getMediaType() {
+      return mediaType;
+   }
+
+   public String getJenaLang() {
+      return jenaLang;
+   }
+
+   public String getExtension() {
+      return extension;
+   }
+
+}
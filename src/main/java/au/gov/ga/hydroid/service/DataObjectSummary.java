@@ -1,9 +1,18 @@
 package au.gov.ga.hydroid.service;
 
+import java.util.Date;
+
 /**
  * Generic interface for S3 objects, this is so other sources like file system can be used.
  */
 public interface DataObjectSummary {
    String getKey();
    String getBucketName();
+
+   /**
+    * size in bytes as listed, -1 when the listing did not include it
+    */
+   long getSize();
+   String getETag();
+   Date getLastModified();
 }
@@ -18,6 +18,7 @@ public interface DocumentService {
    void create(Document document);
    void deleteByUrn(String urn);
    void update(Document document);
+   void updateProcessDate(long id);
    void clearAll();
 
    void createImageMetadata(String origin, String metadata);
@@ -9,6 +9,12 @@ public interface EnhancerService {
 
    public boolean enhance(DocumentDTO documentDTO);
 
+   /**
+    * like enhance but the document is sent to Solr straight away rather than with the next batch,
+    * so the result also tells whether it was indexed
+    */
+   public boolean enhanceNow(DocumentDTO documentDTO);
+
    public void enhanceDocuments();
    public void enhanceDatasets();
    public void enhanceModels();
@@ -12,6 +12,7 @@ public interface JenaService {
    public void storeRdfDefault(String rdfInput, String baseRdfUrl);
    public void storeRdf(String rdfId, String rdfInput, String baseRdfUrl);
    public List<Statement> parseRdf(String rdfInput, String baseRdfUrl);
+   public String writeRdf(List<Statement> statements, String lang);
    public void deleteRdfDefault();
    public void deleteRdf(String rdfId);
    public List<Statement> readRdf(String rdfId);
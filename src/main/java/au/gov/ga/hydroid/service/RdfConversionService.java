@@ -0,0 +1,20 @@
+package au.gov.ga.hydroid.service;
+
+import au.gov.ga.hydroid.model.RdfFormat;
+
+/**
+ * Converts the stored enhancement RDF/XML into the other RDF serializations, each conversion is cached.
+ */
+public interface RdfConversionService {
+
+   /**
+    * @return the gzipped serialization of the enhancement RDF, null if there is no RDF for the urn
+    */
+   public byte[] getConverted(String urn, RdfFormat format);
+
+   /**
+    * drops the cached conversions of the urn, to be called whenever its RDF is stored again or deleted
+    */
+   public void invalidate(String urn);
+
+}
@@ -3,6 +3,7 @@ package au.gov.ga.hydroid.service;
 import com.amazonaws.services.s3.model.ObjectMetadata;
 
 import java.io.InputStream;
+import java.util.Iterator;
 import java.util.List;
 
 /**
@@ -14,16 +15,30 @@ public interface S3Client {
 
    InputStream getFile(String bucketName, String key);
 
+   /**
+    * returns the bytes from start to end (inclusive) of the object, null when it does not exist
+    */
+   InputStream getFile(String bucketName, String key, long start, long end);
+
    byte[] getFileAsByteArray(String bucketName, String key);
 
    void storeFile(String bucketName, String key, String content, String contentType);
 
    void storeFile(String bucketName, String key, InputStream content, String contentType, long contentLength);
 
+   void storeFile(String bucketName, String key, InputStream content, String contentType, String contentEncoding,
+                  long contentLength);
+
    void deleteFile(String bucketName, String key);
 
    List<DataObjectSummary> listObjects(String bucketName, String key);
 
+   /**
+    * lists the objects one page at a time, the next page is only requested once the previous one is consumed.
+    * When the iterator is also Closeable, close it if it is not read to the end
+    */
+   Iterator<DataObjectSummary> iterateObjects(String bucketName, String key);
+
    void copyObject(String sourceBucketName, String sourceKey, String destinationBucketName, String destinationKey);
 
    ObjectMetadata getObjectMetadata(String bucketName, String key);
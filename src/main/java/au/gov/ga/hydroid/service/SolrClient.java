@@ -1,14 +1,64 @@
 package au.gov.ga.hydroid.service;
 
-import java.util.Properties;
+import org.apache.solr.common.SolrInputDocument;
+
+import java.util.List;
+import java.util.function.Consumer;
 
 /**
  * Created by u24529 on 3/02/2016.
  */
 public interface SolrClient {
 
-   public void addDocument(String collectionName, Properties properties);
+   public void addDocument(String collectionName, SolrInputDocument document);
+
+   /**
+    * adds the document, onFailure is called (possibly later and from another thread)
+    * if this document could not be indexed
+    */
+   public void addDocument(String collectionName, SolrInputDocument document, Consumer<Exception> onFailure);
+
+   /**
+    * adds the document, onIndexed is called once Solr accepted it and onFailure if it could not be indexed
+    * (either possibly later and from another thread)
+    */
+   public void addDocument(String collectionName, SolrInputDocument document, Runnable onIndexed,
+                           Consumer<Exception> onFailure);
+
+   /**
+    * sends the document straight away, without going through the batches or the update queue
+    * @throws au.gov.ga.hydroid.utils.HydroidException if Solr did not accept it
+    */
+   public void indexDocument(String collectionName, SolrInputDocument document);
+
    public void deleteDocument(String collectionName, String id);
    public void deleteAll(String collectionName);
 
+   /**
+    * sends any documents still buffered by addDocument and makes them searchable
+    */
+   public void flush();
+
+   /**
+    * creates a new collection (SolrCloud) using the configured config set, shards and replicas
+    */
+   public void createCollection(String collectionName);
+
+   public void deleteCollection(String collectionName);
+
+   /**
+    * @return the number of searchable documents in the collection
+    */
+   public long countDocuments(String collectionName);
+
+   /**
+    * @return the collections the alias currently points to (empty if the alias does not exist)
+    */
+   public List<String> getAliasedCollections(String alias);
+
+   /**
+    * creates the alias or atomically switches it to the given collection
+    */
+   public void createAlias(String alias, String collectionName);
+
 }
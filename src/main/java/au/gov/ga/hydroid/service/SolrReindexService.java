@@ -0,0 +1,35 @@
+package au.gov.ga.hydroid.service;
+
+/**
+ * Rebuilds the Solr index from the enhancement RDFs already stored in S3, without calling Stanbol.
+ */
+public interface SolrReindexService {
+
+   /**
+    * indexes every successfully enhanced document into the given collection
+    * @return the number of documents sent to Solr
+    */
+   public int reindex(String collectionName);
+
+   /**
+    * builds a new collection named after the alias, switches the alias to it once the bulk load
+    * is complete and drops the collections the alias pointed to before
+    * @return the name of the new collection
+    */
+   public String rebuild(String alias);
+
+   /**
+    * runs reindex in the background
+    * @return false if a reindex is already running
+    */
+   public boolean startReindex(String collectionName);
+
+   /**
+    * runs rebuild in the background
+    * @return false if a reindex is already running
+    */
+   public boolean startRebuild(String alias);
+
+   public boolean isRunning();
+
+}
@@ -0,0 +1,35 @@
+package au.gov.ga.hydroid.service;
+
+import java.util.List;
+
+/**
+ * Creates and serves the thumbnails of the enhanced images, one per configured size.
+ */
+public interface ThumbnailService {
+
+   /**
+    * @return the configured thumbnail sizes (longest side in pixels), the first one is the default
+    */
+   public List<Integer> getSizes();
+
+   /**
+    * @return the key of the thumbnail in the output bucket
+    */
+   public String getThumbnailKey(String urn, int size);
+
+   /**
+    * queues the creation of every configured size, the image is read from the output bucket when null
+    */
+   public void generateThumbnails(String urn, byte[] image);
+
+   /**
+    * @return the JPEG thumbnail, created and stored first when missing, null if the image is not there
+    */
+   public byte[] getThumbnail(String urn, int size);
+
+   /**
+    * deletes the thumbnails of every configured size
+    */
+   public void deleteThumbnails(String urn);
+
+}
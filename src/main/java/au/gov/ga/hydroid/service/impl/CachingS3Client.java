@@ -0,0 +1,646 @@
+package au.gov.ga.hydroid.service.impl;
+
+import au.gov.ga.hydroid.HydroidConfiguration;
+import au.gov.ga.hydroid.service.DataObjectSummary;
+import au.gov.ga.hydroid.service.S3Client;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.BoundedInputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Read-through cache in front of S3 for the output bucket (RDFs and images served to clients), the originals in
+ * the other buckets are mostly read once and would only push those out. Objects up to s3.cache.heap.object.size.kb
+ * are kept in memory and bigger ones in a local directory, each tier dropping the least recently used objects once
+ * it holds too many bytes.
+ * Writes made through this client drop the cached copy, entries also expire after s3.cache.ttl seconds
+ * in case another instance changed the object.
+ */
+@Service("cachingS3Client")
+public class CachingS3Client implements S3Client, PublicMetrics {
+
+   private static final Logger logger = LoggerFactory.getLogger(CachingS3Client.class);
+
+   private static final long KILOBYTE = 1024L;
+   private static final long MEGABYTE = 1024L * KILOBYTE;
+   private static final int MAX_METADATA_ENTRIES = 10000;
+   private static final int MAX_CACHE_DIRECTORIES = 16;
+   private static final String CACHE_DIRECTORY_PREFIX = "hydroid-s3-cache-";
+   private static final String CACHE_FILE_PREFIX = "object";
+   private static final String CACHE_FILE_SUFFIX = ".cache";
+   private static final String CACHE_FILE_PATTERN = CACHE_FILE_PREFIX + "*" + CACHE_FILE_SUFFIX;
+
+   @Autowired
+   private HydroidConfiguration configuration;
+
+   @Autowired
+   @Qualifier("s3ClientImpl")
+   private S3Client s3Client;
+
+   private Path cacheDirectory;
+
+   private FileLock cacheDirectoryLock;
+
+   private final CacheTier<byte[]> heapTier = new CacheTier<>();
+
+   private final CacheTier<Path> diskTier = new CacheTier<>();
+
+   private final Map<String, CacheEntry<ObjectMetadata>> metadataCache =
+         new LinkedHashMap<String, CacheEntry<ObjectMetadata>>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, CacheEntry<ObjectMetadata>> eldest) {
+         return size() > MAX_METADATA_ENTRIES;
+      }
+   };
+
+   // Objects being read into the cache, and the ones among them that were written to meanwhile
+   private final Map<String, Integer> downloading = new HashMap<>();
+   private final Set<String> changedWhileDownloading = new HashSet<>();
+
+   private final AtomicLong heapHits = new AtomicLong();
+   private final AtomicLong diskHits = new AtomicLong();
+   private final AtomicLong misses = new AtomicLong();
+   private final AtomicLong metadataHits = new AtomicLong();
+   private final AtomicLong metadataMisses = new AtomicLong();
+
+   private static class CacheEntry<V> {
+
+      private final V value;
+      private final long size;
+      private final long storedAt = System.currentTimeMillis();
+
+      CacheEntry(V value, long size) {
+         this.value = value;
+         this.size = size;
+      }
+
+   }
+
+   // Not thread safe, only used while holding the lock of the client
+   private static class CacheTier<V> {
+
+      private final LinkedHashMap<String, CacheEntry<V>> entries = new LinkedHashMap<>(16, 0.75f, true);
+      private long bytes;
+
+      CacheEntry<V> get(String cacheKey) {
+         return entries.get(cacheKey);
+      }
+
+      CacheEntry<V> remove(String cacheKey) {
+         CacheEntry<V> removed = entries.remove(cacheKey);
+         if (removed != null) {
+            bytes -= removed.size;
+         }
+         return removed;
+      }
+
+      // Returns the entries that no longer are in the tier, including the one replaced
+      List<CacheEntry<V>> put(String cacheKey, CacheEntry<V> entry, long maxBytes) {
+         List<CacheEntry<V>> removed = new ArrayList<>();
+         CacheEntry<V> replaced = remove(cacheKey);
+         if (replaced != null) {
+            removed.add(replaced);
+         }
+         entries.put(cacheKey, entry);
+         bytes += entry.size;
+         Iterator<CacheEntry<V>> leastRecentlyUsed = entries.values().iterator();
+         while (bytes > maxBytes && leastRecentlyUsed.hasNext()) {
+            CacheEntry<V> evicted = leastRecentlyUsed.next();
+            leastRecentlyUsed.remove();
+            bytes -= evicted.size;
+            removed.add(evicted);
+         }
+         return removed;
+      }
+
+   }
+
+   /**
+    * Copies the object to the cache file as it is read, it is only kept if it was read to the end.
+    */
+   private class CachingInputStream extends FilterInputStream {
+
+      private final String cacheKey;
+      private final Path cacheFile;
+      private OutputStream cacheOut;
+      private long size;
+      private boolean complete;
+      private boolean closed;
+
+      CachingInputStream(InputStream in, String cacheKey, Path cacheFile) throws IOException {
+         super(in);
+         this.cacheKey = cacheKey;
+         this.cacheFile = cacheFile;
+         this.cacheOut = new BufferedOutputStream(Files.newOutputStream(cacheFile));
+      }
+
+      private void stopCaching() {
+         try {
+            if (cacheOut != null) {
+               cacheOut.close();
+            }
+         } catch (IOException e) {
+            logger.debug("stopCaching - IOException: ", e);
+         }
+         cacheOut = null;
+      }
+
+      private void cache(byte[] buffer, int offset, int length) {
+         if (cacheOut == null) {
+            return;
+         }
+         try {
+            cacheOut.write(buffer, offset, length);
+            size += length;
+            if (size > getDiskMaxBytes()) {
+               stopCaching();
+            }
+         } catch (IOException e) {
+            logger.debug("cache - IOException: ", e);
+            stopCaching();
+         }
+      }
+
+      @Override
+      public int read() throws IOException {
+         int read = super.read();
+         if (read == -1) {
+            complete = true;
+         } else {
+            cache(new byte[] {(byte) read}, 0, 1);
+         }
+         return read;
+      }
+
+      @Override
+      public int read(byte[] buffer, int offset, int length) throws IOException {
+         int read = super.read(buffer, offset, length);
+         if (read == -1) {
+            complete = true;
+         } else {
+            cache(buffer, offset, read);
+         }
+         return read;
+      }
+
+      // Skipped bytes never reach the cache file
+      @Override
+      public long skip(long n) throws IOException {
+         stopCaching();
+         return super.skip(n);
+      }
+
+      @Override
+      public boolean markSupported() {
+         return false;
+      }
+
+      @Override
+      public void close() throws IOException {
+         if (closed) {
+            return;
+         }
+         closed = true;
+         try {
+            super.close();
+         } finally {
+            boolean cached = cacheOut != null && complete;
+            stopCaching();
+            finishCaching(cacheKey, cacheFile, size, cached);
+         }
+      }
+
+   }
+
+   // Locks the first subdirectory no other instance is using, a crashed one releases its lock
+   private Path lockCacheDirectory(Path baseDirectory) throws IOException {
+      for (int i = 0; i < MAX_CACHE_DIRECTORIES; i++) {
+         Path directory = Files.createDirectories(baseDirectory.resolve(CACHE_DIRECTORY_PREFIX + i));
+         FileChannel channel = FileChannel.open(directory.resolve(".lock"), StandardOpenOption.CREATE,
+               StandardOpenOption.WRITE);
+         try {
+            cacheDirectoryLock = channel.tryLock();
+         } catch (OverlappingFileLockException e) {
+            logger.debug("lockCacheDirectory - OverlappingFileLockException: ", e);
+         }
+         if (cacheDirectoryLock != null) {
+            return directory;
+         }
+         channel.close();
+      }
+      throw new IOException("All the cache directories in " + baseDirectory + " are in use");
+   }
+
+   @PostConstruct
+   public void init() {
+      if (!configuration.isS3CacheEnabled()) {
+         return;
+      }
+      String dir = configuration.getS3CacheDir();
+      Path baseDirectory = Paths.get(dir == null || dir.isEmpty() ? System.getProperty("java.io.tmpdir") : dir);
+      try {
+         cacheDirectory = lockCacheDirectory(baseDirectory);
+         // Whatever is left from a previous run is not in the index, only the cache files are removed
+         try (DirectoryStream<Path> leftovers = Files.newDirectoryStream(cacheDirectory, CACHE_FILE_PATTERN)) {
+            leftovers.forEach(this::deleteQuietly);
+         }
+      } catch (IOException e) {
+         logger.warn("init - cannot use " + baseDirectory + " for the S3 cache: ", e);
+         cacheDirectory = null;
+      }
+   }
+
+   @PreDestroy
+   public void shutdown() {
+      if (cacheDirectoryLock != null) {
+         try {
+            cacheDirectoryLock.channel().close();
+         } catch (IOException e) {
+            logger.debug("shutdown - IOException: ", e);
+         }
+         cacheDirectoryLock = null;
+      }
+   }
+
+   private boolean isEnabled() {
+      return configuration.isS3CacheEnabled() && cacheDirectory != null;
+   }
+
+   private boolean isCached(String bucketName) {
+      return isEnabled() && bucketName.equals(configuration.getS3OutputBucket());
+   }
+
+   private long getDiskMaxBytes() {
+      return configuration.getS3CacheDiskSizeMb() * MEGABYTE;
+   }
+
+   private long getHeapMaxBytes() {
+      return configuration.getS3CacheHeapSizeMb() * MEGABYTE;
+   }
+
+   private long getHeapObjectMaxBytes() {
+      return configuration.getS3CacheHeapObjectSizeKb() * KILOBYTE;
+   }
+
+   private boolean isExpired(CacheEntry<?> entry) {
+      return configuration.getS3CacheTtl() > 0
+            && System.currentTimeMillis() - entry.storedAt > configuration.getS3CacheTtl() * 1000L;
+   }
+
+   private String getCacheKey(String bucketName, String key) {
+      return bucketName + "/" + key;
+   }
+
+   private void deleteQuietly(Path file) {
+      try {
+         Files.deleteIfExists(file);
+      } catch (IOException e) {
+         logger.debug("deleteQuietly - IOException: ", e);
+      }
+   }
+
+   private synchronized byte[] getFromHeap(String cacheKey) {
+      CacheEntry<byte[]> entry = heapTier.get(cacheKey);
+      if (entry == null || isExpired(entry)) {
+         heapTier.remove(cacheKey);
+         return null;
+      }
+      return entry.value;
+   }
+
+   private Path getFromDisk(String cacheKey) {
+      CacheEntry<Path> expired;
+      synchronized (this) {
+         CacheEntry<Path> entry = diskTier.get(cacheKey);
+         if (entry == null || !isExpired(entry)) {
+            return entry == null ? null : entry.value;
+         }
+         expired = diskTier.remove(cacheKey);
+      }
+      deleteQuietly(expired.value);
+      return null;
+   }
+
+   private InputStream startCaching(String cacheKey, InputStream content) {
+      try {
+         Path cacheFile = Files.createTempFile(cacheDirectory, CACHE_FILE_PREFIX, CACHE_FILE_SUFFIX);
+         synchronized (this) {
+            downloading.merge(cacheKey, 1, Integer::sum);
+         }
+         return new CachingInputStream(content, cacheKey, cacheFile);
+      } catch (IOException e) {
+         logger.warn("startCaching - IOException: ", e);
+         return content;
+      }
+   }
+
+   private void finishCaching(String cacheKey, Path cacheFile, long size, boolean complete) {
+      byte[] bytes = null;
+      if (complete && size <= getHeapObjectMaxBytes() && getHeapMaxBytes() > 0) {
+         try {
+            bytes = Files.readAllBytes(cacheFile);
+         } catch (IOException e) {
+            logger.debug("finishCaching - IOException: ", e);
+         }
+      }
+
+      store(cacheKey, bytes, cacheFile, size, complete);
+   }
+
+   // The object goes to the heap when its bytes are given, otherwise to the disk when there is a cache file
+   private void store(String cacheKey, byte[] bytes, Path cacheFile, long size, boolean complete) {
+      List<Path> unusedFiles = new ArrayList<>();
+      synchronized (this) {
+         boolean changed = changedWhileDownloading.contains(cacheKey);
+         if (downloading.merge(cacheKey, -1, Integer::sum) <= 0) {
+            downloading.remove(cacheKey);
+            changedWhileDownloading.remove(cacheKey);
+         }
+         if (!complete || changed) {
+            unusedFiles.add(cacheFile);
+         } else if (bytes != null) {
+            unusedFiles.add(cacheFile);
+            heapTier.put(cacheKey, new CacheEntry<>(bytes, bytes.length), getHeapMaxBytes());
+         } else if (cacheFile != null) {
+            diskTier.put(cacheKey, new CacheEntry<>(cacheFile, size), getDiskMaxBytes())
+                  .forEach(removed -> unusedFiles.add(removed.value));
+         }
+      }
+      unusedFiles.stream().filter(file -> file != null).forEach(this::deleteQuietly);
+   }
+
+   // Keeps its own copy of small objects, the caller may change the array it got
+   private void cacheDownloaded(String cacheKey, byte[] content) {
+      byte[] bytes = null;
+      Path cacheFile = null;
+      if (content != null && content.length <= getHeapObjectMaxBytes() && getHeapMaxBytes() > 0) {
+         bytes = content.clone();
+      } else if (content != null && content.length <= getDiskMaxBytes()) {
+         try {
+            cacheFile = Files.createTempFile(cacheDirectory, CACHE_FILE_PREFIX, CACHE_FILE_SUFFIX);
+            Files.write(cacheFile, content);
+         } catch (IOException e) {
+            logger.debug("cacheDownloaded - IOException: ", e);
+            if (cacheFile != null) {
+               deleteQuietly(cacheFile);
+               cacheFile = null;
+            }
+         }
+      }
+      store(cacheKey, bytes, cacheFile, content == null ? 0 : content.length, bytes != null || cacheFile != null);
+   }
+
+   /**
+    * drops the cached copy of the object, downloads still running will not be cached either
+    */
+   public void invalidate(String bucketName, String key) {
+      if (!isEnabled()) {
+         return;
+      }
+      String cacheKey = getCacheKey(bucketName, key);
+      CacheEntry<Path> removed;
+      synchronized (this) {
+         heapTier.remove(cacheKey);
+         metadataCache.remove(cacheKey);
+         removed = diskTier.remove(cacheKey);
+         if (downloading.containsKey(cacheKey)) {
+            changedWhileDownloading.add(cacheKey);
+         }
+      }
+      if (removed != null) {
+         deleteQuietly(removed.value);
+      }
+   }
+
+   @Override
+   public String getAccountOwner() {
+      return s3Client.getAccountOwner();
+   }
+
+   @Override
+   public InputStream getFile(String bucketName, String key) {
+      if (!isCached(bucketName)) {
+         return s3Client.getFile(bucketName, key);
+      }
+      String cacheKey = getCacheKey(bucketName, key);
+      byte[] bytes = getFromHeap(cacheKey);
+      if (bytes != null) {
+         heapHits.incrementAndGet();
+         return new ByteArrayInputStream(bytes);
+      }
+      Path cachedFile = getFromDisk(cacheKey);
+      if (cachedFile != null) {
+         try {
+            InputStream cached = Files.newInputStream(cachedFile);
+            diskHits.incrementAndGet();
+            return cached;
+         } catch (IOException e) {
+            // Evicted between the lookup and the read
+            logger.debug("getFile - IOException: ", e);
+         }
+      }
+
+      misses.incrementAndGet();
+      InputStream content = s3Client.getFile(bucketName, key);
+      return content == null ? null : startCaching(cacheKey, content);
+   }
+
+   // Ranges are served from the cache when the object is there but do not add it to the cache
+   @Override
+   public InputStream getFile(String bucketName, String key, long start, long end) {
+      if (!isCached(bucketName)) {
+         return s3Client.getFile(bucketName, key, start, end);
+      }
+      String cacheKey = getCacheKey(bucketName, key);
+      byte[] bytes = getFromHeap(cacheKey);
+      if (bytes != null && start < bytes.length) {
+         heapHits.incrementAndGet();
+         return new ByteArrayInputStream(bytes, (int) start, (int) Math.min(end - start + 1, bytes.length - start));
+      }
+      Path cachedFile = getFromDisk(cacheKey);
+      if (cachedFile != null) {
+         try {
+            InputStream cached = Files.newInputStream(cachedFile);
+            IOUtils.skipFully(cached, start);
+            diskHits.incrementAndGet();
+            return new BoundedInputStream(cached, end - start + 1);
+         } catch (IOException e) {
+            logger.debug("getFile - IOException: ", e);
+         }
+      }
+      misses.incrementAndGet();
+      return s3Client.getFile(bucketName, key, start, end);
+   }
+
+   // Misses are downloaded by the client as a whole, so big objects still come in parallel ranges
+   @Override
+   public byte[] getFileAsByteArray(String bucketName, String key) {
+      if (!isCached(bucketName)) {
+         return s3Client.getFileAsByteArray(bucketName, key);
+      }
+      String cacheKey = getCacheKey(bucketName, key);
+      byte[] bytes = getFromHeap(cacheKey);
+      if (bytes != null) {
+         heapHits.incrementAndGet();
+         return bytes.clone();
+      }
+      Path cachedFile = getFromDisk(cacheKey);
+      if (cachedFile != null) {
+         try {
+            byte[] cached = Files.readAllBytes(cachedFile);
+            diskHits.incrementAndGet();
+            return cached;
+         } catch (IOException e) {
+            logger.debug("getFileAsByteArray - IOException: ", e);
+         }
+      }
+
+      misses.incrementAndGet();
+      synchronized (this) {
+         downloading.merge(cacheKey, 1, Integer::sum);
+      }
+      byte[] content = null;
+      try {
+         content = s3Client.getFileAsByteArray(bucketName, key);
+      } finally {
+         cacheDownloaded(cacheKey, content);
+      }
+      return content;
+   }
+
+   @Override
+   public void storeFile(String bucketName, String key, String content, String contentType) {
+      try {
+         s3Client.storeFile(bucketName, key, content, contentType);
+      } finally {
+         invalidate(bucketName, key);
+      }
+   }
+
+   @Override
+   public void storeFile(String bucketName, String key, InputStream content, String contentType, long contentLength) {
+      try {
+         s3Client.storeFile(bucketName, key, content, contentType, contentLength);
+      } finally {
+         invalidate(bucketName, key);
+      }
+   }
+
+   @Override
+   public void storeFile(String bucketName, String key, InputStream content, String contentType,
+                         String contentEncoding, long contentLength) {
+      try {
+         s3Client.storeFile(bucketName, key, content, contentType, contentEncoding, contentLength);
+      } finally {
+         invalidate(bucketName, key);
+      }
+   }
+
+   @Override
+   public void deleteFile(String bucketName, String key) {
+      try {
+         s3Client.deleteFile(bucketName, key);
+      } finally {
+         invalidate(bucketName, key);
+      }
+   }
+
+   @Override
+   public List<DataObjectSummary> listObjects(String bucketName, String key) {
+      return s3Client.listObjects(bucketName, key);
+   }
+
+   @Override
+   public Iterator<DataObjectSummary> iterateObjects(String bucketName, String key) {
+      return s3Client.iterateObjects(bucketName, key);
+   }
+
+   @Override
+   public void copyObject(String sourceBucketName, String sourceKey, String destinationBucketName,
+                          String destinationKey) {
+      try {
+         s3Client.copyObject(sourceBucketName, sourceKey, destinationBucketName, destinationKey);
+      } finally {
+         invalidate(destinationBucketName, destinationKey);
+      }
+   }
+
+   @Override
+   public ObjectMetadata getObjectMetadata(String bucketName, String key) {
+      if (!isEnabled()) {
+         return s3Client.getObjectMetadata(bucketName, key);
+      }
+      String cacheKey = getCacheKey(bucketName, key);
+      synchronized (this) {
+         CacheEntry<ObjectMetadata> entry = metadataCache.get(cacheKey);
+         if (entry != null && !isExpired(entry)) {
+            metadataHits.incrementAndGet();
+            return entry.value;
+         }
+      }
+      metadataMisses.incrementAndGet();
+      ObjectMetadata metadata = s3Client.getObjectMetadata(bucketName, key);
+      if (metadata != null) {
+         synchronized (this) {
+            metadataCache.put(cacheKey, new CacheEntry<>(metadata, 0));
+         }
+      }
+      return metadata;
+   }
+
+   private static double getRatio(long hits, long misses) {
+      return hits + misses == 0 ? 0 : (double) hits / (hits + misses);
+   }
+
+   @Override
+   public Collection<Metric<?>> metrics() {
+      List<Metric<?>> metrics = new ArrayList<>();
+      metrics.add(new Metric<Number>("s3.cache.heap.hits", heapHits.get()));
+      metrics.add(new Metric<Number>("s3.cache.disk.hits", diskHits.get()));
+      metrics.add(new Metric<Number>("s3.cache.misses", misses.get()));
+      metrics.add(new Metric<Number>("s3.cache.hit.ratio", getRatio(heapHits.get() + diskHits.get(), misses.get())));
+      metrics.add(new Metric<Number>("s3.cache.metadata.hit.ratio", getRatio(metadataHits.get(),
+            metadataMisses.get())));
+      synchronized (this) {
+         metrics.add(new Metric<Number>("s3.cache.heap.bytes", heapTier.bytes));
+         metrics.add(new Metric<Number>("s3.cache.heap.objects", heapTier.entries.size()));
+         metrics.add(new Metric<Number>("s3.cache.disk.bytes", diskTier.bytes));
+         metrics.add(new Metric<Number>("s3.cache.disk.objects", diskTier.entries.size()));
+      }
+      return metrics;
+   }
+
+}
@@ -3,6 +3,8 @@ package au.gov.ga.hydroid.service.impl;
 import au.gov.ga.hydroid.service.DataObjectSummary;
 import com.amazonaws.services.s3.model.S3ObjectSummary;
 
+import java.util.Date;
+
 /**
  * Created by u31532 on 11/04/2016.
  */
@@ -11,15 +13,28 @@ public class DataObjectSummaryImpl implements DataObjectSummary {
    public DataObjectSummaryImpl(S3ObjectSummary s3ObjectSummary) {
       key = s3ObjectSummary.getKey();
       bucketName = s3ObjectSummary.getBucketName();
+      size = s3ObjectSummary.getSize();
+      eTag = s3ObjectSummary.getETag();
+      lastModified = s3ObjectSummary.getLastModified();
    }
 
    public DataObjectSummaryImpl(String bucketName,String key) {
+      this(bucketName, key, -1, null, null);
+   }
+
+   public DataObjectSummaryImpl(String bucketName, String key, long size, String eTag, Date lastModified) {
       this.key = key;
       this.bucketName = bucketName;
+      this.size = size;
+      this.eTag = eTag;
+      this.lastModified = lastModified;
    }
 
    private String key;
    private String bucketName;
+   private long size;
+   private String eTag;
+   private Date lastModified;
 
    @Override
    public String getKey() {
@@ -30,4 +45,19 @@ public class DataObjectSummaryImpl implements DataObjectSummary {
    public String getBucketName() {
       return bucketName;
    }
+
+   @Override
+   public long getSize() {
+      return size;
+   }
+
+   @Override
+   public String getETag() {
+      return eTag;
+   }
+
+   @Override
+   public Date getLastModified() {
+      return lastModified;
+   }
 }
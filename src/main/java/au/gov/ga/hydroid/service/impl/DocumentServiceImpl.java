@@ -84,10 +84,10 @@ public class DocumentServiceImpl implements DocumentService {
    public void create(Document document) {
       try {
          String sql = "insert into documents (origin, urn, title, type, status, "
-               + "status_reason, process_date, parser_name, sha1_hash) values (?, ?, ?, ?, ?, ?, ?, ?, ?)";
+               + "status_reason, process_date, parser_name, sha1_hash, fingerprint) values (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
          jdbcTemplate.update(sql, document.getOrigin(), document.getUrn(), document.getTitle(),
                document.getType().name(), document.getStatus().name(), document.getStatusReason(), getUTCDateTime(),
-               document.getParserName(), document.getSha1Hash());
+               document.getParserName(), document.getSha1Hash(), document.getFingerprint());
       } catch (DataAccessException e) {
          throw new HydroidException(e.getMostSpecificCause());
       }
@@ -102,9 +102,19 @@ public class DocumentServiceImpl implements DocumentService {
    public void update(Document document) {
       try {
          String sql = "update documents set title = ?, urn = ?, status = ?, status_reason = ?, process_date = ?," +
-               "sha1_hash = ? where id = ?";
+               "sha1_hash = ?, fingerprint = ? where id = ?";
          jdbcTemplate.update(sql, document.getTitle(), document.getUrn(), document.getStatus().name(),
-               document.getStatusReason(), getUTCDateTime(), document.getSha1Hash(), document.getId());
+               document.getStatusReason(), getUTCDateTime(), document.getSha1Hash(), document.getFingerprint(),
+               document.getId());
+      } catch (DataAccessException e) {
+         throw new HydroidException(e.getMostSpecificCause());
+      }
+   }
+
+   @Override
+   public void updateProcessDate(long id) {
+      try {
+         jdbcTemplate.update("update documents set process_date = ? where id = ?", getUTCDateTime(), id);
       } catch (DataAccessException e) {
          throw new HydroidException(e.getMostSpecificCause());
       }
@@ -7,6 +7,7 @@ import au.gov.ga.hydroid.dto.ImageMetadata;
 import au.gov.ga.hydroid.dto.CmiDocumentDTO;
 import au.gov.ga.hydroid.dto.CmiNodeSummary;
 import au.gov.ga.hydroid.model.Document;
+import au.gov.ga.hydroid.model.EnhancementProjection;
 import au.gov.ga.hydroid.model.DocumentType;
 import au.gov.ga.hydroid.model.EnhancementStatus;
 import au.gov.ga.hydroid.model.HydroidSolrMapper;
@@ -14,16 +15,19 @@ import au.gov.ga.hydroid.service.*;
 import au.gov.ga.hydroid.utils.HydroidException;
 import au.gov.ga.hydroid.utils.IOUtils;
 import au.gov.ga.hydroid.utils.StanbolMediaTypes;
-import com.amazonaws.services.s3.model.ObjectMetadata;
 import com.google.gson.Gson;
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.codec.digest.DigestUtils;
 import org.apache.commons.lang.StringUtils;
-import org.apache.http.client.utils.DateUtils;
 import org.apache.http.entity.ContentType;
 import org.apache.jena.ext.com.google.common.reflect.TypeToken;
+import org.apache.jena.datatypes.xsd.XSDDatatype;
+import org.apache.jena.rdf.model.RDFNode;
 import org.apache.jena.rdf.model.Statement;
+import org.apache.jena.vocabulary.DCTerms;
+import org.apache.solr.common.SolrInputDocument;
 import org.apache.tika.metadata.Metadata;
 import org.apache.tika.parser.AbstractParser;
-import org.imgscalr.Scalr;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -31,17 +35,21 @@ import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.ApplicationContext;
 import org.springframework.stereotype.Service;
 
-import javax.imageio.ImageIO;
-import java.awt.image.BufferedImage;
+import javax.annotation.PreDestroy;
 import java.io.*;
 
 import java.net.URL;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.security.MessageDigest;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
-import java.util.Properties;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  * Created by u24529 on 3/02/2016.
@@ -51,6 +59,7 @@ public class EnhancerServiceImpl implements EnhancerService {
 
    private static final Logger logger = LoggerFactory.getLogger(EnhancerServiceImpl.class);
    private static final long ENHANCE_MAX_FILE_SIZE = 52428800;
+   private static final String ENHANCEMENT_NODE_PREFIX = "urn:enhancement-";
 
    @Autowired
    private HydroidConfiguration configuration;
@@ -62,10 +71,11 @@ public class EnhancerServiceImpl implements EnhancerService {
    private SolrClient solrClient;
 
    @Autowired
+   @Value("#{systemProperties['jena.use.tdb'] != null ? jenaTdb : jenaServiceImpl}")
    private JenaService jenaService;
 
    @Autowired
-   @Value("#{systemProperties['s3.use.file.system'] != null ? s3FileSystem : s3ClientImpl}")
+   @Value("#{systemProperties['s3.use.file.system'] != null ? s3FileSystem : cachingS3Client}")
    private S3Client s3Client;
 
    @Autowired
@@ -81,32 +91,32 @@ public class EnhancerServiceImpl implements EnhancerService {
    @Autowired
    private HydroidSolrMapper hydroidSolrMapper;
 
-   private String getFileNameFromS3ObjectSummary(String key) {
-      return key.substring(key.lastIndexOf("/") + 1);
-   }
+   @Autowired
+   private EnhancementProjection enhancementProjection;
 
-   private String getImageThumb(BufferedImage image, String urn) {
-      try {
-         BufferedImage resized = Scalr.resize(image, 200);
-         ByteArrayOutputStream os = new ByteArrayOutputStream();
-         ImageIO.write(resized,"png", os);
-         byte[] imageAsByteArray = os.toByteArray();
-         InputStream byteArrayInputStream = new ByteArrayInputStream(imageAsByteArray);
-         s3Client.storeFile(
-               configuration.getS3OutputBucket(),
-               configuration.getS3EnhancerOutputImages() + urn + "_thumb",
-               byteArrayInputStream,
-               "image/png",
-               imageAsByteArray.length);
-         return configuration.getS3OutputUrl() + "/images/" + urn + "_thumb";
-      } catch (Exception e) {
-         throw new HydroidException(e);
+   @Autowired
+   private RdfConversionService rdfConversionService;
+
+   @Autowired
+   private ThumbnailService thumbnailService;
+
+   private ExecutorService prefetchExecutor;
+
+   // Shared by the enhancement jobs, so running several at once does not multiply the downloads
+   private synchronized ExecutorService getPrefetchExecutor() {
+      if (prefetchExecutor == null) {
+         prefetchExecutor = Executors.newFixedThreadPool(Math.max(1, configuration.getEnhancerPrefetch()));
       }
+      return prefetchExecutor;
+   }
+
+   private String getFileNameFromS3ObjectSummary(String key) {
+      return key.substring(key.lastIndexOf("/") + 1);
    }
 
    private void processFailure(DocumentDTO document, String urn, String reason) {
       logger.info("processFailure - saving document in the database - " + reason);
-      saveOrUpdateDocument(document, urn, EnhancementStatus.FAILURE, reason);
+      saveOrUpdateDocument(document, urn, EnhancementStatus.FAILURE, reason, null);
       logger.info("processFailure - document saved in the database");
 
       // Also store original image metadata
@@ -117,21 +127,44 @@ public class EnhancerServiceImpl implements EnhancerService {
       }
    }
 
-   private void saveImageDetails(String urn, DocumentDTO document, Properties properties) throws IOException {
+   private void processIndexingFailure(DocumentDTO document, String urn, Exception e) {
+      logger.error("processIndexingFailure - Solr failed to index " + urn + ": ", e);
+      processFailure(document, urn, e.getMessage());
+      rollbackEnhancement(document, urn);
+   }
+
+   // The image bytes are passed in when the caller already downloaded them, otherwise the thumbnails read the copy
+   private void saveImageDetails(String urn, DocumentDTO document, SolrInputDocument solrDocument, byte[] imageContent) {
       logger.info("saveImageDetails - saving image in S3 and its metadata in the database");
       int bucketEndPosition = document.getOrigin().indexOf(":") + 1;
       s3Client.copyObject(configuration.getS3Bucket(), document.getOrigin().substring(bucketEndPosition),
             configuration.getS3OutputBucket(), configuration.getS3EnhancerOutputImages() + urn);
       saveOrUpdateImageMetadata(document.getOrigin(), document.getContent());
       logger.info("saveImageDetails - original image content and metadata saved");
-      InputStream origImage = s3Client.getFile(configuration.getS3Bucket(),
-            document.getOrigin().substring(bucketEndPosition));
-      BufferedImage image = ImageIO.read(origImage);
-      properties.put("imgThumb", getImageThumb(image, urn));
+      thumbnailService.generateThumbnails(urn, imageContent);
+      // No thumbnail is made when thumbnail.sizes is empty
+      List<Integer> sizes = thumbnailService.getSizes();
+      if (!sizes.isEmpty()) {
+         solrDocument.setField("imgThumb", configuration.getS3OutputUrl() + "/"
+               + thumbnailService.getThumbnailKey(urn, sizes.get(0)));
+      }
    }
 
    @Override
    public boolean enhance(DocumentDTO document) {
+      return enhance(document, null, false);
+   }
+
+   @Override
+   public boolean enhanceNow(DocumentDTO document) {
+      return enhance(document, null, true);
+   }
+
+   private boolean enhance(DocumentDTO document, byte[] originalContent) {
+      return enhance(document, originalContent, false);
+   }
+
+   private boolean enhance(DocumentDTO document, byte[] originalContent, boolean indexNow) {
 
       String urn = null;
 
@@ -151,43 +184,66 @@ public class EnhancerServiceImpl implements EnhancerService {
             return false;
          }
 
-         // Generate dictionary with properties we are interested in
-         Properties properties = hydroidSolrMapper.generateDocument(rdfDocument, document);
-         urn = properties.getProperty("about");
+         // Generate the Solr document with the fields we are interested in
+         SolrInputDocument solrDocument = hydroidSolrMapper.generateDocument(rdfDocument, document);
+         urn = (String) solrDocument.getFieldValue("about");
 
          // Content has NOT been tagged with our vocabularies
-         if (properties.isEmpty()) {
+         if (solrDocument.isEmpty()) {
             processFailure(document, urn, "No matches were found in the vocabularies used by the chain: "
                   + configuration.getStanbolChain());
             return false;
          }
 
+         // Only the triples our consumers use are stored, including the ones added by the mapper
+         List<Statement> storedStatements = enhancementProjection.isEnabled()
+               ? enhancementProjection.project(rdfDocument) : rdfDocument;
+         String storedRdf = enhancementProjection.isEnabled()
+               ? jenaService.writeRdf(storedStatements, "RDF/XML") : enhancedText;
+
+         // Same result as the last successful enhancement, S3, Solr, the DB and Jena already hold it
+         String fingerprint = getFingerprint(solrDocument, storedStatements);
+         Document existing = documentService.findByOrigin(document.getOrigin());
+         if (isUnchanged(existing, urn, fingerprint)) {
+            logger.info("enhance - enhancement unchanged, only updating the process date of " + urn);
+            documentService.updateProcessDate(existing.getId());
+            return true;
+         }
+
           logger.info("enhance - about to store files / images to S3");
-         // Store full enhanced doc (rdf) in S3
-         s3Client.storeFile(configuration.getS3OutputBucket(), configuration.getS3EnhancerOutput() + urn,
-               enhancedText, ContentType.APPLICATION_XML.getMimeType());
+         // Store enhanced doc (rdf) in S3
+         storeRdfFile(urn, storedRdf);
 
          // Also store original image in S3
          if (document.getDocType().equals(DocumentType.IMAGE.name())) {
-            saveImageDetails(urn, document, properties);
+            saveImageDetails(urn, document, solrDocument, originalContent);
          }
           logger.info("enhance - stored files / images to S3");
 
-         // Add enhanced document to Solr
-         logger.info("enhance - about to add document to solr");
-         solrClient.addDocument(configuration.getSolrCollection(), properties);
-         logger.info("enhance - document added to solr");
-
-         // Store full document in DB
+         // Store full document in DB, it only becomes SUCCESS once Solr has it
          logger.info("enhance - saving document in the database");
-         saveOrUpdateDocument(document, urn, EnhancementStatus.SUCCESS, null);
+         saveOrUpdateDocument(document, urn, EnhancementStatus.INDEXING, null, fingerprint);
          logger.info("enhance - document saved in the database");
 
-         // Store full enhanced doc (rdf) in Jena
+         // Store enhanced doc (rdf) in Jena, one named graph per document
          logger.info("enhance - about to store RDF in Jena");
-         jenaService.storeRdfDefault(enhancedText, "");
+         jenaService.storeRdf(urn, storedRdf, "");
          logger.info("enhance - RDF stored in Jena");
 
+         // Add enhanced document to Solr, this is done last as it may be buffered or indexed asynchronously.
+         // A document lost with the buffer (the process stopped) stays INDEXING and is enhanced again
+         logger.info("enhance - about to add document to solr");
+         final String documentUrn = urn;
+         if (indexNow) {
+            solrClient.indexDocument(configuration.getSolrCollection(), solrDocument);
+            saveOrUpdateDocument(document, urn, EnhancementStatus.SUCCESS, null, fingerprint);
+         } else {
+            solrClient.addDocument(configuration.getSolrCollection(), solrDocument,
+                  () -> saveOrUpdateDocument(document, documentUrn, EnhancementStatus.SUCCESS, null, fingerprint),
+                  e -> processIndexingFailure(document, documentUrn, e));
+         }
+         logger.info("enhance - document added to solr");
+
          return true;
 
       } catch (Exception e) {
@@ -196,13 +252,87 @@ public class EnhancerServiceImpl implements EnhancerService {
          processFailure(document, urn, e.getMessage());
 
          // if there was any error in the process we remove the documents stored under the URN if created
-         rollbackEnhancement(urn);
+         rollbackEnhancement(document, urn);
 
          return false;
       }
    }
 
-   private void saveOrUpdateDocument(DocumentDTO documentDTO, String urn, EnhancementStatus status, String statusReason) {
+   // The RDF compresses around 10 to 1, it is served as is to clients accepting gzip
+   private void storeRdfFile(String urn, String rdf) {
+      byte[] content = rdf.getBytes(StandardCharsets.UTF_8);
+      String contentEncoding = null;
+      if (configuration.isEnhancerRdfGzip()) {
+         content = IOUtils.gzip(content);
+         contentEncoding = IOUtils.GZIP_ENCODING;
+      }
+      s3Client.storeFile(configuration.getS3OutputBucket(), configuration.getS3EnhancerOutput() + urn,
+            new ByteArrayInputStream(content), ContentType.APPLICATION_XML.getMimeType(), contentEncoding,
+            content.length);
+      rdfConversionService.invalidate(urn);
+   }
+
+   // Stanbol names its enhancement nodes urn:enhancement-<uuid>, a new one on every call, like blank nodes
+   private String getStableNode(RDFNode node) {
+      if (node.isAnon()) {
+         return "_:";
+      }
+      if (node.isURIResource() && node.asResource().getURI().startsWith(ENHANCEMENT_NODE_PREFIX)) {
+         return ENHANCEMENT_NODE_PREFIX;
+      }
+      return node.toString();
+   }
+
+   // When the enhancement was made is not part of its result
+   private boolean isTimestamp(Statement statement) {
+      RDFNode object = statement.getObject();
+      return statement.getPredicate().equals(DCTerms.created) || statement.getPredicate().equals(DCTerms.modified)
+            || object.isLiteral() && XSDDatatype.XSDdateTime.getURI().equals(object.asLiteral().getDatatypeURI());
+   }
+
+   /**
+    * SHA-1 over the mapped Solr fields (sorted by name and value) and the sorted triples, without what changes on
+    * every Stanbol call (enhancement node names and timestamps) so an unchanged result is recognised.
+    */
+   private String getFingerprint(SolrInputDocument solrDocument, List<Statement> statements) {
+      MessageDigest digest = DigestUtils.getSha1Digest();
+      for (String fieldName : new TreeSet<>(solrDocument.getFieldNames())) {
+         digest.update(fieldName.getBytes(StandardCharsets.UTF_8));
+         // Multi-valued fields come in the order the triples were read
+         List<String> values = new ArrayList<>();
+         Collection<Object> fieldValues = solrDocument.getFieldValues(fieldName);
+         if (fieldValues != null) {
+            fieldValues.forEach(value -> values.add(String.valueOf(value)));
+         }
+         Collections.sort(values);
+         for (String value : values) {
+            digest.update((byte) 0);
+            digest.update(value.getBytes(StandardCharsets.UTF_8));
+         }
+         digest.update((byte) 1);
+      }
+      List<String> triples = new ArrayList<>();
+      for (Statement statement : statements) {
+         if (!isTimestamp(statement)) {
+            triples.add(getStableNode(statement.getSubject()) + " " + statement.getPredicate() + " "
+                  + getStableNode(statement.getObject()));
+         }
+      }
+      Collections.sort(triples);
+      for (String triple : triples) {
+         digest.update(triple.getBytes(StandardCharsets.UTF_8));
+         digest.update((byte) 1);
+      }
+      return Hex.encodeHexString(digest.digest());
+   }
+
+   private boolean isUnchanged(Document existing, String urn, String fingerprint) {
+      return existing != null && existing.getStatus() == EnhancementStatus.SUCCESS
+            && urn != null && urn.equals(existing.getUrn()) && fingerprint.equals(existing.getFingerprint());
+   }
+
+   private void saveOrUpdateDocument(DocumentDTO documentDTO, String urn, EnhancementStatus status, String statusReason,
+                                     String fingerprint) {
       Document document = documentService.findByOrigin(documentDTO.getOrigin());
       if (document == null) {
          document = new Document();
@@ -214,6 +344,7 @@ public class EnhancerServiceImpl implements EnhancerService {
       document.setStatus(status);
       document.setStatusReason(statusReason);
       document.setSha1Hash(documentDTO.getSha1Hash());
+      document.setFingerprint(fingerprint);
       if (document.getId() == 0) {
          documentService.create(document);
       } else {
@@ -229,37 +360,23 @@ public class EnhancerServiceImpl implements EnhancerService {
       }
    }
 
-   private List<DataObjectSummary> getDocumentsForEnhancement(List<DataObjectSummary> input) {
-      List<DataObjectSummary> output = new ArrayList<>();
-      if (input.isEmpty()) {
-         return output;
+   private boolean isForEnhancement(DataObjectSummary object) {
+      // Ignore folders
+      if (object.getKey().endsWith("/")) {
+         return false;
       }
-      String origin;
-      Document document;
-      for (DataObjectSummary object : input) {
-         // Ignore folders
-         if (object.getKey().endsWith("/")) {
-            continue;
-         }
-         origin = object.getBucketName() + ":" + object.getKey();
-         document = documentService.findByOrigin(origin);
-         // Document was not enhanced or previous enhancement failed
-         if (document == null || document.getStatus() == EnhancementStatus.FAILURE) {
-               output.add(object);
-            }
-         }
-      return output;
+      Document document = documentService.findByOrigin(object.getBucketName() + ":" + object.getKey());
+      // Document was not enhanced, previous enhancement failed or never reached Solr
+      return document == null || document.getStatus() == EnhancementStatus.FAILURE
+            || document.getStatus() == EnhancementStatus.INDEXING;
    }
 
-   private void copyMetadataToDocument(Metadata metadata, DocumentDTO document) {
-      if (metadata.get("title") != null) {
-         document.setTitle(metadata.get("title"));
-      } else if (metadata.get("dc:title") != null) {
-         document.setTitle(metadata.get("dc:title"));
-      }
-      document.setAuthor(metadata.get("author") == null ? metadata.get("Author") : metadata.get("author"));
-      document.setDateCreated(metadata.get("Creation-Date") == null ? null :
-            DateUtils.parseDate(metadata.get("Creation-Date"), new String[]{"yyyy-MM-dd'T'HH:mm:ss'Z'"}));
+   // Filtered as the listing is paged in, so enhancing starts before the whole key is listed.
+   // The next documents are downloaded while the current one is with Stanbol
+   private S3ObjectPrefetcher prefetchDocumentsForEnhancement(String key, long maxObjectSize) {
+      return new S3ObjectPrefetcher(s3Client, s3Client.iterateObjects(configuration.getS3Bucket(), key),
+            this::isForEnhancement, getPrefetchExecutor(), configuration.getEnhancerPrefetch(),
+            configuration.getEnhancerPrefetchBudgetMb() * 1024 * 1024, maxObjectSize);
    }
 
    private boolean isDuplicate(String origin, String sha1Hash, DocumentType documentType) {
@@ -280,46 +397,58 @@ public class EnhancerServiceImpl implements EnhancerService {
       return false;
    }
 
+   // The listing already carries the size, only sources that do not list it need a HEAD request
+   private long getSize(DataObjectSummary object) {
+      if (object.getSize() >= 0) {
+         return object.getSize();
+      }
+      return s3Client.getObjectMetadata(object.getBucketName(), object.getKey()).getInstanceLength();
+   }
+
    private void enhanceCollection(DocumentType documentType) {
       Metadata metadata;
       DocumentDTO document;
       byte[] s3FileContent;
       String key = configuration.getS3EnhancerInput() + documentType.name().toLowerCase() + "s";
-      List<DataObjectSummary> objects = s3Client.listObjects(configuration.getS3Bucket(), key);
-      objects = getDocumentsForEnhancement(objects);
-      logger.info("enhanceCollection - there are " + objects.size() + " " + documentType.name().toLowerCase() + "s to be enhanced");
-      for (DataObjectSummary object : objects) {
-         document = new DocumentDTO();
-         try {
+      int processed = 0;
+      logger.info("enhanceCollection - enhancing " + documentType.name().toLowerCase() + "s listed under " + key);
+      try (S3ObjectPrefetcher objects = prefetchDocumentsForEnhancement(key, ENHANCE_MAX_FILE_SIZE)) {
+         while (objects.hasNext()) {
+            S3ObjectPrefetcher.PrefetchedObject prefetched = objects.next();
+            DataObjectSummary object = prefetched.getSummary();
+            processed++;
+            document = new DocumentDTO();
+            try {
+
+               String origin = object.getBucketName() + ":" + object.getKey();
+               document.setTitle(getFileNameFromS3ObjectSummary(object.getKey()));
+               document.setOrigin(origin);
+
+               if (getSize(object) > ENHANCE_MAX_FILE_SIZE) {
+                  throw new HydroidException("Document exceeds the maximum file size (" +
+                        (ENHANCE_MAX_FILE_SIZE/1024/1024) + " MB)");
+               }
 
-            String origin = object.getBucketName() + ":" + object.getKey();
-            document.setTitle(getFileNameFromS3ObjectSummary(object.getKey()));
-            document.setOrigin(origin);
+               s3FileContent = prefetched.getContent();
+               String sha1Hash = IOUtils.getSha1Hash(s3FileContent);
 
-            ObjectMetadata objectMetadata = s3Client.getObjectMetadata(object.getBucketName(), object.getKey());
-            if (objectMetadata.getInstanceLength() > ENHANCE_MAX_FILE_SIZE) {
-               throw new HydroidException("Document exceeds the maximum file size (" +
-                     (ENHANCE_MAX_FILE_SIZE/1024/1024) + " MB)");
-            }
+               if (isDuplicate(origin, sha1Hash, documentType)) {
+                  continue;
+               }
 
-            s3FileContent = s3Client.getFileAsByteArray(object.getBucketName(), object.getKey());
-            String sha1Hash = IOUtils.getSha1Hash(s3FileContent);
+               metadata = new Metadata();
+               document.setSha1Hash(sha1Hash);
+               document.setContent(IOUtils.parseStream(new ByteArrayInputStream(s3FileContent), metadata));
+               document.copyMetadata(metadata);
 
-            if (isDuplicate(origin, sha1Hash, documentType)) {
-               continue;
+               enhance(document);
+            } catch (Exception e) {
+               logger.error("enhanceCollection - error processing file key: " + object.getKey(), e);
+               processFailure(document, null, e.getMessage());
             }
-
-            metadata = new Metadata();
-            document.setSha1Hash(sha1Hash);
-            document.setContent(IOUtils.parseStream(new ByteArrayInputStream(s3FileContent), metadata));
-            copyMetadataToDocument(metadata, document);
-
-            enhance(document);
-         } catch (Exception e) {
-            logger.error("enhanceCollection - error processing file key: " + object.getKey(), e);
-            processFailure(document, null, e.getMessage());
          }
       }
+      logger.info("enhanceCollection - " + processed + " " + documentType.name().toLowerCase() + "s processed");
    }
 
    private String getImageMetadataAsString(InputStream s3FileContent) {
@@ -358,7 +487,7 @@ public class EnhancerServiceImpl implements EnhancerService {
             document.setTitle(dbDocument.getTitle());
             document.setOrigin(dbDocument.getOrigin());
             document.setSha1Hash(IOUtils.getSha1Hash(IOUtils.fromInputStreamToByteArray(inputStream)));
-            copyMetadataToDocument(metadata, document);
+            document.copyMetadata(metadata);
 
             enhance(document);
          } catch (Exception e) {
@@ -389,39 +518,46 @@ public class EnhancerServiceImpl implements EnhancerService {
       DocumentDTO document;
       byte[] s3FileContent;
       String key = configuration.getS3EnhancerInput() + DocumentType.IMAGE.name().toLowerCase() + "s";
-      List<DataObjectSummary> objectsForEnhancement = getDocumentsForEnhancement(s3Client.listObjects(configuration.getS3Bucket(), key));
-      logger.info("enhanceImages - there are " + objectsForEnhancement.size() + " images to be enhanced");
-      for (DataObjectSummary s3ObjectSummary : objectsForEnhancement) {
-         document = new DocumentDTO();
-         try {
-            s3FileContent = s3Client.getFileAsByteArray(s3ObjectSummary.getBucketName(), s3ObjectSummary.getKey());
-            String origin = s3ObjectSummary.getBucketName() + ":" + s3ObjectSummary.getKey();
-            String sha1Hash = IOUtils.getSha1Hash(s3FileContent);
+      int processed = 0;
+      logger.info("enhanceImages - enhancing images listed under " + key);
+      try (S3ObjectPrefetcher objects = prefetchDocumentsForEnhancement(key, Long.MAX_VALUE)) {
+         while (objects.hasNext()) {
+            S3ObjectPrefetcher.PrefetchedObject prefetched = objects.next();
+            DataObjectSummary s3ObjectSummary = prefetched.getSummary();
+            processed++;
+            document = new DocumentDTO();
+            try {
+               s3FileContent = prefetched.getContent();
+               String origin = s3ObjectSummary.getBucketName() + ":" + s3ObjectSummary.getKey();
+               String sha1Hash = IOUtils.getSha1Hash(s3FileContent);
+
+               if (isDuplicate(origin, sha1Hash, DocumentType.IMAGE)) {
+                  continue;
+               }
 
-            if (isDuplicate(origin, sha1Hash, DocumentType.IMAGE)) {
-               continue;
-            }
+               document.setDocType(DocumentType.IMAGE.name());
+               document.setTitle(getFileNameFromS3ObjectSummary(s3ObjectSummary.getKey()));
+               document.setOrigin(origin);
+               document.setSha1Hash(sha1Hash);
 
-            document.setDocType(DocumentType.IMAGE.name());
-            document.setTitle(getFileNameFromS3ObjectSummary(s3ObjectSummary.getKey()));
-            document.setOrigin(origin);
-            document.setSha1Hash(sha1Hash);
+               // The cached imaged metadata will be used for enhancement (if exists)
+               document.setContent(documentService.readImageMetadata(document.getOrigin()));
 
-            // The cached imaged metadata will be used for enhancement (if exists)
-            document.setContent(documentService.readImageMetadata(document.getOrigin()));
+               // The image metadata will be extracted and used for enhancement
+               if (document.getContent() == null) {
+                  document.setContent("The labels found for " + document.getTitle() + " are " +
+                        getImageMetadataAsString(new ByteArrayInputStream(s3FileContent)));
+               }
 
-            // The image metadata will be extracted and used for enhancement
-            if (document.getContent() == null) {
-               document.setContent("The labels found for " + document.getTitle() + " are " +
-                     getImageMetadataAsString(new ByteArrayInputStream(s3FileContent)));
+               // The thumbnail is made from the bytes already downloaded
+               enhance(document, s3FileContent);
+            } catch (Exception e) {
+               logger.error("enhanceImages - error processing file key: " + s3ObjectSummary.getKey(), e);
+               processFailure(document, null, e.getMessage());
             }
-
-            enhance(document);
-         } catch (Exception e) {
-            logger.error("enhanceImages - error processing file key: " + s3ObjectSummary.getKey(), e);
-            processFailure(document, null, e.getMessage());
          }
       }
+      logger.info("enhanceImages - " + processed + " images processed");
    }
 
     /**
@@ -453,7 +589,9 @@ public class EnhancerServiceImpl implements EnhancerService {
 
             Document dbDoc = this.documentService.findByOrigin(cmiNodeEndpoint);
             // Document was not at all enhanced or previous enhancement failed
-            if (dbDoc == null || dbDoc.getStatus() == EnhancementStatus.FAILURE || dbDoc.getProcessDate().before(cmiNode.getLastChanged())) {
+            if (dbDoc == null || dbDoc.getStatus() == EnhancementStatus.FAILURE
+                  || dbDoc.getStatus() == EnhancementStatus.INDEXING
+                  || dbDoc.getProcessDate().before(cmiNode.getLastChanged())) {
                Gson cmiGson = new Gson();
                InputStream jsonInStream = IOUtils.getUrlContent(cmiNodeEndpoint);
                String nodeJson = org.apache.commons.io.IOUtils.toString(jsonInStream, StandardCharsets.UTF_8);
@@ -480,16 +618,34 @@ public class EnhancerServiceImpl implements EnhancerService {
         }
     }
 
-    private void rollbackEnhancement(String urn) {
+    private void rollbackEnhancement(DocumentDTO document, String urn) {
       if (urn == null) {
          return;
       }
 
-      // Delete document from S3
-      s3Client.deleteFile(configuration.getS3Bucket(), configuration.getS3EnhancerOutput() + urn);
+      // Delete the RDF from S3, and for images the copy of the original and its thumbnails
+      s3Client.deleteFile(configuration.getS3OutputBucket(), configuration.getS3EnhancerOutput() + urn);
+      if (DocumentType.IMAGE.name().equals(document.getDocType())) {
+         s3Client.deleteFile(configuration.getS3OutputBucket(), configuration.getS3EnhancerOutputImages() + urn);
+         thumbnailService.deleteThumbnails(urn);
+      }
 
       // Delete document from Solr
       solrClient.deleteDocument(configuration.getSolrCollection(), urn);
+
+      // Delete document graph from Jena
+      jenaService.deleteRdf(urn);
+
+      // Drop any Turtle / JSON-LD conversions
+      rdfConversionService.invalidate(urn);
+   }
+
+   @PreDestroy
+   public synchronized void shutdown() {
+      if (prefetchExecutor != null) {
+         prefetchExecutor.shutdownNow();
+         prefetchExecutor = null;
+      }
    }
 
 }
@@ -3,26 +3,53 @@ package au.gov.ga.hydroid.service.impl;
 import au.gov.ga.hydroid.dto.FileMetadata;
 import au.gov.ga.hydroid.service.DataObjectSummary;
 import au.gov.ga.hydroid.service.S3Client;
+import au.gov.ga.hydroid.utils.IOUtils;
+import com.amazonaws.services.s3.Headers;
 import com.amazonaws.services.s3.model.ObjectMetadata;
-import org.apache.commons.io.FileUtils;
-import org.apache.commons.io.IOUtils;
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.io.input.BoundedInputStream;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Service;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
 import java.nio.file.FileSystems;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Properties;
+import java.util.stream.Stream;
 
 @Service("s3FileSystem")
 public class FileSystemClientImpl implements S3Client {
 
    private static final Logger logger = LoggerFactory.getLogger(FileSystemClientImpl.class);
+   private static final String TEMP_FILE_PREFIX = ".hydroid-";
+   private static final String TEMP_FILE_SUFFIX = ".tmp";
+   // The metadata S3 would keep with the object is stored next to it in a hidden properties file
+   private static final String SIDECAR_PREFIX = ".";
+   private static final String SIDECAR_SUFFIX = ".metadata";
+   // Files from this size are memory mapped to be hashed, one chunk at a time
+   private static final long MAPPED_HASH_THRESHOLD = 1024L * 1024;
+   private static final long MAPPED_HASH_CHUNK = 64L * 1024 * 1024;
 
    private Path basePath;
 
@@ -58,20 +85,33 @@ public class FileSystemClientImpl implements S3Client {
       }
    }
 
-   @Override
-   public InputStream getFile(String bucketName, String key) {
-      InputStream result = null;
+   // The channel is positioned straight at the first byte instead of reading up to it
+   private InputStream openFile(String bucketName, String key, long start) {
       Path fileToGet = doGetFile(bucketName, key).toPath().toAbsolutePath();
-      logger.debug("getFile - Trying to get file: " + fileToGet.toString());
-      logger.debug("getFile - File exists: " + Files.exists(fileToGet));
+      logger.debug("openFile - Trying to get file: " + fileToGet.toString());
+      if (!Files.isRegularFile(fileToGet)) {
+         logger.debug("openFile - File does not exist: " + fileToGet.toString());
+         return null;
+      }
       try {
-         if (Files.exists(fileToGet)) {
-            result = FileUtils.openInputStream(fileToGet.toFile());
-         }
+         FileChannel channel = FileChannel.open(fileToGet, StandardOpenOption.READ);
+         channel.position(start);
+         return Channels.newInputStream(channel);
       } catch (IOException e) {
-         logger.debug("getFile - IOException: ", e);
+         logger.debug("openFile - IOException: ", e);
+         return null;
       }
-      return result;
+   }
+
+   @Override
+   public InputStream getFile(String bucketName, String key) {
+      return openFile(bucketName, key, 0);
+   }
+
+   @Override
+   public InputStream getFile(String bucketName, String key, long start, long end) {
+      InputStream result = openFile(bucketName, key, start);
+      return result == null ? null : new BoundedInputStream(result, end - start + 1);
    }
 
    @Override
@@ -79,10 +119,9 @@ public class FileSystemClientImpl implements S3Client {
       byte[] result = null;
       Path fileToGet = doGetFile(bucketName, key).toPath().toAbsolutePath();
       logger.debug("getFileAsByteArray - Trying to get file: " + fileToGet.toString());
-      logger.debug("getFileAsByteArray - File exists: " + Files.exists(fileToGet));
-      if (Files.exists(fileToGet)) {
-         try (InputStream is = FileUtils.openInputStream(fileToGet.toFile())) {
-            result = IOUtils.toByteArray(is);
+      if (Files.isRegularFile(fileToGet)) {
+         try {
+            result = Files.readAllBytes(fileToGet);
          } catch (IOException e) {
             logger.debug("getFileAsByteArray - IOException: ", e);
          }
@@ -90,21 +129,120 @@ public class FileSystemClientImpl implements S3Client {
       return result;
    }
 
-   @Override
-   public void storeFile(String bucketName, String key, String content, String contentType) {
+   // Written next to the target and moved over it, so readers never see a partial file
+   private void writeAtomically(Path file, InputStream content) throws IOException {
+      Path tempFile = Files.createTempFile(file.getParent(), TEMP_FILE_PREFIX, TEMP_FILE_SUFFIX);
       try {
-         ensureDirectoriesExist(bucketName, key);
-         Files.write(doGetFile(bucketName, key).toPath(), content.getBytes());
-      } catch (IOException e) {
-         logger.debug("storeFile - IOException: ", e);
+         Files.copy(content, tempFile, StandardCopyOption.REPLACE_EXISTING);
+         try {
+            Files.move(tempFile, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+         } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING);
+         }
+      } finally {
+         Files.deleteIfExists(tempFile);
+      }
+   }
+
+   private boolean isTempFile(Path file) {
+      String fileName = file.getFileName().toString();
+      return fileName.startsWith(TEMP_FILE_PREFIX) && fileName.endsWith(TEMP_FILE_SUFFIX);
+   }
+
+   private Path getSidecar(Path file) {
+      return file.resolveSibling(SIDECAR_PREFIX + file.getFileName() + SIDECAR_SUFFIX);
+   }
+
+   private boolean isSidecar(Path file) {
+      String fileName = file.getFileName().toString();
+      return fileName.startsWith(SIDECAR_PREFIX) && fileName.endsWith(SIDECAR_SUFFIX);
+   }
+
+   private void writeSidecar(Path file, String contentType, String contentEncoding, String eTag) throws IOException {
+      BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+      Properties metadata = new Properties();
+      if (contentType != null) {
+         metadata.setProperty(Headers.CONTENT_TYPE, contentType);
+      }
+      if (contentEncoding != null) {
+         metadata.setProperty(Headers.CONTENT_ENCODING, contentEncoding);
       }
+      metadata.setProperty(Headers.ETAG, eTag);
+      metadata.setProperty(Headers.CONTENT_LENGTH, String.valueOf(attributes.size()));
+      metadata.setProperty(Headers.LAST_MODIFIED, String.valueOf(attributes.lastModifiedTime().toMillis()));
+      ByteArrayOutputStream os = new ByteArrayOutputStream();
+      metadata.store(os, null);
+      writeAtomically(getSidecar(file), new ByteArrayInputStream(os.toByteArray()));
+   }
+
+   // Null when there is none, or when the file was changed by something else since it was written
+   private Properties readSidecar(Path file, BasicFileAttributes attributes) throws IOException {
+      Path sidecar = getSidecar(file);
+      if (!Files.isRegularFile(sidecar)) {
+         return null;
+      }
+      Properties metadata = new Properties();
+      try (InputStream is = Files.newInputStream(sidecar)) {
+         metadata.load(is);
+      }
+      if (!String.valueOf(attributes.size()).equals(metadata.getProperty(Headers.CONTENT_LENGTH))
+            || !String.valueOf(attributes.lastModifiedTime().toMillis())
+            .equals(metadata.getProperty(Headers.LAST_MODIFIED))) {
+         return null;
+      }
+      return metadata;
+   }
+
+   // Big files are memory mapped so hashing them does not copy every byte through a heap buffer
+   private String hash(Path file) throws IOException {
+      MessageDigest digest = DigestUtils.getMd5Digest();
+      try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+         long size = channel.size();
+         if (size < MAPPED_HASH_THRESHOLD) {
+            digest.update(Files.readAllBytes(file));
+         } else {
+            for (long position = 0; position < size; position += MAPPED_HASH_CHUNK) {
+               digest.update(channel.map(FileChannel.MapMode.READ_ONLY, position,
+                     Math.min(MAPPED_HASH_CHUNK, size - position)));
+            }
+         }
+      }
+      return Hex.encodeHexString(digest.digest());
+   }
+
+   // Files written before sidecars existed, or by something else, are scanned once and get one
+   private Properties indexFile(Path file) throws IOException {
+      String contentEncoding = null;
+      try (InputStream is = Files.newInputStream(file)) {
+         if (IOUtils.isGzipped(is)) {
+            contentEncoding = IOUtils.GZIP_ENCODING;
+         }
+      }
+      writeSidecar(file, null, contentEncoding, hash(file));
+      return readSidecar(file, Files.readAttributes(file, BasicFileAttributes.class));
+   }
+
+   @Override
+   public void storeFile(String bucketName, String key, String content, String contentType) {
+      byte[] contentAsByteArray = content.getBytes();
+      storeFile(bucketName, key, new ByteArrayInputStream(contentAsByteArray), contentType, contentAsByteArray.length);
    }
 
    @Override
    public void storeFile(String bucketName, String key, InputStream content, String contentType, long contentLength) {
+      storeFile(bucketName, key, content, contentType, null, contentLength);
+   }
+
+   // The content is hashed as it is written, like the MD5 ETag S3 gives single part uploads
+   @Override
+   public void storeFile(String bucketName, String key, InputStream content, String contentType, String contentEncoding,
+                         long contentLength) {
       try {
          ensureDirectoriesExist(bucketName, key);
-         Files.write(doGetFile(bucketName, key).toPath(), IOUtils.toByteArray(content));
+         Path file = doGetFile(bucketName, key).toPath();
+         MessageDigest digest = DigestUtils.getMd5Digest();
+         writeAtomically(file, new DigestInputStream(content, digest));
+         writeSidecar(file, contentType, contentEncoding, Hex.encodeHexString(digest.digest()));
       } catch (IOException e) {
          logger.debug("storeFile - IOException: ", e);
       }
@@ -117,6 +255,7 @@ public class FileSystemClientImpl implements S3Client {
          if (Files.exists(file)) {
             Files.delete(file);
          }
+         Files.deleteIfExists(getSidecar(file));
       } catch (IOException e) {
          logger.debug("deleteFile - IOException: ", e);
       }
@@ -125,37 +264,130 @@ public class FileSystemClientImpl implements S3Client {
    @Override
    public List<DataObjectSummary> listObjects(String bucketName, String key) {
       List<DataObjectSummary> result = new ArrayList<>();
-      File fileRoot = doGetFile(bucketName, key);
-      logger.debug("listObjects - Listing files in: " + fileRoot.getAbsolutePath());
-      if (fileRoot.listFiles() == null) {
-         return result;
+      iterateObjects(bucketName, key).forEachRemaining(result::add);
+      return result;
+   }
+
+   private String toKey(String bucketName, Path file) {
+      return file.toString().replace(this.basePath.toAbsolutePath().toString() + File.separator + bucketName, "").replaceAll("\\\\", "/");
+   }
+
+   // Walks every level under the key, like an S3 listing without a delimiter
+   @Override
+   public Iterator<DataObjectSummary> iterateObjects(String bucketName, String key) {
+      Path fileRoot = doGetFile(bucketName, key).toPath();
+      logger.debug("iterateObjects - Listing files in: " + fileRoot.toAbsolutePath());
+      if (!Files.isDirectory(fileRoot)) {
+         return Collections.emptyIterator();
       }
-      for (File file : fileRoot.listFiles()) {
-         String addKey = file.getPath().replace(this.basePath.toAbsolutePath().toString() + File.separator + bucketName, "").replaceAll("\\\\", "/");
-         result.add(new DataObjectSummaryImpl(bucketName, addKey));
+      Stream<Path> walk;
+      try {
+         walk = Files.walk(fileRoot);
+      } catch (IOException e) {
+         logger.debug("iterateObjects - IOException: ", e);
+         return Collections.emptyIterator();
+      }
+      return new WalkIterator(walk, walk
+            .filter(file -> Files.isRegularFile(file) && !isTempFile(file) && !isSidecar(file))
+            .map(file -> toObjectSummary(bucketName, file)).iterator());
+   }
+
+   // The ETag is only listed when the sidecar has one, the listing does not hash files
+   private DataObjectSummary toObjectSummary(String bucketName, Path file) {
+      String key = toKey(bucketName, file);
+      try {
+         BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+         Properties metadata = readSidecar(file, attributes);
+         return new DataObjectSummaryImpl(bucketName, key, attributes.size(),
+               metadata == null ? null : metadata.getProperty(Headers.ETAG),
+               new Date(attributes.lastModifiedTime().toMillis()));
+      } catch (IOException e) {
+         logger.debug("toObjectSummary - IOException: ", e);
+         return new DataObjectSummaryImpl(bucketName, key);
       }
-      return result;
    }
 
    @Override
    public void copyObject(String sourceBucketName, String sourceKey, String destinationBucketName, String destinationKey) {
       try {
          ensureDirectoriesExist(destinationBucketName, destinationKey);
-         Files.copy(doGetFile(sourceBucketName, sourceKey).toPath(), doGetFile(destinationBucketName, destinationKey).toPath());
+         Path source = doGetFile(sourceBucketName, sourceKey).toPath();
+         Path destination = doGetFile(destinationBucketName, destinationKey).toPath();
+         Properties metadata = readSidecar(source, Files.readAttributes(source, BasicFileAttributes.class));
+         try (InputStream is = Files.newInputStream(source)) {
+            writeAtomically(destination, is);
+         }
+         if (metadata == null) {
+            Files.deleteIfExists(getSidecar(destination));
+         } else {
+            writeSidecar(destination, metadata.getProperty(Headers.CONTENT_TYPE),
+                  metadata.getProperty(Headers.CONTENT_ENCODING), metadata.getProperty(Headers.ETAG));
+         }
       } catch (IOException e) {
          logger.debug("copyObject - IOException: ", e);
       }
    }
 
+   // Served from the sidecar, the content is only read for files that do not have a valid one
    @Override
    public ObjectMetadata getObjectMetadata(String bucketName, String key) {
       ObjectMetadata objectMetadata = new FileMetadata();
       Path file = doGetFile(bucketName, key).toPath();
-      if (Files.exists(file)) {
-         long length = file.toFile().length();
-         objectMetadata.setContentLength(length);
+      if (Files.isRegularFile(file)) {
+         try {
+            BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+            Properties metadata = readSidecar(file, attributes);
+            if (metadata == null) {
+               metadata = indexFile(file);
+            }
+            objectMetadata.setContentLength(attributes.size());
+            objectMetadata.setLastModified(new Date(attributes.lastModifiedTime().toMillis()));
+            if (metadata != null) {
+               objectMetadata.setContentType(metadata.getProperty(Headers.CONTENT_TYPE));
+               objectMetadata.setContentEncoding(metadata.getProperty(Headers.CONTENT_ENCODING));
+               objectMetadata.setHeader(Headers.ETAG, metadata.getProperty(Headers.ETAG));
+            }
+         } catch (IOException e) {
+            logger.debug("getObjectMetadata - IOException: ", e);
+         }
       }
       return objectMetadata;
    }
 
+   // The directory handles are released as soon as the last entry is read, or when closed earlier
+   private static class WalkIterator implements Iterator<DataObjectSummary>, Closeable {
+
+      private final Stream<Path> walk;
+      private final Iterator<DataObjectSummary> files;
+      private boolean closed;
+
+      WalkIterator(Stream<Path> walk, Iterator<DataObjectSummary> files) {
+         this.walk = walk;
+         this.files = files;
+      }
+
+      @Override
+      public boolean hasNext() {
+         if (closed) {
+            return false;
+         }
+         if (files.hasNext()) {
+            return true;
+         }
+         close();
+         return false;
+      }
+
+      @Override
+      public DataObjectSummary next() {
+         return files.next();
+      }
+
+      @Override
+      public void close() {
+         walk.close();
+         closed = true;
+      }
+   }
+
 }
@@ -14,6 +14,7 @@ import org.springframework.stereotype.Service;
 
 import java.io.ByteArrayInputStream;
 import java.io.InputStream;
+import java.io.StringWriter;
 import java.util.List;
 
 @Service
@@ -22,7 +23,7 @@ public class JenaServiceImpl implements JenaService {
    @Autowired
    private HydroidConfiguration configuration;
 
-   private void setNsPrefix(Model model) {
+   protected void setNsPrefix(Model model) {
       model.setNsPrefix(OWL.class.getSimpleName().toLowerCase(), OWL.getURI());
       model.setNsPrefix(RDF.class.getSimpleName().toLowerCase(), RDF.getURI());
       model.setNsPrefix(RDFS.class.getSimpleName().toLowerCase(), RDFS.getURI());
@@ -38,27 +39,40 @@ public class JenaServiceImpl implements JenaService {
       storeRdf(null, rdfInput, baseRdfUrl);
    }
 
+   protected Model readModel(String rdfInput, String baseRdfUrl) {
+      Model model = ModelFactory.createDefaultModel();
+      InputStream is = new ByteArrayInputStream(rdfInput.getBytes());
+      model.read(is, baseRdfUrl);
+      return model;
+   }
+
    @Override
    public void storeRdf(String graphUri, String rdfInput, String baseRdfUrl) {
       String serviceURI = configuration.getFusekiUrl();
       DatasetAccessor accessor = DatasetAccessorFactory.createHTTP(serviceURI);
-      Model model = ModelFactory.createDefaultModel();
-      InputStream is = new ByteArrayInputStream(rdfInput.getBytes());
-      model.read(is, baseRdfUrl);
+      Model model = readModel(rdfInput, baseRdfUrl);
       setNsPrefix(model);
       if (graphUri == null) {
          accessor.add(model);
       } else {
-         accessor.add(graphUri, model);
+         // Replace the whole named graph so re-enhancing a document does not duplicate its triples
+         accessor.putModel(graphUri, model);
       }
    }
 
    @Override
    public List<Statement> parseRdf(String rdfInput, String baseRdfUrl) {
+      return readModel(rdfInput, baseRdfUrl).listStatements().toList();
+   }
+
+   @Override
+   public String writeRdf(List<Statement> statements, String lang) {
       Model model = ModelFactory.createDefaultModel();
-      InputStream is = new ByteArrayInputStream(rdfInput.getBytes());
-      model.read(is, baseRdfUrl);
-      return model.listStatements().toList();
+      setNsPrefix(model);
+      model.add(statements);
+      StringWriter writer = new StringWriter();
+      model.write(writer, lang);
+      return writer.toString();
    }
 
    @Override
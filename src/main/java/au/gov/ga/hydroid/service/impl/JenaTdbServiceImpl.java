@@ -0,0 +1,106 @@
+package au.gov.ga.hydroid.service.impl;
+
+import org.apache.jena.query.Dataset;
+import org.apache.jena.query.ReadWrite;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.Statement;
+import org.apache.jena.tdb.TDBFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.nio.file.FileSystems;
+import java.util.List;
+
+/**
+ * Jena service backed by an embedded TDB dataset on the local disk instead of a remote Fuseki server,
+ * enabled with the jena.use.tdb property (for single node deployments and local testing).
+ */
+@Service("jenaTdb")
+public class JenaTdbServiceImpl extends JenaServiceImpl {
+
+   private static final Logger logger = LoggerFactory.getLogger(JenaTdbServiceImpl.class);
+
+   private final String location;
+
+   private Dataset dataset;
+
+   public JenaTdbServiceImpl() {
+      this(System.getProperty("jena.tdb.path",
+            FileSystems.getDefault().getPath(System.getProperty("java.io.tmpdir"), "hydroid-tdb").toString()));
+   }
+
+   public JenaTdbServiceImpl(String location) {
+      this.location = location;
+   }
+
+   // The dataset is only opened when used so the files are not created unless this mode is enabled
+   private synchronized Dataset getDataset() {
+      if (dataset == null) {
+         logger.info("getDataset - opening TDB dataset at: " + location);
+         dataset = TDBFactory.createDataset(location);
+      }
+      return dataset;
+   }
+
+   @Override
+   public void storeRdf(String graphUri, String rdfInput, String baseRdfUrl) {
+      Model model = readModel(rdfInput, baseRdfUrl);
+      setNsPrefix(model);
+      Dataset tdb = getDataset();
+      tdb.begin(ReadWrite.WRITE);
+      try {
+         if (graphUri == null) {
+            tdb.getDefaultModel().add(model);
+         } else {
+            tdb.replaceNamedModel(graphUri, model);
+         }
+         tdb.commit();
+      } finally {
+         tdb.end();
+      }
+   }
+
+   @Override
+   public void deleteRdf(String graphUri) {
+      Dataset tdb = getDataset();
+      tdb.begin(ReadWrite.WRITE);
+      try {
+         if (graphUri == null) {
+            tdb.getDefaultModel().removeAll();
+         } else if (tdb.containsNamedModel(graphUri)) {
+            tdb.removeNamedModel(graphUri);
+         }
+         tdb.commit();
+      } finally {
+         tdb.end();
+      }
+   }
+
+   @Override
+   public List<Statement> readRdf(String graphUri) {
+      Dataset tdb = getDataset();
+      tdb.begin(ReadWrite.READ);
+      try {
+         if (graphUri == null) {
+            return tdb.getDefaultModel().listStatements().toList();
+         }
+         if (!tdb.containsNamedModel(graphUri)) {
+            return null;
+         }
+         return tdb.getNamedModel(graphUri).listStatements().toList();
+      } finally {
+         tdb.end();
+      }
+   }
+
+   @PreDestroy
+   public synchronized void close() {
+      if (dataset != null) {
+         dataset.close();
+         dataset = null;
+      }
+   }
+
+}
@@ -0,0 +1,184 @@
+package au.gov.ga.hydroid.service.impl;
+
+import au.gov.ga.hydroid.HydroidConfiguration;
+import au.gov.ga.hydroid.model.RdfFormat;
+import au.gov.ga.hydroid.service.JenaService;
+import au.gov.ga.hydroid.service.RdfConversionService;
+import au.gov.ga.hydroid.service.S3Client;
+import au.gov.ga.hydroid.utils.IOUtils;
+import com.amazonaws.services.s3.model.AmazonS3Exception;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import org.apache.jena.rdf.model.Statement;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Conversions are kept gzipped in a bounded LRU and, when rdf.conversion.persist is set,
+ * next to the original RDF in the output bucket as &lt;urn&gt;.&lt;extension&gt;. A persisted
+ * conversion this instance did not write is only used when it is not older than the RDF.
+ */
+@Service
+public class RdfConversionServiceImpl implements RdfConversionService {
+
+   private static final Logger logger = LoggerFactory.getLogger(RdfConversionServiceImpl.class);
+
+   private static final int HTTP_NOT_FOUND = 404;
+
+   @Autowired
+   private HydroidConfiguration configuration;
+
+   @Autowired
+   @Value("#{systemProperties['jena.use.tdb'] != null ? jenaTdb : jenaServiceImpl}")
+   private JenaService jenaService;
+
+   @Autowired
+   @Value("#{systemProperties['s3.use.file.system'] != null ? s3FileSystem : cachingS3Client}")
+   private S3Client s3Client;
+
+   // Access ordered so the least recently downloaded conversion is dropped first
+   private final Map<String, byte[]> conversions = new LinkedHashMap<String, byte[]>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, byte[]> eldest) {
+         return size() > configuration.getRdfConversionCacheSize();
+      }
+   };
+
+   // Persisted conversions this instance wrote or checked, the only ones invalidate has to delete.
+   // Bounded like the LRU, one that is dropped is checked against the RDF again before it is used
+   private final Set<String> persistedKeys = Collections.newSetFromMap(
+         new LinkedHashMap<String, Boolean>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+         return size() > configuration.getRdfConversionCacheSize();
+      }
+   });
+
+   private String getCacheKey(String urn, RdfFormat format) {
+      return urn + "." + format.getExtension();
+   }
+
+   private String getPersistedKey(String urn, RdfFormat format) {
+      return configuration.getS3EnhancerOutput() + getCacheKey(urn, format);
+   }
+
+   private synchronized byte[] getCached(String cacheKey) {
+      return conversions.get(cacheKey);
+   }
+
+   private synchronized void putCached(String cacheKey, byte[] converted) {
+      conversions.put(cacheKey, converted);
+   }
+
+   private synchronized void putPersisted(String persistedKey) {
+      persistedKeys.add(persistedKey);
+   }
+
+   private synchronized boolean isPersisted(String persistedKey) {
+      return persistedKeys.contains(persistedKey);
+   }
+
+   // S3 answers a HEAD request for a missing key with a 404 rather than no metadata
+   private ObjectMetadata getObjectMetadata(String key) {
+      try {
+         return s3Client.getObjectMetadata(configuration.getS3OutputBucket(), key);
+      } catch (AmazonS3Exception e) {
+         if (e.getStatusCode() == HTTP_NOT_FOUND) {
+            return null;
+         }
+         throw e;
+      }
+   }
+
+   // Written before the RDF was stored again, by an earlier run that could not invalidate it
+   private boolean isStale(String urn, String persistedKey) {
+      ObjectMetadata converted = getObjectMetadata(persistedKey);
+      if (converted == null) {
+         return true;
+      }
+      ObjectMetadata original = getObjectMetadata(configuration.getS3EnhancerOutput() + urn);
+      return converted == null || original == null || converted.getLastModified() == null
+            || original.getLastModified() == null || converted.getLastModified().before(original.getLastModified());
+   }
+
+   private byte[] readPersisted(String urn, RdfFormat format) {
+      String persistedKey = getPersistedKey(urn, format);
+      if (!isPersisted(persistedKey) && isStale(urn, persistedKey)) {
+         return null;
+      }
+      byte[] converted = s3Client.getFileAsByteArray(configuration.getS3OutputBucket(), persistedKey);
+      if (converted != null) {
+         putPersisted(persistedKey);
+      }
+      return converted;
+   }
+
+   private byte[] convert(String urn, RdfFormat format) {
+      byte[] original = s3Client.getFileAsByteArray(configuration.getS3OutputBucket(),
+            configuration.getS3EnhancerOutput() + urn);
+      if (original == null) {
+         return null;
+      }
+      List<Statement> statements = jenaService.parseRdf(
+            new String(IOUtils.decompressIfGzipped(original), StandardCharsets.UTF_8), "");
+      String converted = jenaService.writeRdf(statements, format.getJenaLang());
+      logger.debug("convert - converted " + urn + " to " + format);
+      return IOUtils.gzip(converted.getBytes(StandardCharsets.UTF_8));
+   }
+
+   @Override
+   public byte[] getConverted(String urn, RdfFormat format) {
+      String cacheKey = getCacheKey(urn, format);
+      byte[] converted = getCached(cacheKey);
+      if (converted != null) {
+         return converted;
+      }
+
+      if (configuration.isRdfConversionPersist()) {
+         converted = readPersisted(urn, format);
+      }
+      if (converted == null) {
+         converted = convert(urn, format);
+         if (converted == null) {
+            return null;
+         }
+         if (configuration.isRdfConversionPersist()) {
+            s3Client.storeFile(configuration.getS3OutputBucket(), getPersistedKey(urn, format),
+                  new ByteArrayInputStream(converted), format.getMediaType().toString(), IOUtils.GZIP_ENCODING,
+                  converted.length);
+            putPersisted(getPersistedKey(urn, format));
+         }
+      }
+
+      putCached(cacheKey, converted);
+      return converted;
+   }
+
+   @Override
+   public void invalidate(String urn) {
+      List<String> toDelete = new ArrayList<>();
+      synchronized (this) {
+         for (RdfFormat format : RdfFormat.values()) {
+            conversions.remove(getCacheKey(urn, format));
+            if (persistedKeys.remove(getPersistedKey(urn, format))) {
+               toDelete.add(getPersistedKey(urn, format));
+            }
+         }
+      }
+      for (String persistedKey : toDelete) {
+         s3Client.deleteFile(configuration.getS3OutputBucket(), persistedKey);
+      }
+   }
+
+}
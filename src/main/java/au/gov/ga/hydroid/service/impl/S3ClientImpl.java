@@ -3,7 +3,9 @@ package au.gov.ga.hydroid.service.impl;
 import au.gov.ga.hydroid.HydroidConfiguration;
 import au.gov.ga.hydroid.service.DataObjectSummary;
 import au.gov.ga.hydroid.service.S3Client;
+import au.gov.ga.hydroid.utils.HydroidException;
 import au.gov.ga.hydroid.utils.IOUtils;
+import com.amazonaws.AmazonWebServiceClient;
 import com.amazonaws.ClientConfiguration;
 import com.amazonaws.auth.profile.ProfileCredentialsProvider;
 import com.amazonaws.services.s3.AmazonS3;
@@ -14,10 +16,22 @@ import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.PreDestroy;
 import java.io.ByteArrayInputStream;
+import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * Created by u24529 on 8/02/2016.
@@ -27,18 +41,60 @@ public class S3ClientImpl implements S3Client {
 
    private static final Logger logger = LoggerFactory.getLogger(S3ClientImpl.class);
 
+   // S3 rejects upload parts smaller than this, except for the last one
+   private static final long MIN_UPLOAD_PART_SIZE = 5L * 1024 * 1024;
+   // A failed part is retried on its own before the whole transfer is given up
+   private static final int PART_ATTEMPTS = 3;
+   private static final int HTTP_RANGE_NOT_SATISFIABLE = 416;
+
    @Autowired
    private HydroidConfiguration configuration;
 
+   // The client is thread safe and keeps a pool of connections, so one is shared by every request
+   private volatile AmazonS3 amazonS3;
+
+   // Buckets are never deleted by the application, so once one is known to exist it is not checked again
+   private final Set<String> existingBuckets = ConcurrentHashMap.newKeySet();
+
+   // Shared by every ranged download and multipart upload, so s3.multipart.threads bounds them all
+   private ExecutorService partExecutor;
+
    private AmazonS3 getAmazonS3() {
-      if (configuration.getProxyPort() > 0) {
+      AmazonS3 s3 = amazonS3;
+      return s3 == null ? createAmazonS3() : s3;
+   }
+
+   private synchronized AmazonS3 createAmazonS3() {
+      if (amazonS3 == null) {
+         // Settings left at 0 keep the SDK defaults
          ClientConfiguration clientConfiguration = new ClientConfiguration();
-         clientConfiguration.setProxyHost(configuration.getProxyHost());
-         clientConfiguration.setProxyPort(configuration.getProxyPort());
-         return new AmazonS3Client(new ProfileCredentialsProvider(), clientConfiguration);
-      } else {
-         return new AmazonS3Client(new ProfileCredentialsProvider());
+         if (configuration.getS3MaxConnections() > 0) {
+            clientConfiguration.setMaxConnections(configuration.getS3MaxConnections());
+         }
+         if (configuration.getS3ConnectionTimeout() > 0) {
+            clientConfiguration.setConnectionTimeout(configuration.getS3ConnectionTimeout());
+         }
+         if (configuration.getS3SocketTimeout() > 0) {
+            clientConfiguration.setSocketTimeout(configuration.getS3SocketTimeout());
+         }
+         if (configuration.getProxyPort() > 0) {
+            clientConfiguration.setProxyHost(configuration.getProxyHost());
+            clientConfiguration.setProxyPort(configuration.getProxyPort());
+         }
+         amazonS3 = new AmazonS3Client(new ProfileCredentialsProvider(), clientConfiguration);
       }
+      return amazonS3;
+   }
+
+   private boolean bucketExists(AmazonS3 s3, String bucketName) {
+      if (existingBuckets.contains(bucketName)) {
+         return true;
+      }
+      if (s3.doesBucketExist(bucketName)) {
+         existingBuckets.add(bucketName);
+         return true;
+      }
+      return false;
    }
 
    @Override
@@ -61,8 +117,143 @@ public class S3ClientImpl implements S3Client {
       return fileContent;
    }
 
+   @Override
+   public InputStream getFile(String bucketName, String key, long start, long end) {
+      InputStream fileContent = null;
+      try {
+         AmazonS3 s3 = getAmazonS3();
+         S3Object object = s3.getObject(new GetObjectRequest(bucketName, key).withRange(start, end));
+         fileContent = object.getObjectContent();
+      } catch (AmazonS3Exception e) {
+         // No object with this key was found
+         logger.warn("getFile - AmazonS3Exception: ", e);
+      }
+      return fileContent;
+   }
+
+   private synchronized ExecutorService getPartExecutor() {
+      if (partExecutor == null) {
+         partExecutor = Executors.newFixedThreadPool(Math.max(1, configuration.getS3MultipartThreads()));
+      }
+      return partExecutor;
+   }
+
+   private long getMultipartThreshold() {
+      return configuration.getS3MultipartThresholdMb() * 1024L * 1024;
+   }
+
+   private long getPartSize() {
+      return Math.max(1, configuration.getS3MultipartPartSizeMb()) * 1024L * 1024;
+   }
+
+   private static HydroidException toHydroidException(Exception e) {
+      if (e instanceof InterruptedException) {
+         Thread.currentThread().interrupt();
+      }
+      Throwable cause = e instanceof ExecutionException ? e.getCause() : e;
+      return cause instanceof HydroidException ? (HydroidException) cause : new HydroidException(cause);
+   }
+
+   private <T> T withRetries(Callable<T> part) {
+      for (int attempt = 1; ; attempt++) {
+         try {
+            return part.call();
+         } catch (Exception e) {
+            if (attempt >= PART_ATTEMPTS) {
+               throw toHydroidException(e);
+            }
+            logger.warn("withRetries - attempt " + attempt + " failed, retrying: ", e);
+         }
+      }
+   }
+
+   private <T> List<T> waitFor(List<Future<T>> parts) {
+      List<T> results = new ArrayList<>();
+      try {
+         for (Future<T> part : parts) {
+            results.add(part.get());
+         }
+      } catch (InterruptedException | ExecutionException e) {
+         parts.forEach(part -> part.cancel(true));
+         throw toHydroidException(e);
+      }
+      return results;
+   }
+
+   private byte[] readRange(AmazonS3 s3, String bucketName, String key, String eTag, long start, long end) {
+      // The ETag constraint makes sure every range comes from the same version of the object
+      GetObjectRequest request = new GetObjectRequest(bucketName, key).withRange(start, end);
+      if (eTag != null) {
+         request.withMatchingETagConstraint(eTag);
+      }
+      S3Object object = s3.getObject(request);
+      if (object == null) {
+         throw new HydroidException("Object changed while downloading: " + key);
+      }
+      try (InputStream is = object.getObjectContent()) {
+         byte[] part = IOUtils.fromInputStreamToByteArray(is);
+         if (part.length != end - start + 1) {
+            throw new HydroidException("Incomplete range " + start + "-" + end + " of: " + key);
+         }
+         return part;
+      } catch (IOException e) {
+         throw new HydroidException(e);
+      }
+   }
+
+   // The first range tells the object size, the rest is then downloaded in parallel ranges
+   private byte[] getFileInParts(String bucketName, String key) {
+      AmazonS3 s3 = getAmazonS3();
+      long partSize = getPartSize();
+      S3Object object;
+      try {
+         object = s3.getObject(new GetObjectRequest(bucketName, key).withRange(0, partSize - 1));
+      } catch (AmazonS3Exception e) {
+         if (e.getStatusCode() == HTTP_RANGE_NOT_SATISFIABLE) {
+            // Only an empty object has no first byte
+            return new byte[0];
+         }
+         // No object with this key was found
+         logger.warn("getFileInParts - AmazonS3Exception: ", e);
+         return null;
+      }
+      byte[] firstPart;
+      try (InputStream is = object.getObjectContent()) {
+         firstPart = IOUtils.fromInputStreamToByteArray(is);
+      } catch (IOException e) {
+         throw new HydroidException(e);
+      }
+
+      long length = object.getObjectMetadata().getInstanceLength();
+      if (length <= firstPart.length) {
+         return firstPart;
+      }
+      if (length > Integer.MAX_VALUE) {
+         throw new HydroidException("Object is too big to be read into memory: " + key);
+      }
+      byte[] content = Arrays.copyOf(firstPart, (int) length);
+      String eTag = object.getObjectMetadata().getETag();
+      // Objects under the threshold get the rest in a single request
+      long size = length < getMultipartThreshold() ? length : partSize;
+      List<Future<Object>> parts = new ArrayList<>();
+      for (long start = firstPart.length; start < length; start += size) {
+         long first = start;
+         long last = Math.min(start + size, length) - 1;
+         parts.add(getPartExecutor().submit(() -> {
+            byte[] part = withRetries(() -> readRange(s3, bucketName, key, eTag, first, last));
+            System.arraycopy(part, 0, content, (int) first, part.length);
+            return null;
+         }));
+      }
+      waitFor(parts);
+      return content;
+   }
+
    @Override
    public byte[] getFileAsByteArray(String bucketName, String key)  {
+      if (getMultipartThreshold() > 0) {
+         return getFileInParts(bucketName, key);
+      }
       InputStream is = getFile(bucketName, key);
       if (is != null) {
          return IOUtils.fromInputStreamToByteArray(is);
@@ -79,26 +270,71 @@ public class S3ClientImpl implements S3Client {
 
    @Override
    public void storeFile(String bucketName, String key, InputStream content, String contentType, long contentLength) {
+      storeFile(bucketName, key, content, contentType, null, contentLength);
+   }
+
+   @Override
+   public void storeFile(String bucketName, String key, InputStream content, String contentType, String contentEncoding,
+                         long contentLength) {
       AmazonS3 s3 = getAmazonS3();
 
       // If the bucket doesn't exist we create it
-      if (!s3.doesBucketExist(bucketName)) {
+      if (!bucketExists(s3, bucketName)) {
          s3.createBucket(bucketName, "ap-southeast-2");
+         existingBuckets.add(bucketName);
       }
 
       ObjectMetadata metadata = new ObjectMetadata();
       if (contentType != null) {
          metadata.setContentType(contentType);
       }
-      metadata.setContentLength(contentLength);
+      if (contentEncoding != null) {
+         metadata.setContentEncoding(contentEncoding);
+      }
+
+      if (getMultipartThreshold() > 0 && contentLength > getMultipartThreshold()) {
+         storeFileInParts(s3, bucketName, key, content, metadata, contentLength);
+         return;
+      }
 
+      metadata.setContentLength(contentLength);
       s3.putObject(bucketName, key, content, metadata);
    }
 
+   // Parts are read from the stream in order and uploaded in parallel, a failed part is sent again on its own
+   private void storeFileInParts(AmazonS3 s3, String bucketName, String key, InputStream content,
+                                 ObjectMetadata metadata, long contentLength) {
+      long partSize = Math.max(getPartSize(), MIN_UPLOAD_PART_SIZE);
+      int threads = Math.max(1, configuration.getS3MultipartThreads());
+      String uploadId = s3.initiateMultipartUpload(new InitiateMultipartUploadRequest(bucketName, key, metadata))
+            .getUploadId();
+      List<Future<PartETag>> parts = new ArrayList<>();
+      try {
+         int partNumber = 1;
+         for (long start = 0; start < contentLength; start += partSize) {
+            byte[] part = new byte[(int) Math.min(partSize, contentLength - start)];
+            org.apache.commons.io.IOUtils.readFully(content, part);
+            // Only one part per thread is kept in memory while waiting to be sent
+            if (parts.size() >= threads) {
+               parts.get(parts.size() - threads).get();
+            }
+            UploadPartRequest request = new UploadPartRequest().withBucketName(bucketName).withKey(key)
+                  .withUploadId(uploadId).withPartNumber(partNumber++).withPartSize(part.length);
+            parts.add(getPartExecutor().submit(() -> withRetries(
+                  () -> s3.uploadPart(request.withInputStream(new ByteArrayInputStream(part))).getPartETag())));
+         }
+         s3.completeMultipartUpload(new CompleteMultipartUploadRequest(bucketName, key, uploadId, waitFor(parts)));
+      } catch (Exception e) {
+         parts.forEach(part -> part.cancel(true));
+         s3.abortMultipartUpload(new AbortMultipartUploadRequest(bucketName, key, uploadId));
+         throw toHydroidException(e);
+      }
+   }
+
    @Override
    public void deleteFile(String bucketName, String key) {
       AmazonS3 s3 = getAmazonS3();
-      if (s3.doesBucketExist(bucketName)) {
+      if (bucketExists(s3, bucketName)) {
          s3.deleteObject(bucketName, key);
       }
    }
@@ -106,24 +342,15 @@ public class S3ClientImpl implements S3Client {
    @Override
    public List<DataObjectSummary> listObjects(String bucketName, String key) {
       List<DataObjectSummary> objects = new ArrayList();
-
-      AmazonS3 s3 = getAmazonS3();
-
-      ObjectListing objectListing = s3.listObjects(bucketName, key);
-
-      do {
-         for (S3ObjectSummary objectSummary : objectListing.getObjectSummaries()) {
-            objects.add(new DataObjectSummaryImpl(objectSummary));
-         }
-         if (!objectListing.isTruncated()) {
-            break;
-         }
-         objectListing = s3.listNextBatchOfObjects(objectListing);
-      } while (true);
-
+      iterateObjects(bucketName, key).forEachRemaining(objects::add);
       return objects;
    }
 
+   @Override
+   public Iterator<DataObjectSummary> iterateObjects(String bucketName, String key) {
+      return new ObjectListingIterator(getAmazonS3(), bucketName, key);
+   }
+
    @Override
    public void copyObject(String sourceBucketName, String sourceKey, String destinationBucketName, String destinationKey) {
       AmazonS3 s3 = getAmazonS3();
@@ -136,4 +363,55 @@ public class S3ClientImpl implements S3Client {
       return s3.getObjectMetadata(bucketName, key);
    }
 
+   @PreDestroy
+   public synchronized void shutdown() {
+      if (amazonS3 instanceof AmazonWebServiceClient) {
+         ((AmazonWebServiceClient) amazonS3).shutdown();
+      }
+      amazonS3 = null;
+      if (partExecutor != null) {
+         partExecutor.shutdownNow();
+         partExecutor = null;
+      }
+   }
+
+   // Walks the listing pages, each one holds up to 1000 summaries
+   private static class ObjectListingIterator implements Iterator<DataObjectSummary> {
+
+      private final AmazonS3 s3;
+      private final String bucketName;
+      private final String key;
+      private ObjectListing objectListing;
+      private Iterator<S3ObjectSummary> page;
+
+      ObjectListingIterator(AmazonS3 s3, String bucketName, String key) {
+         this.s3 = s3;
+         this.bucketName = bucketName;
+         this.key = key;
+      }
+
+      @Override
+      public boolean hasNext() {
+         while (page == null || !page.hasNext()) {
+            if (objectListing == null) {
+               objectListing = s3.listObjects(bucketName, key);
+            } else if (objectListing.isTruncated()) {
+               objectListing = s3.listNextBatchOfObjects(objectListing);
+            } else {
+               return false;
+            }
+            page = objectListing.getObjectSummaries().iterator();
+         }
+         return true;
+      }
+
+      @Override
+      public DataObjectSummary next() {
+         if (!hasNext()) {
+            throw new NoSuchElementException();
+         }
+         return new DataObjectSummaryImpl(page.next());
+      }
+   }
+
 }
@@ -0,0 +1,217 @@
+package au.gov.ga.hydroid.service.impl;
+
+import au.gov.ga.hydroid.service.DataObjectSummary;
+import au.gov.ga.hydroid.service.S3Client;
+import au.gov.ga.hydroid.utils.HydroidException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.function.Predicate;
+
+/**
+ * Downloads the next objects of a listing in the background while the current one is being processed.
+ * Objects are kept in memory up to the byte budget, the ones that do not fit (or whose size was not
+ * listed) wait in temp files. Meant to be consumed by a single thread, closing it also closes the
+ * listing when it holds resources.
+ */
+public class S3ObjectPrefetcher implements Iterator<S3ObjectPrefetcher.PrefetchedObject>, Closeable {
+
+   private static final Logger logger = LoggerFactory.getLogger(S3ObjectPrefetcher.class);
+
+   private final S3Client s3Client;
+   private final Iterator<DataObjectSummary> objects;
+   private final Predicate<DataObjectSummary> filter;
+   private final ExecutorService executor;
+   private final int prefetch;
+   private final long budget;
+   private final long maxObjectSize;
+
+   private final Deque<PrefetchedObject> prefetched = new ArrayDeque<>();
+   private PrefetchedObject current;
+   private long reserved;
+   private volatile boolean closed;
+
+   /**
+    * objects bigger than maxObjectSize are not downloaded ahead, with prefetch 0 nothing is
+    */
+   public S3ObjectPrefetcher(S3Client s3Client, Iterator<DataObjectSummary> objects, ExecutorService executor,
+                             int prefetch, long budget, long maxObjectSize) {
+      this(s3Client, objects, object -> true, executor, prefetch, budget, maxObjectSize);
+   }
+
+   /**
+    * only the objects accepted by the filter are returned, it is applied as the listing is read
+    */
+   public S3ObjectPrefetcher(S3Client s3Client, Iterator<DataObjectSummary> objects,
+                             Predicate<DataObjectSummary> filter, ExecutorService executor, int prefetch,
+                             long budget, long maxObjectSize) {
+      this.s3Client = s3Client;
+      this.objects = objects;
+      this.filter = filter;
+      this.executor = executor;
+      this.prefetch = prefetch;
+      this.budget = budget;
+      this.maxObjectSize = maxObjectSize;
+   }
+
+   private Path spill(DataObjectSummary object) throws IOException {
+      InputStream inputStream = s3Client.getFile(object.getBucketName(), object.getKey());
+      if (inputStream == null) {
+         return null;
+      }
+      Path file = Files.createTempFile("hydroid-prefetch", null);
+      try (InputStream is = inputStream) {
+         Files.copy(is, file, StandardCopyOption.REPLACE_EXISTING);
+      } catch (IOException e) {
+         Files.deleteIfExists(file);
+         throw e;
+      }
+      // Nobody is going to read it anymore
+      if (closed) {
+         Files.deleteIfExists(file);
+      }
+      return file;
+   }
+
+   private PrefetchedObject download(DataObjectSummary object) {
+      if (prefetch <= 0 || object.getSize() > maxObjectSize) {
+         return new PrefetchedObject(object, null, 0);
+      }
+      if (object.getSize() >= 0 && reserved + object.getSize() <= budget) {
+         reserved += object.getSize();
+         return new PrefetchedObject(object, executor.submit(
+               () -> s3Client.getFileAsByteArray(object.getBucketName(), object.getKey())), object.getSize());
+      }
+      return new PrefetchedObject(object, executor.submit(() -> spill(object)), 0);
+   }
+
+   private void fill() {
+      while (prefetched.size() < Math.max(1, prefetch) && objects.hasNext()) {
+         DataObjectSummary object = objects.next();
+         if (filter.test(object)) {
+            prefetched.add(download(object));
+         }
+      }
+   }
+
+   @Override
+   public boolean hasNext() {
+      fill();
+      return !prefetched.isEmpty();
+   }
+
+   @Override
+   public PrefetchedObject next() {
+      // Whatever the previous object left behind, in case it was skipped without reading it
+      if (current != null) {
+         current.discard();
+         current = null;
+      }
+      if (!hasNext()) {
+         throw new NoSuchElementException();
+      }
+      current = prefetched.poll();
+      fill();
+      return current;
+   }
+
+   @Override
+   public void close() {
+      closed = true;
+      if (current != null) {
+         current.discard();
+      }
+      for (PrefetchedObject object : prefetched) {
+         object.discard();
+      }
+      prefetched.clear();
+      // A loop that stops early would otherwise leave the listing open
+      if (objects instanceof AutoCloseable) {
+         try {
+            ((AutoCloseable) objects).close();
+         } catch (Exception e) {
+            logger.debug("close - Exception: ", e);
+         }
+      }
+   }
+
+   public class PrefetchedObject {
+
+      private final DataObjectSummary summary;
+      private final Future<?> content;
+      private long reservation;
+
+      private PrefetchedObject(DataObjectSummary summary, Future<?> content, long reservation) {
+         this.summary = summary;
+         this.content = content;
+         this.reservation = reservation;
+      }
+
+      public DataObjectSummary getSummary() {
+         return summary;
+      }
+
+      private void release() {
+         reserved -= reservation;
+         reservation = 0;
+      }
+
+      /**
+       * the downloaded bytes, null when the object no longer exists
+       */
+      public byte[] getContent() {
+         if (content == null) {
+            return s3Client.getFileAsByteArray(summary.getBucketName(), summary.getKey());
+         }
+         try {
+            Object downloaded = content.get();
+            if (downloaded instanceof Path) {
+               try {
+                  return Files.readAllBytes((Path) downloaded);
+               } finally {
+                  Files.deleteIfExists((Path) downloaded);
+               }
+            }
+            return (byte[]) downloaded;
+         } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new HydroidException(e);
+         } catch (ExecutionException e) {
+            throw new HydroidException(e.getCause());
+         } catch (IOException e) {
+            throw new HydroidException(e);
+         } finally {
+            release();
+         }
+      }
+
+      private void discard() {
+         release();
+         if (content == null || content.cancel(true)) {
+            return;
+         }
+         try {
+            Object downloaded = content.get();
+            if (downloaded instanceof Path) {
+               Files.deleteIfExists((Path) downloaded);
+            }
+         } catch (Exception e) {
+            logger.debug("discard - Exception: ", e);
+         }
+      }
+   }
+
+}
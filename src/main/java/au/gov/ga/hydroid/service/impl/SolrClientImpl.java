@@ -3,71 +3,216 @@ package au.gov.ga.hydroid.service.impl;
 import au.gov.ga.hydroid.HydroidConfiguration;
 import au.gov.ga.hydroid.service.SolrClient;
 import au.gov.ga.hydroid.utils.HydroidException;
+import org.apache.solr.client.solrj.SolrQuery;
 import org.apache.solr.client.solrj.SolrServer;
 import org.apache.solr.client.solrj.impl.HttpSolrServer;
+import org.apache.solr.client.solrj.request.CollectionAdminRequest;
+import org.apache.solr.client.solrj.request.QueryRequest;
 import org.apache.solr.common.SolrInputDocument;
+import org.apache.solr.common.params.ModifiableSolrParams;
+import org.apache.solr.common.util.NamedList;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
-import java.util.Enumeration;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Properties;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
 
 /**
  * Created by u24529 on 3/02/2016.
  */
 @Service
-public class SolrClientImpl implements SolrClient {
+public class SolrClientImpl implements SolrClient, SolrUpdateQueue.Sender {
+
+   private static final Logger logger = LoggerFactory.getLogger(SolrClientImpl.class);
+   private static final String SOLR_DOCUMENT_KEY = "about";
 
    @Autowired
    private HydroidConfiguration configuration;
 
-   private SolrInputDocument buildDocument(Properties properties) {
-      SolrInputDocument document = new SolrInputDocument();
-      if (properties != null) {
-         String propertyName = null;
-         Object propertyValue = null;
-         Enumeration<String> propertyNames = (Enumeration<String>) properties.propertyNames();
-         while (propertyNames.hasMoreElements()) {
-            propertyName = propertyNames.nextElement();
-            propertyValue = properties.get(propertyName);
-            if (propertyValue instanceof List) {
-               for (String multiValueItem : (List<String>) propertyValue) {
-                  document.addField(propertyName, multiValueItem);
-               }
-            } else {
-               document.addField(propertyName, propertyValue);
-            }
+   // One long-lived (thread safe) server per collection
+   private final Map<String, SolrServer> servers = new ConcurrentHashMap<>();
+
+   // Documents waiting to be sent, per collection, keyed by document id
+   private final Map<String, Map<String, SolrUpdate>> pendingDocuments = new HashMap<>();
+
+   private SolrServer adminServer;
+
+   // Background sender threads, only used when solr.async.enabled is set
+   private SolrUpdateQueue updateQueue;
+
+   @PostConstruct
+   public void init() {
+      if (configuration.isSolrAsyncEnabled()) {
+         updateQueue = new SolrUpdateQueue(this, configuration.getSolrAsyncThreads(),
+               configuration.getSolrAsyncQueueSize(), configuration.getSolrBatchSize());
+      }
+   }
+
+   private SolrServer getServer(String collectionName) {
+      return servers.computeIfAbsent(collectionName,
+            name -> new HttpSolrServer(configuration.getSolrUrl() + name));
+   }
+
+   // A callback that fails must not stop the others of the batch from running
+   private void notifyIndexed(SolrUpdate update) {
+      if (update.getOnIndexed() == null) {
+         return;
+      }
+      try {
+         update.getOnIndexed().run();
+      } catch (Exception e) {
+         logger.error("notifyIndexed - Exception: ", e);
+      }
+   }
+
+   private void notifyFailure(SolrUpdate update, Exception e) {
+      if (update.getOnFailure() != null) {
+         update.getOnFailure().accept(e);
+      } else {
+         logger.error("notifyFailure - failed to add document " + update.getId() + ": ", e);
+      }
+   }
+
+   // Sends the batch in one request, if it fails every document is retried on its own
+   // so only the ones that really failed are reported
+   @Override
+   public void add(String collectionName, List<SolrUpdate> updates) {
+      if (updates.isEmpty()) {
+         return;
+      }
+      logger.debug("add - sending " + updates.size() + " documents to " + collectionName);
+      SolrServer server = getServer(collectionName);
+      List<SolrInputDocument> documents = new ArrayList<>();
+      updates.forEach(update -> documents.add(update.getDocument()));
+      try {
+         server.add(documents, configuration.getSolrCommitWithin());
+      } catch (Exception e) {
+         if (updates.size() == 1) {
+            notifyFailure(updates.get(0), e);
+            return;
          }
+         logger.warn("add - batch failed, retrying documents one by one: ", e);
+         addOneByOne(server, updates);
+         return;
+      }
+      updates.forEach(this::notifyIndexed);
+   }
+
+   private void addOneByOne(SolrServer server, List<SolrUpdate> updates) {
+      for (SolrUpdate update : updates) {
+         try {
+            server.add(update.getDocument(), configuration.getSolrCommitWithin());
+         } catch (Exception e) {
+            notifyFailure(update, e);
+            continue;
+         }
+         notifyIndexed(update);
       }
-      return document;
    }
 
    @Override
-   public void addDocument(String collectionName, Properties properties) {
-      SolrServer server = new HttpSolrServer(configuration.getSolrUrl() + collectionName);
-      SolrInputDocument document = buildDocument(properties);
+   public void delete(String collectionName, String id) {
       try {
-         server.add(document);
-         server.commit();
+         getServer(collectionName).deleteById(id, configuration.getSolrCommitWithin());
       } catch (Exception e) {
          throw new HydroidException(e);
       }
    }
 
+   // Takes the pending documents of a collection out of the buffer
+   private synchronized List<SolrUpdate> drainPending(String collectionName) {
+      Map<String, SolrUpdate> pending = pendingDocuments.remove(collectionName);
+      return pending == null ? new ArrayList<>() : new ArrayList<>(pending.values());
+   }
+
+   private synchronized List<SolrUpdate> bufferDocument(SolrUpdate update) {
+      Map<String, SolrUpdate> pending = pendingDocuments.computeIfAbsent(update.getCollectionName(),
+            name -> new LinkedHashMap<>());
+      pending.put(update.getId(), update);
+      if (pending.size() < configuration.getSolrBatchSize()) {
+         return null;
+      }
+      return drainPending(update.getCollectionName());
+   }
+
    @Override
-   public void deleteDocument(String collectionName, String id) {
-      SolrServer server = new HttpSolrServer(configuration.getSolrUrl() + collectionName);
+   public void addDocument(String collectionName, SolrInputDocument document) {
+      addDocument(collectionName, document, null);
+   }
+
+   @Override
+   public void addDocument(String collectionName, SolrInputDocument document, Consumer<Exception> onFailure) {
+      addDocument(collectionName, document, null, onFailure);
+   }
+
+   @Override
+   public void addDocument(String collectionName, SolrInputDocument document, Runnable onIndexed,
+                           Consumer<Exception> onFailure) {
+      Object id = document.getFieldValue(SOLR_DOCUMENT_KEY);
+      SolrUpdate update = SolrUpdate.add(collectionName,
+            id == null ? String.valueOf(System.identityHashCode(document)) : id.toString(), document, onIndexed,
+            onFailure);
+      if (updateQueue != null) {
+         updateQueue.add(update);
+         return;
+      }
+      List<SolrUpdate> batch = bufferDocument(update);
+      if (batch != null) {
+         add(collectionName, batch);
+      }
+   }
+
+   @Override
+   public void indexDocument(String collectionName, SolrInputDocument document) {
+      // An older copy still in the buffer must not overwrite this one later
+      Object id = document.getFieldValue(SOLR_DOCUMENT_KEY);
+      if (id != null) {
+         synchronized (this) {
+            Map<String, SolrUpdate> pending = pendingDocuments.get(collectionName);
+            if (pending != null) {
+               pending.remove(id.toString());
+            }
+         }
+      }
       try {
-         server.deleteById(id);
+         getServer(collectionName).add(document, configuration.getSolrCommitWithin());
       } catch (Exception e) {
          throw new HydroidException(e);
       }
    }
 
+   @Override
+   public void deleteDocument(String collectionName, String id) {
+      if (updateQueue != null) {
+         updateQueue.add(SolrUpdate.delete(collectionName, id));
+         return;
+      }
+      synchronized (this) {
+         Map<String, SolrUpdate> pending = pendingDocuments.get(collectionName);
+         if (pending != null) {
+            pending.remove(id);
+         }
+      }
+      delete(collectionName, id);
+   }
+
    @Override
    public void deleteAll(String collectionName) {
-      SolrServer server = new HttpSolrServer(configuration.getSolrUrl() + collectionName);
+      if (updateQueue != null) {
+         updateQueue.flush();
+      }
+      drainPending(collectionName);
+      SolrServer server = getServer(collectionName);
       try {
          server.deleteByQuery("*:*");
          server.commit();
@@ -76,4 +221,118 @@ public class SolrClientImpl implements SolrClient {
       }
    }
 
+   @Override
+   public void flush() {
+      if (updateQueue != null) {
+         updateQueue.flush();
+      }
+      List<String> collectionNames;
+      synchronized (this) {
+         collectionNames = new ArrayList<>(pendingDocuments.keySet());
+      }
+      for (String collectionName : collectionNames) {
+         add(collectionName, drainPending(collectionName));
+      }
+      for (SolrServer server : servers.values()) {
+         try {
+            // Soft commit so the documents are searchable straight away
+            server.commit(false, false, true);
+         } catch (Exception e) {
+            throw new HydroidException(e);
+         }
+      }
+   }
+
+   // Collections API requests go to the Solr base url, not to a collection
+   private synchronized SolrServer getAdminServer() {
+      if (adminServer == null) {
+         adminServer = new HttpSolrServer(configuration.getSolrUrl());
+      }
+      return adminServer;
+   }
+
+   @Override
+   public void createCollection(String collectionName) {
+      try {
+         CollectionAdminRequest.createCollection(collectionName, configuration.getSolrNumShards(),
+               configuration.getSolrReplicationFactor(), null, null, configuration.getSolrConfigName(), null,
+               getAdminServer());
+      } catch (Exception e) {
+         throw new HydroidException(e);
+      }
+   }
+
+   @Override
+   public void deleteCollection(String collectionName) {
+      try {
+         CollectionAdminRequest.deleteCollection(collectionName, getAdminServer());
+      } catch (Exception e) {
+         throw new HydroidException(e);
+      }
+      SolrServer server = servers.remove(collectionName);
+      if (server != null) {
+         server.shutdown();
+      }
+   }
+
+   @Override
+   public long countDocuments(String collectionName) {
+      try {
+         return getServer(collectionName).query(new SolrQuery("*:*").setRows(0)).getResults().getNumFound();
+      } catch (Exception e) {
+         throw new HydroidException(e);
+      }
+   }
+
+   @Override
+   public List<String> getAliasedCollections(String alias) {
+      ModifiableSolrParams params = new ModifiableSolrParams();
+      params.set("action", "CLUSTERSTATUS");
+      QueryRequest request = new QueryRequest(params);
+      request.setPath("/admin/collections");
+      Object aliasedCollections;
+      try {
+         Object cluster = getAdminServer().request(request).get("cluster");
+         Object aliases = cluster instanceof NamedList ? ((NamedList<?>) cluster).get("aliases") : null;
+         if (aliases instanceof NamedList) {
+            aliasedCollections = ((NamedList<?>) aliases).get(alias);
+         } else if (aliases instanceof Map) {
+            aliasedCollections = ((Map<?, ?>) aliases).get(alias);
+         } else {
+            aliasedCollections = null;
+         }
+      } catch (Exception e) {
+         throw new HydroidException(e);
+      }
+      if (aliasedCollections == null) {
+         return new ArrayList<>();
+      }
+      return Arrays.asList(aliasedCollections.toString().split(","));
+   }
+
+   @Override
+   public void createAlias(String alias, String collectionName) {
+      try {
+         CollectionAdminRequest.createAlias(alias, collectionName, getAdminServer());
+      } catch (Exception e) {
+         throw new HydroidException(e);
+      }
+   }
+
+   @PreDestroy
+   public void shutdown() {
+      try {
+         flush();
+         if (updateQueue != null) {
+            updateQueue.shutdown();
+         }
+      } catch (Exception e) {
+         logger.warn("shutdown - Exception: ", e);
+      }
+      servers.values().forEach(SolrServer::shutdown);
+      if (adminServer != null) {
+         adminServer.shutdown();
+      }
+   }
+
 }
@@ -0,0 +1,302 @@
+package au.gov.ga.hydroid.service.impl;
+
+import au.gov.ga.hydroid.HydroidConfiguration;
+import au.gov.ga.hydroid.dto.DocumentDTO;
+import au.gov.ga.hydroid.model.Document;
+import au.gov.ga.hydroid.model.DocumentType;
+import au.gov.ga.hydroid.model.EnhancementStatus;
+import au.gov.ga.hydroid.model.HydroidSolrMapper;
+import au.gov.ga.hydroid.service.DocumentService;
+import au.gov.ga.hydroid.service.JenaService;
+import au.gov.ga.hydroid.service.S3Client;
+import au.gov.ga.hydroid.service.SolrClient;
+import au.gov.ga.hydroid.service.SolrReindexService;
+import au.gov.ga.hydroid.utils.HydroidException;
+import au.gov.ga.hydroid.utils.IOUtils;
+import org.apache.jena.rdf.model.Statement;
+import org.apache.solr.common.SolrInputDocument;
+import org.apache.tika.metadata.Metadata;
+import org.apache.tika.parser.AbstractParser;
+import org.jboss.resteasy.util.DateUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationContext;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Re-runs the Solr mapping over the stored enhancement RDFs, the title, type and origin
+ * come from the documents table and the content is extracted again from the original.
+ */
+@Service
+public class SolrReindexServiceImpl implements SolrReindexService {
+
+   private static final Logger logger = LoggerFactory.getLogger(SolrReindexServiceImpl.class);
+
+   @Autowired
+   private HydroidConfiguration configuration;
+
+   @Autowired
+   private SolrClient solrClient;
+
+   @Autowired
+   @Value("#{systemProperties['jena.use.tdb'] != null ? jenaTdb : jenaServiceImpl}")
+   private JenaService jenaService;
+
+   @Autowired
+   @Value("#{systemProperties['s3.use.file.system'] != null ? s3FileSystem : cachingS3Client}")
+   private S3Client s3Client;
+
+   @Autowired
+   private DocumentService documentService;
+
+   @Autowired
+   private HydroidSolrMapper hydroidSolrMapper;
+
+   @Autowired
+   private ApplicationContext applicationContext;
+
+   private final ExecutorService backgroundExecutor = Executors.newSingleThreadExecutor();
+
+   private final AtomicBoolean running = new AtomicBoolean(false);
+
+   private String readOriginalContent(Document document) {
+      if (document.getType() == DocumentType.IMAGE) {
+         return documentService.readImageMetadata(document.getOrigin());
+      }
+
+      InputStream inputStream = null;
+      if (document.getOrigin().contains("://")) {
+         inputStream = IOUtils.getUrlContent(document.getOrigin());
+      } else if (document.getOrigin().contains(":")) {
+         int bucketEndPosition = document.getOrigin().indexOf(":");
+         byte[] original = s3Client.getFileAsByteArray(document.getOrigin().substring(0, bucketEndPosition),
+               document.getOrigin().substring(bucketEndPosition + 1));
+         inputStream = original == null ? null : new ByteArrayInputStream(original);
+      }
+      if (inputStream == null) {
+         return null;
+      }
+
+      Metadata metadata = new Metadata();
+      if (document.getParserName() != null) {
+         AbstractParser parser = (AbstractParser) applicationContext.getBean(document.getParserName());
+         return IOUtils.parseStream(inputStream, metadata, parser);
+      }
+      return IOUtils.parseStream(inputStream, metadata);
+   }
+
+   private DocumentDTO toDocumentDTO(Document document) {
+      DocumentDTO documentDTO = new DocumentDTO();
+      documentDTO.setTitle(document.getTitle());
+      documentDTO.setDocType(document.getType().name());
+      documentDTO.setOrigin(document.getOrigin());
+      documentDTO.setSha1Hash(document.getSha1Hash());
+      String content = readOriginalContent(document);
+      documentDTO.setContent(content == null ? "" : content);
+      return documentDTO;
+   }
+
+   private boolean reindexDocument(String collectionName, Document document, AtomicInteger failures) {
+      byte[] rdfContent = s3Client.getFileAsByteArray(configuration.getS3OutputBucket(),
+            configuration.getS3EnhancerOutput() + document.getUrn());
+      if (rdfContent == null) {
+         logger.warn("reindexDocument - no RDF stored for: " + document.getUrn());
+         return false;
+      }
+
+      // RDFs stored before compression was enabled are plain text
+      List<Statement> rdfDocument = jenaService.parseRdf(
+            new String(IOUtils.decompressIfGzipped(rdfContent), StandardCharsets.UTF_8), "");
+      SolrInputDocument solrDocument = hydroidSolrMapper.generateDocument(rdfDocument, toDocumentDTO(document));
+      if (solrDocument.isEmpty()) {
+         logger.warn("reindexDocument - no vocabulary matches for: " + document.getUrn());
+         return false;
+      }
+
+      solrClient.addDocument(collectionName, solrDocument, e -> {
+         failures.incrementAndGet();
+         logger.error("reindexDocument - failed to index " + document.getUrn() + ": ", e);
+      });
+      return true;
+   }
+
+   // Failed adds are counted in failures, they may only be reported once the batch is sent
+   private int reindexDocuments(String collectionName, List<Document> documents, AtomicInteger failures) {
+      Instant started = Instant.now();
+      logger.info("reindexDocuments - there are " + documents.size() + " documents to be indexed into "
+            + collectionName);
+
+      // The bounded queue makes the listing thread help out instead of reading every document ahead
+      int threads = Math.max(1, configuration.getSolrReindexThreads());
+      ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(threads * 2), new ThreadPoolExecutor.CallerRunsPolicy());
+      AtomicInteger indexed = new AtomicInteger();
+      for (Document document : documents) {
+         if (document.getUrn() == null) {
+            continue;
+         }
+         executor.execute(() -> {
+            try {
+               if (reindexDocument(collectionName, document, failures)) {
+                  indexed.incrementAndGet();
+               }
+            } catch (Exception e) {
+               logger.error("reindexDocuments - error processing urn: " + document.getUrn(), e);
+            }
+         });
+      }
+
+      executor.shutdown();
+      try {
+         executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+      } catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+         throw new HydroidException(e);
+      }
+      solrClient.flush();
+
+      logger.info("reindexDocuments - " + indexed.get() + " documents indexed (" + failures.get()
+            + " failed so far) in " + Duration.between(started, Instant.now()));
+      return indexed.get();
+   }
+
+   @Override
+   public int reindex(String collectionName) {
+      return reindexDocuments(collectionName, documentService.findByStatus(EnhancementStatus.SUCCESS),
+            new AtomicInteger());
+   }
+
+   /**
+    * Indexes the documents that were enhanced since the given urns were read and removes the ones
+    * rolled back since then, returns the change in the number of documents sent to the collection.
+    */
+   private int catchUp(String collectionName, Set<String> seenUrns, AtomicInteger failures) {
+      List<Document> newDocuments = new ArrayList<>();
+      Set<String> currentUrns = new HashSet<>();
+      for (Document document : documentService.findByStatus(EnhancementStatus.SUCCESS)) {
+         currentUrns.add(document.getUrn());
+         if (!seenUrns.contains(document.getUrn())) {
+            newDocuments.add(document);
+         }
+      }
+      int indexed = reindexDocuments(collectionName, newDocuments, failures);
+      newDocuments.forEach(document -> seenUrns.add(document.getUrn()));
+
+      int removed = 0;
+      for (String urn : new ArrayList<>(seenUrns)) {
+         if (urn != null && !currentUrns.contains(urn)) {
+            solrClient.deleteDocument(collectionName, urn);
+            seenUrns.remove(urn);
+            removed++;
+         }
+      }
+      if (removed > 0) {
+         solrClient.flush();
+      }
+      return indexed - removed;
+   }
+
+   @Override
+   public String rebuild(String alias) {
+      String collectionName = alias + "_" + DateUtil.formatDate(new Date(), "yyyyMMddHHmmss");
+      logger.info("rebuild - building " + collectionName + " for alias " + alias);
+      solrClient.createCollection(collectionName);
+      Set<String> seenUrns = new HashSet<>();
+      try {
+         List<Document> documents = documentService.findByStatus(EnhancementStatus.SUCCESS);
+         AtomicInteger failures = new AtomicInteger();
+         int indexed = reindexDocuments(collectionName, documents, failures);
+
+         // Documents enhanced while the bulk load was running were only sent to the old collection
+         documents.forEach(document -> seenUrns.add(document.getUrn()));
+         indexed += catchUp(collectionName, seenUrns, failures);
+
+         // Keep the alias on the old collection unless every document made it into the new one
+         long numFound = solrClient.countDocuments(collectionName);
+         if (failures.get() > 0 || numFound < indexed) {
+            throw new HydroidException(failures.get() + " documents failed to index, " + numFound + " of "
+                  + indexed + " are searchable");
+         }
+      } catch (Exception e) {
+         logger.error("rebuild - dropping " + collectionName + " after Exception: ", e);
+         solrClient.deleteCollection(collectionName);
+         throw new HydroidException(e);
+      }
+
+      List<String> oldCollections = solrClient.getAliasedCollections(alias);
+      solrClient.createAlias(alias, collectionName);
+      logger.info("rebuild - alias " + alias + " switched from " + oldCollections + " to " + collectionName);
+
+      // Whatever was enhanced or rolled back just before the switch still only reached the old collection
+      AtomicInteger failures = new AtomicInteger();
+      catchUp(collectionName, seenUrns, failures);
+      if (failures.get() > 0) {
+         logger.error("rebuild - " + failures.get() + " documents enhanced during the switch failed to index");
+      }
+
+      for (String oldCollection : oldCollections) {
+         if (!oldCollection.equals(collectionName)) {
+            solrClient.deleteCollection(oldCollection);
+         }
+      }
+      return collectionName;
+   }
+
+   private boolean runInBackground(Runnable task) {
+      if (!running.compareAndSet(false, true)) {
+         return false;
+      }
+      backgroundExecutor.execute(() -> {
+         try {
+            task.run();
+         } catch (Exception e) {
+            logger.error("runInBackground - Exception: ", e);
+         } finally {
+            running.set(false);
+         }
+      });
+      return true;
+   }
+
+   @Override
+   public boolean startReindex(String collectionName) {
+      return runInBackground(() -> reindex(collectionName));
+   }
+
+   @Override
+   public boolean startRebuild(String alias) {
+      return runInBackground(() -> rebuild(alias));
+   }
+
+   @Override
+   public boolean isRunning() {
+      return running.get();
+   }
+
+   @PreDestroy
+   public void shutdown() {
+      backgroundExecutor.shutdownNow();
+   }
+
+}
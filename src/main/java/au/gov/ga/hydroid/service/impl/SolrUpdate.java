@@ -0,0 +1,81 @@
+package au.gov.ga.hydroid.service.impl;
+
+import org.apache.solr.common.SolrInputDocument;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.function.Consumer;
+
+/**
+ * A pending add or delete for a Solr collection, along with who to tell once it is sent or if it fails.
+ */
+public class SolrUpdate {
+
+   private final String collectionName;
+   private final String id;
+   private final SolrInputDocument document;
+   private final Runnable onIndexed;
+   private final Consumer<Exception> onFailure;
+   private final CountDownLatch flushLatch;
+
+   private SolrUpdate(String collectionName, String id, SolrInputDocument document, Runnable onIndexed,
+                      Consumer<Exception> onFailure, CountDownLatch flushLatch) {
+      this.collectionName = collectionName;
+      this.id = id;
+      this.document = document;
+      this.onIndexed = onIndexed;
+      this.onFailure = onFailure;
+      this.flushLatch = flushLatch;
+   }
+
+   public static SolrUpdate add(String collectionName, String id, SolrInputDocument document,
+                                Consumer<Exception> onFailure) {
+      return add(collectionName, id, document, null, onFailure);
+   }
+
+   public static SolrUpdate add(String collectionName, String id, SolrInputDocument document, Runnable onIndexed,
+                                Consumer<Exception> onFailure) {
+      return new SolrUpdate(collectionName, id, document, onIndexed, onFailure, null);
+   }
+
+   public static SolrUpdate delete(String collectionName, String id) {
+      return new SolrUpdate(collectionName, id, null, null, null, null);
+   }
+
+   // Marker telling a sender thread to release the latch once everything queued before it was sent
+   public static SolrUpdate flush(CountDownLatch flushLatch) {
+      return new SolrUpdate(null, null, null, null, null, flushLatch);
+   }
+
+   public String getCollectionName() {
+      return collectionName;
+   }
+
+   public String getId() {
+      return id;
+   }
+
+   public SolrInputDocument getDocument() {
+      return document;
+   }
+
+   public Runnable getOnIndexed() {
+      return onIndexed;
+   }
+
+   public Consumer<Exception> getOnFailure() {
+      return onFailure;
+   }
+
+   public CountDownLatch getFlushLatch() {
+      return flushLatch;
+   }
+
+   public boolean isAdd() {
+      return document != null;
+   }
+
+   public boolean isFlush() {
+      return flushLatch != null;
+   }
+
+}
@@ -0,0 +1,191 @@
+package au.gov.ga.hydroid.service.impl;
+
+import au.gov.ga.hydroid.utils.HydroidException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bounded in-memory queue of Solr updates drained by background sender threads.
+ * Updates for the same document id always go to the same thread so they are sent in order.
+ */
+public class SolrUpdateQueue {
+
+   private static final Logger logger = LoggerFactory.getLogger(SolrUpdateQueue.class);
+
+   public interface Sender {
+      void add(String collectionName, List<SolrUpdate> updates);
+      void delete(String collectionName, String id);
+   }
+
+   private final Sender sender;
+   private final int batchSize;
+   private final List<BlockingQueue<SolrUpdate>> queues = new ArrayList<>();
+   private final List<Thread> threads = new ArrayList<>();
+   private volatile boolean running = true;
+
+   // Callbacks may queue more updates (a rollback deletes the document), so they cannot run
+   // on a sender thread that would then wait for room in the queue only it drains
+   private final ExecutorService callbackExecutor = Executors.newSingleThreadExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "solr-update-callbacks");
+      thread.setDaemon(true);
+      return thread;
+   });
+
+   public SolrUpdateQueue(Sender sender, int threadCount, int capacity, int batchSize) {
+      this.sender = sender;
+      this.batchSize = Math.max(1, batchSize);
+      int threadCapacity = Math.max(1, capacity / Math.max(1, threadCount));
+      for (int i = 0; i < Math.max(1, threadCount); i++) {
+         BlockingQueue<SolrUpdate> queue = new ArrayBlockingQueue<>(threadCapacity);
+         Thread thread = new Thread(() -> drain(queue), "solr-update-" + i);
+         thread.setDaemon(true);
+         queues.add(queue);
+         threads.add(thread);
+         thread.start();
+      }
+   }
+
+   private BlockingQueue<SolrUpdate> getQueue(String id) {
+      int index = id == null ? 0 : Math.abs(id.hashCode() % queues.size());
+      return queues.get(index);
+   }
+
+   // Blocks while the queue is full so producers cannot run too far ahead of Solr
+   private void put(BlockingQueue<SolrUpdate> queue, SolrUpdate update) {
+      if (!running) {
+         throw new HydroidException("The Solr update queue has been shut down");
+      }
+      try {
+         queue.put(update);
+      } catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+         throw new HydroidException(e);
+      }
+   }
+
+   private void notifyIndexed(SolrUpdate update) {
+      try {
+         update.getOnIndexed().run();
+      } catch (Exception e) {
+         logger.error("notifyIndexed - Exception: ", e);
+      }
+   }
+
+   private void notifyFailure(SolrUpdate update, Exception failure) {
+      try {
+         update.getOnFailure().accept(failure);
+      } catch (Exception e) {
+         logger.error("notifyFailure - Exception: ", e);
+      }
+   }
+
+   public void add(SolrUpdate update) {
+      SolrUpdate queued = update;
+      if (update.isAdd()) {
+         queued = SolrUpdate.add(update.getCollectionName(), update.getId(), update.getDocument(),
+               update.getOnIndexed() == null ? null : () -> callbackExecutor.execute(() -> notifyIndexed(update)),
+               update.getOnFailure() == null ? null : e -> callbackExecutor.execute(() -> notifyFailure(update, e)));
+      }
+      put(getQueue(update.getId()), queued);
+   }
+
+   /**
+    * blocks until every update queued before this call has been sent and its callbacks have run
+    */
+   public void flush() {
+      CountDownLatch flushLatch = new CountDownLatch(queues.size());
+      for (BlockingQueue<SolrUpdate> queue : queues) {
+         put(queue, SolrUpdate.flush(flushLatch));
+      }
+      try {
+         flushLatch.await();
+         // The callbacks run in order, so once this one ran the earlier ones did too
+         callbackExecutor.submit(() -> { }).get();
+      } catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+         throw new HydroidException(e);
+      } catch (ExecutionException e) {
+         throw new HydroidException(e.getCause());
+      }
+   }
+
+   public void shutdown() {
+      flush();
+      running = false;
+      threads.forEach(Thread::interrupt);
+      callbackExecutor.shutdown();
+   }
+
+   private void drain(BlockingQueue<SolrUpdate> queue) {
+      while (running) {
+         try {
+            SolrUpdate first = queue.poll(1, TimeUnit.SECONDS);
+            if (first == null) {
+               continue;
+            }
+            List<SolrUpdate> updates = new ArrayList<>();
+            updates.add(first);
+            queue.drainTo(updates, batchSize - 1);
+            process(updates);
+         } catch (InterruptedException e) {
+            logger.debug("drain - InterruptedException: ", e);
+            Thread.currentThread().interrupt();
+            return;
+         } catch (Exception e) {
+            logger.error("drain - Exception: ", e);
+         }
+      }
+   }
+
+   // Consecutive adds to the same collection are sent together, deletes and flushes keep their position
+   private void process(List<SolrUpdate> updates) {
+      List<SolrUpdate> adds = new ArrayList<>();
+      for (SolrUpdate update : updates) {
+         if (update.isAdd() && (adds.isEmpty()
+               || adds.get(0).getCollectionName().equals(update.getCollectionName()))) {
+            adds.add(update);
+            continue;
+         }
+         sendAdds(adds);
+         if (update.isAdd()) {
+            adds.add(update);
+         } else if (update.isFlush()) {
+            update.getFlushLatch().countDown();
+         } else {
+            sendDelete(update);
+         }
+      }
+      sendAdds(adds);
+   }
+
+   private void sendAdds(List<SolrUpdate> adds) {
+      if (adds.isEmpty()) {
+         return;
+      }
+      try {
+         sender.add(adds.get(0).getCollectionName(), new ArrayList<>(adds));
+      } catch (Exception e) {
+         logger.error("sendAdds - Exception: ", e);
+      }
+      adds.clear();
+   }
+
+   private void sendDelete(SolrUpdate delete) {
+      try {
+         sender.delete(delete.getCollectionName(), delete.getId());
+      } catch (Exception e) {
+         logger.error("sendDelete - failed to delete " + delete.getId() + ": ", e);
+      }
+   }
+
+}
@@ -10,6 +10,7 @@ import org.apache.jena.rdf.model.Statement;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import javax.ws.rs.client.Entity;
@@ -35,6 +36,7 @@ public class StanbolClientImpl implements StanbolClient {
    private RestClient restClient;
 
    @Autowired
+   @Value("#{systemProperties['jena.use.tdb'] != null ? jenaTdb : jenaServiceImpl}")
    private JenaService jenaService;
 
    @Override
@@ -0,0 +1,224 @@
+package au.gov.ga.hydroid.service.impl;
+
+import au.gov.ga.hydroid.HydroidConfiguration;
+import au.gov.ga.hydroid.service.S3Client;
+import au.gov.ga.hydroid.service.ThumbnailService;
+import au.gov.ga.hydroid.utils.HydroidException;
+import au.gov.ga.hydroid.utils.ImageUtils;
+import org.imgscalr.Scalr;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Thumbnails are JPEGs stored next to the original image, the default size as &lt;urn&gt;_thumb
+ * (the key used before there were several sizes) and the others as &lt;urn&gt;_thumb_&lt;size&gt;.
+ * The most recently served ones are also kept in a bounded LRU.
+ */
+@Service
+public class ThumbnailServiceImpl implements ThumbnailService {
+
+   private static final Logger logger = LoggerFactory.getLogger(ThumbnailServiceImpl.class);
+
+   private static final String THUMB_SUFFIX = "_thumb";
+   private static final String THUMB_MEDIA_TYPE = "image/jpeg";
+
+   @Autowired
+   private HydroidConfiguration configuration;
+
+   @Autowired
+   @Value("#{systemProperties['s3.use.file.system'] != null ? s3FileSystem : cachingS3Client}")
+   private S3Client s3Client;
+
+   private ThreadPoolExecutor executor;
+
+   // Access ordered so the least recently served thumbnail is dropped first
+   private final Map<String, byte[]> thumbnails = new LinkedHashMap<String, byte[]>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, byte[]> eldest) {
+         return size() > configuration.getThumbnailCacheSize();
+      }
+   };
+
+   // The bounded queue makes the enhancer create the thumbnails itself when the pool falls behind
+   private synchronized ThreadPoolExecutor getExecutor() {
+      if (executor == null) {
+         int threads = Math.max(1, configuration.getThumbnailThreads());
+         executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+               new ArrayBlockingQueue<>(threads * 4), new ThreadPoolExecutor.CallerRunsPolicy());
+      }
+      return executor;
+   }
+
+   private synchronized byte[] getCached(String key) {
+      return thumbnails.get(key);
+   }
+
+   private synchronized void putCached(String key, byte[] thumbnail) {
+      thumbnails.put(key, thumbnail);
+   }
+
+   private synchronized void removeCached(String key) {
+      thumbnails.remove(key);
+   }
+
+   @Override
+   public List<Integer> getSizes() {
+      List<Integer> sizes = new ArrayList<>();
+      for (String size : configuration.getThumbnailSizes().split(",")) {
+         if (!size.trim().isEmpty()) {
+            sizes.add(Integer.valueOf(size.trim()));
+         }
+      }
+      return sizes;
+   }
+
+   @Override
+   public String getThumbnailKey(String urn, int size) {
+      String key = configuration.getS3EnhancerOutputImages() + urn + THUMB_SUFFIX;
+      List<Integer> sizes = getSizes();
+      return !sizes.isEmpty() && sizes.get(0) == size ? key : key + "_" + size;
+   }
+
+   // JPEG has no alpha channel, transparent areas become white
+   private BufferedImage toRgb(BufferedImage image) {
+      if (image.getType() == BufferedImage.TYPE_INT_RGB) {
+         return image;
+      }
+      BufferedImage rgb = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_RGB);
+      Graphics2D graphics = rgb.createGraphics();
+      try {
+         graphics.drawImage(image, 0, 0, Color.WHITE, null);
+      } finally {
+         graphics.dispose();
+      }
+      return rgb;
+   }
+
+   private byte[] createThumbnail(BufferedImage image, int size) {
+      BufferedImage resized = toRgb(Scalr.resize(image, size));
+      ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+      ByteArrayOutputStream os = new ByteArrayOutputStream();
+      try (ImageOutputStream output = ImageIO.createImageOutputStream(os)) {
+         ImageWriteParam param = writer.getDefaultWriteParam();
+         param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+         param.setCompressionQuality(configuration.getThumbnailQuality());
+         writer.setOutput(output);
+         writer.write(null, new IIOImage(resized, null, null), param);
+      } catch (IOException e) {
+         throw new HydroidException(e);
+      } finally {
+         writer.dispose();
+      }
+      return os.toByteArray();
+   }
+
+   private void storeThumbnail(String key, byte[] thumbnail) {
+      s3Client.storeFile(configuration.getS3OutputBucket(), key, new ByteArrayInputStream(thumbnail),
+            THUMB_MEDIA_TYPE, thumbnail.length);
+      putCached(key, thumbnail);
+   }
+
+   private byte[] readImage(String urn) {
+      return s3Client.getFileAsByteArray(configuration.getS3OutputBucket(),
+            configuration.getS3EnhancerOutputImages() + urn);
+   }
+
+   // Decoded once, subsampled just enough for the biggest size
+   private void createThumbnails(String urn, byte[] image) {
+      byte[] content = image == null ? readImage(urn) : image;
+      List<Integer> sizes = getSizes();
+      if (content == null || sizes.isEmpty()) {
+         return;
+      }
+      BufferedImage decoded = ImageUtils.readSubsampled(new ByteArrayInputStream(content), Collections.max(sizes));
+      if (decoded == null) {
+         logger.warn("createThumbnails - unsupported image format for: " + urn);
+         return;
+      }
+      for (Integer size : sizes) {
+         storeThumbnail(getThumbnailKey(urn, size), createThumbnail(decoded, size));
+      }
+      logger.debug("createThumbnails - " + sizes.size() + " thumbnails stored for " + urn);
+   }
+
+   @Override
+   public void generateThumbnails(String urn, byte[] image) {
+      getExecutor().execute(() -> {
+         try {
+            createThumbnails(urn, image);
+         } catch (Exception e) {
+            logger.error("generateThumbnails - error processing urn: " + urn, e);
+         }
+      });
+   }
+
+   @Override
+   public byte[] getThumbnail(String urn, int size) {
+      String key = getThumbnailKey(urn, size);
+      byte[] thumbnail = getCached(key);
+      if (thumbnail != null) {
+         return thumbnail;
+      }
+
+      thumbnail = s3Client.getFileAsByteArray(configuration.getS3OutputBucket(), key);
+      if (thumbnail != null) {
+         putCached(key, thumbnail);
+         return thumbnail;
+      }
+
+      // Not created yet, or enhanced before this size was configured
+      byte[] image = readImage(urn);
+      if (image == null) {
+         return null;
+      }
+      BufferedImage decoded = ImageUtils.readSubsampled(new ByteArrayInputStream(image), size);
+      if (decoded == null) {
+         return null;
+      }
+      thumbnail = createThumbnail(decoded, size);
+      storeThumbnail(key, thumbnail);
+      return thumbnail;
+   }
+
+   @Override
+   public void deleteThumbnails(String urn) {
+      for (Integer size : getSizes()) {
+         String key = getThumbnailKey(urn, size);
+         removeCached(key);
+         s3Client.deleteFile(configuration.getS3OutputBucket(), key);
+      }
+   }
+
+   @PreDestroy
+   public synchronized void shutdown() {
+      if (executor != null) {
+         executor.shutdownNow();
+         executor = null;
+      }
+   }
+
+}
@@ -0,0 +1,98 @@
+package au.gov.ga.hydroid.utils;
+
+/**
+ * Helpers for conditional (If-None-Match) and partial (Range) GET requests.
+ */
+public class HttpUtils {
+
+   // Returned by getRange when none of the requested bytes exist
+   public static final long[] UNSATISFIABLE_RANGE = new long[0];
+
+   private static final String BYTES_UNIT = "bytes";
+   private static final String WEAK_PREFIX = "W/";
+
+   private HttpUtils() {
+   }
+
+   /**
+    * wraps the entity tag in quotes unless it already is, null stays null
+    */
+   public static String quoteETag(String eTag) {
+      if (eTag == null || eTag.isEmpty()) {
+         return null;
+      }
+      if (eTag.startsWith("\"") || eTag.startsWith(WEAK_PREFIX)) {
+         return eTag;
+      }
+      return "\"" + eTag + "\"";
+   }
+
+   private static String opaqueTag(String eTag) {
+      String tag = eTag.trim();
+      return tag.startsWith(WEAK_PREFIX) ? tag.substring(WEAK_PREFIX.length()) : tag;
+   }
+
+   /**
+    * true when the If-None-Match header lists the entity tag, GET requests use the weak comparison
+    */
+   public static boolean isNotModified(String ifNoneMatch, String eTag) {
+      if (ifNoneMatch == null || eTag == null) {
+         return false;
+      }
+      for (String candidate : ifNoneMatch.split(",")) {
+         if ("*".equals(candidate.trim()) || opaqueTag(candidate).equals(opaqueTag(eTag))) {
+            return true;
+         }
+      }
+      return false;
+   }
+
+   /**
+    * returns the first and last byte of a single byte range, null when the whole content should be sent.
+    * Multiple ranges are not supported and are answered with the whole content, as HTTP allows.
+    */
+   public static long[] getRange(String range, long length) {
+      if (range == null || length < 0 || range.contains(",")) {
+         return null;
+      }
+      String[] unitAndRange = range.split("=", 2);
+      if (unitAndRange.length < 2 || !BYTES_UNIT.equalsIgnoreCase(unitAndRange[0].trim())) {
+         return null;
+      }
+      String[] firstAndLast = unitAndRange[1].trim().split("-", -1);
+      if (firstAndLast.length != 2) {
+         return null;
+      }
+      try {
+         long first;
+         long last;
+         if (firstAndLast[0].isEmpty()) {
+            // A suffix range, the last N bytes
+            long suffixLength = Long.parseLong(firstAndLast[1]);
+            if (suffixLength <= 0) {
+               return UNSATISFIABLE_RANGE;
+            }
+            first = Math.max(0, length - suffixLength);
+            last = length - 1;
+         } else {
+            first = Long.parseLong(firstAndLast[0]);
+            last = firstAndLast[1].isEmpty() ? length - 1 : Math.min(Long.parseLong(firstAndLast[1]), length - 1);
+         }
+         if (first >= length || last < first) {
+            return UNSATISFIABLE_RANGE;
+         }
+         return new long[] {first, last};
+      } catch (NumberFormatException e) {
+         // An invalid Range header is ignored
+         return null;
+      }
+   }
+
+   public static String getContentRange(long[] range, long length) {
+      if (range == UNSATISFIABLE_RANGE) {
+         return BYTES_UNIT + " */" + length;
+      }
+      return BYTES_UNIT + " " + range[0] + "-" + range[1] + "/" + length;
+   }
+
+}
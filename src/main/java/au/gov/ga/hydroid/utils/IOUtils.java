@@ -8,16 +8,26 @@ import org.apache.tika.parser.Parser;
 import org.apache.tika.sax.WriteOutContentHandler;
 
 import javax.servlet.http.HttpServletResponse;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
 import java.net.HttpURLConnection;
 import java.net.URL;
+import java.util.Arrays;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
 /**
  * Created by u24529 on 17/02/2016.
  */
 public class IOUtils {
 
+   public static final String GZIP_ENCODING = "gzip";
+   private static final int GZIP_MAGIC_FIRST = 0x1f;
+   private static final int GZIP_MAGIC_SECOND = 0x8b;
+
    private IOUtils() {
    }
 
@@ -96,4 +106,86 @@ public class IOUtils {
         }
     }
 
+   public static byte[] gzip(byte[] content) {
+      try (ByteArrayOutputStream baos = new ByteArrayOutputStream(content.length / 4 + 64)) {
+         try (GZIPOutputStream gzipOut = new GZIPOutputStream(baos)) {
+            gzipOut.write(content);
+         }
+         return baos.toByteArray();
+      } catch (Exception e) {
+         throw new HydroidException(e);
+      }
+   }
+
+   public static boolean isGzipped(byte[] content) {
+      return content != null && content.length > 1 && (content[0] & 0xff) == GZIP_MAGIC_FIRST
+            && (content[1] & 0xff) == GZIP_MAGIC_SECOND;
+   }
+
+   /**
+    * checks the gzip header, the stream is left where it was if it supports mark/reset
+    */
+   public static boolean isGzipped(InputStream input) throws IOException {
+      if (input.markSupported()) {
+         input.mark(2);
+      }
+      int first = input.read();
+      int second = input.read();
+      if (input.markSupported()) {
+         input.reset();
+      }
+      return first == GZIP_MAGIC_FIRST && second == GZIP_MAGIC_SECOND;
+   }
+
+   /**
+    * returns the content as it was before being gzipped, content that is not gzipped is returned as is
+    */
+   public static byte[] decompressIfGzipped(byte[] content) {
+      if (!isGzipped(content)) {
+         return content;
+      }
+      return fromInputStreamToByteArray(decompressIfGzipped(new ByteArrayInputStream(content)));
+   }
+
+   public static InputStream decompressIfGzipped(InputStream input) {
+      try {
+         InputStream buffered = input.markSupported() ? input : new BufferedInputStream(input);
+         return isGzipped(buffered) ? new GZIPInputStream(buffered) : buffered;
+      } catch (IOException e) {
+         throw new HydroidException(e);
+      }
+   }
+
+   /**
+    * reads up to length bytes from the start of the stream and resets it, the stream must support mark/reset
+    */
+   public static byte[] peek(InputStream input, int length) throws IOException {
+      input.mark(length);
+      byte[] head = new byte[length];
+      int read = 0;
+      int bytesRead;
+      while (read < length && (bytesRead = input.read(head, read, length - read)) != -1) {
+         read += bytesRead;
+      }
+      input.reset();
+      return Arrays.copyOf(head, read);
+   }
+
+   /**
+    * decompresses up to length bytes from the start of gzipped content that may have been cut off anywhere
+    */
+   public static byte[] decompressHead(byte[] gzippedHead, int length) {
+      byte[] head = new byte[length];
+      int read = 0;
+      try (InputStream is = new GZIPInputStream(new ByteArrayInputStream(gzippedHead))) {
+         int bytesRead;
+         while (read < length && (bytesRead = is.read(head, read, length - read)) != -1) {
+            read += bytesRead;
+         }
+      } catch (IOException e) {
+         // The input ended in the middle of the compressed data, what was decompressed so far is kept
+      }
+      return Arrays.copyOf(head, read);
+   }
+
 }
@@ -0,0 +1,46 @@
+package au.gov.ga.hydroid.utils;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Iterator;
+
+/**
+ * Helpers for decoding images that are only needed at a small size.
+ */
+public class ImageUtils {
+
+   private ImageUtils() {
+   }
+
+   /**
+    * decodes only every n-th pixel, so the image is still at least twice the given size (when it was bigger)
+    * without huge images ever being fully decoded, null when the format is not supported
+    */
+   public static BufferedImage readSubsampled(InputStream input, int size) {
+      try (ImageInputStream imageInput = ImageIO.createImageInputStream(input)) {
+         Iterator<ImageReader> readers = imageInput == null ? null : ImageIO.getImageReaders(imageInput);
+         if (readers == null || !readers.hasNext()) {
+            return null;
+         }
+         ImageReader reader = readers.next();
+         try {
+            reader.setInput(imageInput, true, true);
+            int longestSide = Math.max(reader.getWidth(0), reader.getHeight(0));
+            int subsampling = Math.max(1, longestSide / (size * 2));
+            ImageReadParam param = reader.getDefaultReadParam();
+            param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+            return reader.read(0, param);
+         } finally {
+            reader.dispose();
+         }
+      } catch (IOException e) {
+         throw new HydroidException(e);
+      }
+   }
+
+}
@@ -0,0 +1,79 @@
+package au.gov.ga.hydroid.benchmark;
+
+import au.gov.ga.hydroid.HydroidConfiguration;
+import au.gov.ga.hydroid.dto.DocumentDTO;
+import au.gov.ga.hydroid.model.ConceptHierarchy;
+import au.gov.ga.hydroid.model.DocumentType;
+import au.gov.ga.hydroid.model.HydroidSolrMapper;
+import au.gov.ga.hydroid.service.impl.JenaServiceImpl;
+import au.gov.ga.hydroid.utils.IOUtils;
+import org.apache.jena.rdf.model.Statement;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures HydroidSolrMapper.generateDocument over the stanbol-hydroid-response.xml test file,
+ * run with: mvn test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=au.gov.ga.hydroid.benchmark.HydroidSolrMapperBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class HydroidSolrMapperBenchmark {
+
+   private HydroidSolrMapper hydroidSolrMapper;
+
+   private List<Statement> rdfDocument;
+
+   private DocumentDTO document;
+
+   @Setup
+   public void setup() {
+      HydroidConfiguration configuration = new HydroidConfiguration();
+      ReflectionTestUtils.setField(configuration, "s3OutputUrl", "//hydroid-output");
+      hydroidSolrMapper = new HydroidSolrMapper();
+      ReflectionTestUtils.setField(hydroidSolrMapper, "configuration", configuration);
+      ConceptHierarchy conceptHierarchy = new ConceptHierarchy();
+      conceptHierarchy.init();
+      ReflectionTestUtils.setField(hydroidSolrMapper, "conceptHierarchy", conceptHierarchy);
+
+      String rdf = new String(IOUtils.fromInputStreamToByteArray(
+            getClass().getResourceAsStream("/testfiles/stanbol-hydroid-response.xml")));
+      rdfDocument = new JenaServiceImpl().parseRdf(rdf, "");
+
+      document = new DocumentDTO();
+      document.setTitle("Benchmark");
+      document.setDocType(DocumentType.DOCUMENT.name());
+      document.setOrigin("Benchmark");
+      document.setContent("This enhancement should find Corals, Terrace and Bob Marley.");
+   }
+
+   @Benchmark
+   public Object generateDocument() {
+      // generateDocument adds statements to the list so each call gets its own copy
+      return hydroidSolrMapper.generateDocument(new ArrayList<>(rdfDocument), document);
+   }
+
+   public static void main(String[] args) throws Exception {
+      new Runner(new OptionsBuilder().include(HydroidSolrMapperBenchmark.class.getSimpleName()).build()).run();
+   }
+
+}
@@ -4,15 +4,27 @@ import au.gov.ga.hydroid.HydroidApplication;
 import au.gov.ga.hydroid.HydroidConfiguration;
 import au.gov.ga.hydroid.mock.CustomMockDocumentService;
 import au.gov.ga.hydroid.mock.CustomMockS3Client;
+import au.gov.ga.hydroid.model.Document;
+import au.gov.ga.hydroid.model.DocumentType;
+import au.gov.ga.hydroid.model.RdfFormat;
+import au.gov.ga.hydroid.service.DocumentService;
+import au.gov.ga.hydroid.service.RdfConversionService;
 import au.gov.ga.hydroid.service.S3Client;
+import au.gov.ga.hydroid.service.ThumbnailService;
 import au.gov.ga.hydroid.utils.HydroidException;
+import au.gov.ga.hydroid.utils.IOUtils;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.Matchers;
 import org.mockito.Mock;
+import org.mockito.Mockito;
 import org.mockito.MockitoAnnotations;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.SpringApplicationConfiguration;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
 import org.springframework.test.util.ReflectionTestUtils;
@@ -20,7 +32,19 @@ import org.springframework.test.web.servlet.MockMvc;
 import org.springframework.test.web.servlet.request.MockMvcRequestBuilders;
 import org.springframework.test.web.servlet.setup.MockMvcBuilders;
 
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 @RunWith(SpringJUnit4ClassRunner.class)
@@ -32,6 +56,15 @@ public class DownloadControllerTest {
    @Mock
    private S3Client s3Client;
 
+   @Mock
+   private RdfConversionService rdfConversionService;
+
+   @Mock
+   private DocumentService documentService;
+
+   @Mock
+   private ThumbnailService thumbnailService;
+
    @Autowired
    HydroidConfiguration configuration;
 
@@ -44,6 +77,8 @@ public class DownloadControllerTest {
       ReflectionTestUtils.setField(downloadController, "s3Client", this.s3Client);
       ReflectionTestUtils.setField(downloadController, "configuration", this.configuration);
       ReflectionTestUtils.setField(downloadController, "documentService", new CustomMockDocumentService());
+      ReflectionTestUtils.setField(downloadController, "rdfConversionService", this.rdfConversionService);
+      ReflectionTestUtils.setField(downloadController, "thumbnailService", this.thumbnailService);
       mockMvc = MockMvcBuilders.standaloneSetup(downloadController).build();
    }
 
@@ -75,6 +110,170 @@ public class DownloadControllerTest {
       }
    }
 
+   @Test
+   public void testDownloadGzippedRDF() {
+      try {
+         byte[] rdf = "<?xml version=\"1.0\"?><rdf:RDF xmlns:rdf=\"http://www.w3.org/1999/02/22-rdf-syntax-ns#\"/>"
+               .getBytes();
+         byte[] gzipped = IOUtils.gzip(rdf);
+         Mockito.when(s3Client.getFile(Matchers.anyString(), Matchers.anyString()))
+               .thenAnswer(invocation -> new ByteArrayInputStream(gzipped));
+         this.mockMvc.perform(
+               MockMvcRequestBuilders.get("/download/rdfs/urn1")
+                     .header(HttpHeaders.ACCEPT_ENCODING, "gzip, deflate"))
+               .andExpect(status().isOk())
+               .andExpect(header().string(HttpHeaders.CONTENT_ENCODING, "gzip"))
+               .andExpect(content().bytes(gzipped));
+         this.mockMvc.perform(
+               MockMvcRequestBuilders.get("/download/rdfs/urn1")
+                     .header(HttpHeaders.ACCEPT_ENCODING, "gzip;q=0"))
+               .andExpect(status().isOk())
+               .andExpect(header().doesNotExist(HttpHeaders.CONTENT_ENCODING))
+               .andExpect(content().bytes(rdf));
+      } catch (Exception e) {
+         throw new HydroidException(e);
+      }
+   }
+
+   @Test
+   public void testDownloadDocumentStreamed() {
+      try {
+         byte[] pdf = "%PDF-1.4\n%\u00e2\u00e3\n1 0 obj\n<<>>\nendobj\n".getBytes();
+         ObjectMetadata metadata = new ObjectMetadata();
+         metadata.setContentLength(pdf.length);
+         Mockito.when(s3Client.getFile("hydroid", "documents/test.pdf")).thenReturn(new ByteArrayInputStream(pdf));
+         Mockito.when(s3Client.getObjectMetadata("hydroid", "documents/test.pdf")).thenReturn(metadata);
+         ReflectionTestUtils.setField(downloadController, "documentService", documentService);
+         Document document = new Document();
+         document.setOrigin("hydroid:documents/test.pdf");
+         Mockito.when(documentService.findByUrn("urn-pdf")).thenReturn(document);
+         this.mockMvc.perform(
+               MockMvcRequestBuilders.get("/download/documents/urn-pdf"))
+               .andExpect(status().isOk())
+               .andExpect(content().contentType("application/pdf"))
+               .andExpect(header().longValue(HttpHeaders.CONTENT_LENGTH, pdf.length))
+               .andExpect(content().bytes(pdf));
+      } catch (Exception e) {
+         throw new HydroidException(e);
+      }
+   }
+
+   @Test
+   public void testDownloadDocumentStoredWithS3DefaultType() {
+      try {
+         byte[] pdf = "%PDF-1.4\n%\u00e2\u00e3\n1 0 obj\n<<>>\nendobj\n".getBytes();
+         ObjectMetadata metadata = new ObjectMetadata();
+         metadata.setContentLength(pdf.length);
+         metadata.setContentType("binary/octet-stream");
+         Mockito.when(s3Client.getFile("hydroid", "documents/test.pdf")).thenReturn(new ByteArrayInputStream(pdf));
+         Mockito.when(s3Client.getObjectMetadata("hydroid", "documents/test.pdf")).thenReturn(metadata);
+         ReflectionTestUtils.setField(downloadController, "documentService", documentService);
+         Document document = new Document();
+         document.setOrigin("hydroid:documents/test.pdf");
+         Mockito.when(documentService.findByUrn("urn-pdf")).thenReturn(document);
+         this.mockMvc.perform(
+               MockMvcRequestBuilders.get("/download/documents/urn-pdf"))
+               .andExpect(status().isOk())
+               .andExpect(content().contentType("application/pdf"));
+      } catch (Exception e) {
+         throw new HydroidException(e);
+      }
+   }
+
+   @Test
+   public void testDownloadDocumentNotModified() {
+      try {
+         ReflectionTestUtils.setField(downloadController, "documentService", documentService);
+         Document document = new Document();
+         document.setOrigin("hydroid:documents/test.pdf");
+         document.setSha1Hash("abc123");
+         Mockito.when(documentService.findByUrn("urn-pdf")).thenReturn(document);
+         this.mockMvc.perform(
+               MockMvcRequestBuilders.get("/download/documents/urn-pdf")
+                     .header(HttpHeaders.IF_NONE_MATCH, "\"abc123\""))
+               .andExpect(status().isNotModified())
+               .andExpect(header().string(HttpHeaders.ETAG, "\"abc123\""))
+               .andExpect(header().string(HttpHeaders.CACHE_CONTROL, "max-age=3600"));
+         Mockito.verify(s3Client, Mockito.never()).getFile(Matchers.anyString(), Matchers.anyString());
+      } catch (Exception e) {
+         throw new HydroidException(e);
+      }
+   }
+
+   @Test
+   public void testDownloadImageRange() {
+      try {
+         String key = configuration.getS3EnhancerOutputImages() + "urn1";
+         ObjectMetadata metadata = new ObjectMetadata();
+         metadata.setContentLength(10);
+         metadata.setContentType("image/png");
+         metadata.setHeader("ETag", "e1");
+         Mockito.when(s3Client.getObjectMetadata(configuration.getS3OutputBucket(), key)).thenReturn(metadata);
+         Mockito.when(s3Client.getFile(configuration.getS3OutputBucket(), key, 2, 5))
+               .thenReturn(new ByteArrayInputStream("2345".getBytes()));
+         this.mockMvc.perform(
+               MockMvcRequestBuilders.get("/download/images/urn1")
+                     .header(HttpHeaders.RANGE, "bytes=2-5"))
+               .andExpect(status().isPartialContent())
+               .andExpect(header().string(HttpHeaders.CONTENT_RANGE, "bytes 2-5/10"))
+               .andExpect(header().string(HttpHeaders.ETAG, "\"e1\""))
+               .andExpect(content().contentType("image/png"))
+               .andExpect(content().bytes("2345".getBytes()));
+         this.mockMvc.perform(
+               MockMvcRequestBuilders.get("/download/images/urn1")
+                     .header(HttpHeaders.RANGE, "bytes=20-"))
+               .andExpect(status().isRequestedRangeNotSatisfiable())
+               .andExpect(header().string(HttpHeaders.CONTENT_RANGE, "bytes */10"));
+      } catch (Exception e) {
+         throw new HydroidException(e);
+      }
+   }
+
+   @Test
+   public void testDownloadRDFNotModified() {
+      try {
+         ObjectMetadata metadata = new ObjectMetadata();
+         metadata.setContentEncoding(IOUtils.GZIP_ENCODING);
+         metadata.setHeader("ETag", "abc");
+         Mockito.when(s3Client.getObjectMetadata(Matchers.anyString(), Matchers.anyString())).thenReturn(metadata);
+         this.mockMvc.perform(
+               MockMvcRequestBuilders.get("/download/rdfs/urn1")
+                     .header(HttpHeaders.ACCEPT_ENCODING, "gzip")
+                     .header(HttpHeaders.IF_NONE_MATCH, "\"abc-gzip\""))
+               .andExpect(status().isNotModified())
+               .andExpect(header().string(HttpHeaders.VARY, "Accept, Accept-Encoding"));
+         Mockito.when(s3Client.getFile(Matchers.anyString(), Matchers.anyString()))
+               .thenReturn(new ByteArrayInputStream(IOUtils.gzip("<rdf:RDF/>".getBytes())));
+         this.mockMvc.perform(
+               MockMvcRequestBuilders.get("/download/rdfs/urn1")
+                     .header(HttpHeaders.IF_NONE_MATCH, "\"abc-gzip\""))
+               .andExpect(status().isOk())
+               .andExpect(header().string(HttpHeaders.ETAG, "\"abc\""));
+      } catch (Exception e) {
+         throw new HydroidException(e);
+      }
+   }
+
+   @Test
+   public void testDownloadTurtle() {
+      try {
+         byte[] turtle = "<urn:a> <urn:b> <urn:c> .".getBytes();
+         Mockito.when(rdfConversionService.getConverted("urn1", RdfFormat.TURTLE)).thenReturn(IOUtils.gzip(turtle));
+         this.mockMvc.perform(
+               MockMvcRequestBuilders.get("/download/rdfs/urn1")
+                     .header(HttpHeaders.ACCEPT, "application/ld+json;q=0.5, text/turtle"))
+               .andExpect(status().isOk())
+               .andExpect(content().contentType("text/turtle"))
+               .andExpect(content().bytes(turtle));
+         this.mockMvc.perform(
+               MockMvcRequestBuilders.get("/download/rdfs/missing-urn")
+                     .header(HttpHeaders.ACCEPT, "text/turtle"))
+               .andExpect(status().isNotFound());
+      } catch (Exception e) {
+         throw new HydroidException(e);
+      }
+   }
+
    @Test
    public void testDownloadDocument() {
       try {
@@ -118,6 +317,41 @@ public class DownloadControllerTest {
       }
    }
 
+   @Test
+   public void testDownloadBundleWithOriginals() {
+      try {
+         byte[] rdf = "<rdf:RDF/>".getBytes();
+         byte[] pdf = "%PDF-1.4".getBytes();
+         Mockito.when(s3Client.getFile(configuration.getS3OutputBucket(), configuration.getS3EnhancerOutput() + "urn1"))
+               .thenReturn(new ByteArrayInputStream(IOUtils.gzip(rdf)));
+         Mockito.when(s3Client.getFile("hydroid", "documents/test.pdf")).thenReturn(new ByteArrayInputStream(pdf));
+         ReflectionTestUtils.setField(downloadController, "documentService", documentService);
+         Document document = new Document();
+         document.setType(DocumentType.DOCUMENT);
+         document.setOrigin("hydroid:documents/test.pdf");
+         Mockito.when(documentService.findByUrn("urn1")).thenReturn(document);
+
+         byte[] bundle = this.mockMvc.perform(
+               MockMvcRequestBuilders.get("/download/bundle/urn1,missing-urn")
+                     .param("include", "rdfs,documents"))
+               .andExpect(status().isOk())
+               .andExpect(content().contentType(MediaType.APPLICATION_OCTET_STREAM))
+               .andReturn().getResponse().getContentAsByteArray();
+
+         Map<String, byte[]> entries = new HashMap<>();
+         try (ZipInputStream zipIn = new ZipInputStream(new ByteArrayInputStream(bundle))) {
+            for (ZipEntry entry = zipIn.getNextEntry(); entry != null; entry = zipIn.getNextEntry()) {
+               entries.put(entry.getName(), IOUtils.fromInputStreamToByteArray(zipIn));
+            }
+         }
+         Assert.assertEquals(2, entries.size());
+         Assert.assertArrayEquals(rdf, entries.get("urn1.rdf"));
+         Assert.assertArrayEquals(pdf, entries.get("documents/urn1/test.pdf"));
+      } catch (Exception e) {
+         throw new HydroidException(e);
+      }
+   }
+
    @Test
    public void testDownloadBundleEmpty() {
       try {
@@ -161,4 +395,52 @@ public class DownloadControllerTest {
       }
    }
 
-}
\ No newline at end of file
+   @Test
+   public void testDownloadThumbnail() {
+      try {
+         CustomMockDocumentService documentService = new CustomMockDocumentService();
+         documentService.findByUrn("urn1").setSha1Hash("sha1");
+         ReflectionTestUtils.setField(downloadController, "documentService", documentService);
+         ByteArrayOutputStream jpeg = new ByteArrayOutputStream();
+         ImageIO.write(new BufferedImage(4, 4, BufferedImage.TYPE_INT_RGB), "jpeg", jpeg);
+         Mockito.when(thumbnailService.getSizes()).thenReturn(Arrays.asList(200, 400));
+         Mockito.when(thumbnailService.getThumbnail("urn1", 400)).thenReturn(jpeg.toByteArray());
+         this.mockMvc.perform(
+               MockMvcRequestBuilders.get("/download/images/urn1_thumb_400"))
+               .andExpect(status().isOk())
+               .andExpect(header().string(HttpHeaders.ETAG, "\"sha1-400\""))
+               .andExpect(content().contentType(MediaType.IMAGE_JPEG))
+               .andExpect(content().bytes(jpeg.toByteArray()));
+         this.mockMvc.perform(
+               MockMvcRequestBuilders.get("/download/images/urn1_thumb_400")
+                     .header(HttpHeaders.IF_NONE_MATCH, "\"sha1-400\""))
+               .andExpect(status().isNotModified());
+         // Only the configured sizes are created
+         this.mockMvc.perform(
+               MockMvcRequestBuilders.get("/download/images/urn1_thumb_300"))
+               .andExpect(status().isBadRequest());
+         // The default size, missing and without an original to create it from
+         this.mockMvc.perform(
+               MockMvcRequestBuilders.get("/download/images/urn1_thumb"))
+               .andExpect(status().isNotFound());
+         Mockito.verify(thumbnailService).getThumbnail("urn1", 200);
+         Mockito.verify(thumbnailService).getThumbnail("urn1", 400);
+      } catch (Exception e) {
+         throw new HydroidException(e);
+      }
+   }
+
+   @Test
+   public void testDownloadThumbnailWithoutSizes() {
+      try {
+         ReflectionTestUtils.setField(downloadController, "documentService", new CustomMockDocumentService());
+         Mockito.when(thumbnailService.getSizes()).thenReturn(Collections.emptyList());
+         this.mockMvc.perform(
+               MockMvcRequestBuilders.get("/download/images/urn1_thumb"))
+               .andExpect(status().isNotFound());
+      } catch (Exception e) {
+         throw new HydroidException(e);
+      }
+   }
+
+}
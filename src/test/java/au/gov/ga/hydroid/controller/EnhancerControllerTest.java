@@ -10,7 +10,9 @@ import org.apache.pdfbox.io.IOUtils;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.Matchers;
 import org.mockito.Mock;
+import org.mockito.Mockito;
 import org.mockito.MockitoAnnotations;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.SpringApplicationConfiguration;
@@ -71,6 +73,26 @@ public class EnhancerControllerTest {    private MockMvc mockMvc;
       }
    }
 
+   @Test
+   public void testEnhanceIsIndexedStraightAway() {
+      try {
+         DocumentDTO request = new DocumentDTO();
+         request.setContent("foo");
+         request.setDocType("DOCUMENT");
+         Mockito.when(enhancerService.enhanceNow(Matchers.any(DocumentDTO.class))).thenReturn(true);
+         this.mockMvc.perform(
+               MockMvcRequestBuilders.post("/enhancer")
+                     .contentType(MediaType.APPLICATION_JSON)
+                     .accept(MediaType.APPLICATION_JSON)
+                     .content(new ObjectMapper().writeValueAsString(request)))
+               .andExpect(status().isOk())
+               .andExpect(content().string("{\"message\":\"Your document has been enhanced successfully.\",\"exception\":null}"));
+         Mockito.verify(enhancerService, Mockito.never()).enhance(Matchers.any(DocumentDTO.class));
+      } catch (Exception e) {
+         throw new HydroidException(e);
+      }
+   }
+
    @Test
    public void testUploadFile() {
       try {
@@ -0,0 +1,89 @@
+package au.gov.ga.hydroid.controller;
+
+import au.gov.ga.hydroid.HydroidApplication;
+import au.gov.ga.hydroid.HydroidConfiguration;
+import au.gov.ga.hydroid.service.SolrReindexService;
+import au.gov.ga.hydroid.utils.HydroidException;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.MockitoAnnotations;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.SpringApplicationConfiguration;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.request.MockMvcRequestBuilders;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@RunWith(SpringJUnit4ClassRunner.class)
+@SpringApplicationConfiguration(classes = HydroidApplication.class)
+public class ReindexControllerTest {
+
+   private MockMvc mockMvc;
+
+   @Autowired
+   private HydroidConfiguration configuration;
+
+   @Mock
+   private SolrReindexService solrReindexService;
+
+   @Before
+   public void setup() {
+      MockitoAnnotations.initMocks(this);
+      ReindexController reindexController = new ReindexController();
+      ReflectionTestUtils.setField(reindexController, "configuration", configuration);
+      ReflectionTestUtils.setField(reindexController, "solrReindexService", solrReindexService);
+      mockMvc = MockMvcBuilders.standaloneSetup(reindexController).build();
+   }
+
+   @Test
+   public void testReindexStarted() {
+      try {
+         Mockito.when(solrReindexService.startReindex(configuration.getSolrCollection())).thenReturn(true);
+         this.mockMvc.perform(
+               MockMvcRequestBuilders.post("/reindex/solr")
+                     .accept(MediaType.APPLICATION_JSON))
+               .andExpect(status().isOk())
+               .andExpect(content().string("{\"message\":\"The reindex process has started successfully.\",\"exception\":null}"));
+      } catch (Exception e) {
+         throw new HydroidException(e);
+      }
+   }
+
+   @Test
+   public void testReindexInProgress() {
+      try {
+         Mockito.when(solrReindexService.startReindex(configuration.getSolrCollection())).thenReturn(false);
+         this.mockMvc.perform(
+               MockMvcRequestBuilders.post("/reindex/solr")
+                     .accept(MediaType.APPLICATION_JSON))
+               .andExpect(status().isOk())
+               .andExpect(content().string("{\"message\":\"The reindex process is currently in progress, try again later.\",\"exception\":null}"));
+      } catch (Exception e) {
+         throw new HydroidException(e);
+      }
+   }
+
+   @Test
+   public void testRebuildStarted() {
+      try {
+         Mockito.when(solrReindexService.startRebuild(configuration.getSolrCollection())).thenReturn(true);
+         this.mockMvc.perform(
+               MockMvcRequestBuilders.post("/reindex/solr?rebuild=true")
+                     .accept(MediaType.APPLICATION_JSON))
+               .andExpect(status().isOk())
+               .andExpect(content().string("{\"message\":\"The reindex process has started successfully.\",\"exception\":null}"));
+         Mockito.verify(solrReindexService, Mockito.never()).startReindex(Mockito.anyString());
+      } catch (Exception e) {
+         throw new HydroidException(e);
+      }
+   }
+
+}
@@ -9,6 +9,7 @@ import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.boot.test.IntegrationTest;
 import org.springframework.boot.test.SpringApplicationConfiguration;
 import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
@@ -24,6 +25,7 @@ import static org.hamcrest.Matchers.greaterThan;
 public class JenaServiceTestIT {
 
    @Autowired
+   @Qualifier("jenaServiceImpl")
    private JenaService jenaService;
 
    private String rdfId;
@@ -65,6 +65,11 @@ public class CustomMockDocumentService implements DocumentService {
 
    }
 
+   @Override
+   public void updateProcessDate(long id) {
+
+   }
+
    @Override
    public void clearAll() {
       
@@ -26,6 +26,11 @@ public class CustomMockJenaService implements JenaService {
       return new JenaServiceImpl().parseRdf(rdfInput, baseRdfUrl);
    }
 
+   @Override
+   public String writeRdf(List<Statement> statements, String lang) {
+      return new JenaServiceImpl().writeRdf(statements, lang);
+   }
+
    @Override
    public void deleteRdfDefault() {
 
@@ -9,6 +9,7 @@ import com.amazonaws.services.s3.model.S3ObjectSummary;
 import java.io.ByteArrayInputStream;
 import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
 
 /**
@@ -26,6 +27,11 @@ public class CustomMockS3Client implements S3Client {
       return new ByteArrayInputStream(new byte[0]);
    }
 
+   @Override
+   public InputStream getFile(String bucketName, String key, long start, long end) {
+      return new ByteArrayInputStream(new byte[0]);
+   }
+
    @Override
    public byte[] getFileAsByteArray(String bucketName, String key) {
       return new byte[0];
@@ -41,6 +47,12 @@ public class CustomMockS3Client implements S3Client {
 
    }
 
+   @Override
+   public void storeFile(String bucketName, String key, InputStream content, String contentType, String contentEncoding,
+                         long contentLength) {
+
+   }
+
    @Override
    public void deleteFile(String bucketName, String key) {
 
@@ -56,6 +68,11 @@ public class CustomMockS3Client implements S3Client {
       return objects;
    }
 
+   @Override
+   public Iterator<DataObjectSummary> iterateObjects(String bucketName, String key) {
+      return listObjects(bucketName, key).iterator();
+   }
+
    @Override
    public void copyObject(String sourceBucketName, String sourceKey, String destinationBucketName, String destinationKey) {
 
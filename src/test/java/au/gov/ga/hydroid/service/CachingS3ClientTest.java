@@ -0,0 +1,221 @@
+package au.gov.ga.hydroid.service;
+
+import au.gov.ga.hydroid.HydroidConfiguration;
+import au.gov.ga.hydroid.service.impl.CachingS3Client;
+import au.gov.ga.hydroid.utils.IOUtils;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Matchers;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.MockitoAnnotations;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+public class CachingS3ClientTest {
+
+   @Mock
+   private S3Client s3Client;
+
+   private CachingS3Client cachingS3Client;
+
+   private HydroidConfiguration configuration;
+
+   private Path cacheDir;
+
+   @Before
+   public void setup() throws Exception {
+      MockitoAnnotations.initMocks(this);
+      configuration = new HydroidConfiguration();
+      ReflectionTestUtils.setField(configuration, "s3CacheEnabled", true);
+      ReflectionTestUtils.setField(configuration, "s3OutputBucket", "bucket");
+      cacheDir = Files.createTempDirectory("s3-cache");
+      ReflectionTestUtils.setField(configuration, "s3CacheDir", cacheDir.toString());
+      ReflectionTestUtils.setField(configuration, "s3CacheDiskSizeMb", 1L);
+      ReflectionTestUtils.setField(configuration, "s3CacheHeapSizeMb", 1L);
+      ReflectionTestUtils.setField(configuration, "s3CacheHeapObjectSizeKb", 1);
+      ReflectionTestUtils.setField(configuration, "s3CacheTtl", 300);
+      cachingS3Client = new CachingS3Client();
+      ReflectionTestUtils.setField(cachingS3Client, "configuration", configuration);
+      ReflectionTestUtils.setField(cachingS3Client, "s3Client", s3Client);
+      cachingS3Client.init();
+   }
+
+   @After
+   public void tearDown() {
+      cachingS3Client.shutdown();
+   }
+
+   private byte[] mockObject(String key, int size) {
+      byte[] content = new byte[size];
+      Arrays.fill(content, (byte) key.length());
+      Mockito.when(s3Client.getFile("bucket", key)).thenAnswer(invocation -> new ByteArrayInputStream(content));
+      return content;
+   }
+
+   private byte[] read(String key) throws Exception {
+      try (InputStream is = cachingS3Client.getFile("bucket", key)) {
+         return IOUtils.fromInputStreamToByteArray(is);
+      }
+   }
+
+   private Number getMetric(String name) {
+      for (Metric<?> metric : cachingS3Client.metrics()) {
+         if (metric.getName().equals(name)) {
+            return metric.getValue();
+         }
+      }
+      return null;
+   }
+
+   @Test
+   public void testSmallObjectsAreKeptInMemory() throws Exception {
+      byte[] thumb = mockObject("images/urn1_thumb", 100);
+      Assert.assertArrayEquals(thumb, read("images/urn1_thumb"));
+      Assert.assertArrayEquals(thumb, read("images/urn1_thumb"));
+      Mockito.verify(s3Client, Mockito.times(1)).getFile("bucket", "images/urn1_thumb");
+      Assert.assertEquals(1L, getMetric("s3.cache.heap.hits"));
+      Assert.assertEquals(0.5, getMetric("s3.cache.hit.ratio"));
+   }
+
+   @Test
+   public void testBigObjectsAreKeptOnDisk() throws Exception {
+      byte[] original = mockObject("documents/test.pdf", 10000);
+      Assert.assertArrayEquals(original, read("documents/test.pdf"));
+      Assert.assertArrayEquals(original, read("documents/test.pdf"));
+      Assert.assertArrayEquals(Arrays.copyOfRange(original, 10, 20),
+            IOUtils.fromInputStreamToByteArray(cachingS3Client.getFile("bucket", "documents/test.pdf", 10, 19)));
+      Mockito.verify(s3Client, Mockito.times(1)).getFile("bucket", "documents/test.pdf");
+      Assert.assertEquals(2L, getMetric("s3.cache.disk.hits"));
+      Assert.assertEquals(10000L, getMetric("s3.cache.disk.bytes"));
+   }
+
+   @Test
+   public void testByteArraysAreDownloadedByTheClient() throws Exception {
+      byte[] thumb = new byte[100];
+      byte[] original = new byte[10000];
+      Arrays.fill(original, (byte) 1);
+      Mockito.when(s3Client.getFileAsByteArray("bucket", "images/urn1_thumb")).thenReturn(thumb);
+      Mockito.when(s3Client.getFileAsByteArray("bucket", "documents/test.pdf")).thenReturn(original);
+      Assert.assertArrayEquals(thumb, cachingS3Client.getFileAsByteArray("bucket", "images/urn1_thumb"));
+      Assert.assertArrayEquals(original, cachingS3Client.getFileAsByteArray("bucket", "documents/test.pdf"));
+
+      // Served from the heap and the disk, whether read as bytes or as a stream
+      Assert.assertArrayEquals(thumb, cachingS3Client.getFileAsByteArray("bucket", "images/urn1_thumb"));
+      Assert.assertArrayEquals(original, cachingS3Client.getFileAsByteArray("bucket", "documents/test.pdf"));
+      Assert.assertArrayEquals(original, read("documents/test.pdf"));
+      Mockito.verify(s3Client, Mockito.times(1)).getFileAsByteArray("bucket", "images/urn1_thumb");
+      Mockito.verify(s3Client, Mockito.times(1)).getFileAsByteArray("bucket", "documents/test.pdf");
+      Mockito.verify(s3Client, Mockito.never()).getFile(Matchers.anyString(), Matchers.anyString());
+      Assert.assertEquals(1L, getMetric("s3.cache.heap.hits"));
+      Assert.assertEquals(2L, getMetric("s3.cache.disk.hits"));
+   }
+
+   @Test
+   public void testPartialReadsAreNotCached() throws Exception {
+      mockObject("documents/test.pdf", 10000);
+      try (InputStream is = cachingS3Client.getFile("bucket", "documents/test.pdf")) {
+         Assert.assertEquals(100, is.read(new byte[100]));
+      }
+      read("documents/test.pdf");
+      Mockito.verify(s3Client, Mockito.times(2)).getFile("bucket", "documents/test.pdf");
+   }
+
+   @Test
+   public void testLeastRecentlyUsedIsEvicted() throws Exception {
+      mockObject("a", 400000);
+      mockObject("bb", 400000);
+      mockObject("ccc", 400000);
+      read("a");
+      read("bb");
+      read("a");
+      read("ccc");
+      read("a");
+      read("bb");
+      Mockito.verify(s3Client, Mockito.times(1)).getFile("bucket", "a");
+      Mockito.verify(s3Client, Mockito.times(2)).getFile("bucket", "bb");
+      Assert.assertEquals(2, getMetric("s3.cache.disk.objects"));
+   }
+
+   @Test
+   public void testWritesInvalidate() throws Exception {
+      mockObject("rdfs/urn1", 100);
+      read("rdfs/urn1");
+      cachingS3Client.storeFile("bucket", "rdfs/urn1", new ByteArrayInputStream(new byte[1]), "application/xml",
+            "gzip", 1);
+      read("rdfs/urn1");
+      cachingS3Client.deleteFile("bucket", "rdfs/urn1");
+      read("rdfs/urn1");
+      cachingS3Client.copyObject("bucket", "rdfs/urn2", "bucket", "rdfs/urn1");
+      read("rdfs/urn1");
+      Mockito.verify(s3Client, Mockito.times(4)).getFile("bucket", "rdfs/urn1");
+   }
+
+   @Test
+   public void testWriteDuringDownloadIsNotCached() throws Exception {
+      mockObject("rdfs/urn1", 100);
+      try (InputStream is = cachingS3Client.getFile("bucket", "rdfs/urn1")) {
+         cachingS3Client.storeFile("bucket", "rdfs/urn1", "<rdf:RDF/>", "application/xml");
+         IOUtils.fromInputStreamToByteArray(is);
+      }
+      read("rdfs/urn1");
+      Mockito.verify(s3Client, Mockito.times(2)).getFile("bucket", "rdfs/urn1");
+   }
+
+   @Test
+   public void testOtherBucketsAreNotCached() throws Exception {
+      Mockito.when(s3Client.getFile("hydroid", "enhancer/input/documents/test.pdf"))
+            .thenAnswer(invocation -> new ByteArrayInputStream(new byte[10000]));
+      for (int i = 0; i < 2; i++) {
+         try (InputStream is = cachingS3Client.getFile("hydroid", "enhancer/input/documents/test.pdf")) {
+            IOUtils.fromInputStreamToByteArray(is);
+         }
+      }
+      Mockito.verify(s3Client, Mockito.times(2)).getFile("hydroid", "enhancer/input/documents/test.pdf");
+      Assert.assertEquals(0L, getMetric("s3.cache.disk.bytes"));
+   }
+
+   @Test
+   public void testOnlyItsOwnFilesAreCleaned() throws Exception {
+      Path ownDir = cacheDir.resolve("hydroid-s3-cache-0");
+      Path leftover = Files.createFile(ownDir.resolve("object123.cache"));
+      Path unrelated = Files.createFile(cacheDir.resolve("data.csv"));
+      Path kept = Files.createFile(ownDir.resolve("notes.txt"));
+
+      // A second instance sharing the directory uses another subdirectory and leaves this one alone
+      CachingS3Client otherClient = new CachingS3Client();
+      ReflectionTestUtils.setField(otherClient, "configuration", configuration);
+      otherClient.init();
+      Assert.assertTrue(Files.exists(leftover));
+      otherClient.shutdown();
+
+      cachingS3Client.shutdown();
+      cachingS3Client.init();
+      Assert.assertFalse(Files.exists(leftover));
+      Assert.assertTrue(Files.exists(unrelated));
+      Assert.assertTrue(Files.exists(kept));
+      Assert.assertTrue(Files.isDirectory(cacheDir.resolve("hydroid-s3-cache-1")));
+   }
+
+   @Test
+   public void testMetadataIsCached() {
+      ObjectMetadata metadata = new ObjectMetadata();
+      Mockito.when(s3Client.getObjectMetadata("bucket", "rdfs/urn1")).thenReturn(metadata);
+      Assert.assertSame(metadata, cachingS3Client.getObjectMetadata("bucket", "rdfs/urn1"));
+      Assert.assertSame(metadata, cachingS3Client.getObjectMetadata("bucket", "rdfs/urn1"));
+      Mockito.verify(s3Client, Mockito.times(1)).getObjectMetadata("bucket", "rdfs/urn1");
+      cachingS3Client.invalidate("bucket", "rdfs/urn1");
+      cachingS3Client.getObjectMetadata("bucket", "rdfs/urn1");
+      Mockito.verify(s3Client, Mockito.times(2)).getObjectMetadata("bucket", "rdfs/urn1");
+   }
+
+}
@@ -0,0 +1,38 @@
+package au.gov.ga.hydroid.service;
+
+import au.gov.ga.hydroid.model.ConceptHierarchy;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+public class ConceptHierarchyTest {
+
+   private static final String VOCABS = "https://editor.vocabs.ands.org.au/GAPublicVocabsSandbox/";
+
+   private ConceptHierarchy conceptHierarchy;
+
+   @Before
+   public void setup() {
+      conceptHierarchy = new ConceptHierarchy();
+      conceptHierarchy.init();
+   }
+
+   @Test
+   public void testGetAncestors() {
+      // whales -> mammals
+      List<String> ancestors = conceptHierarchy.getAncestors(VOCABS + "206");
+      Assert.assertEquals(Arrays.asList(VOCABS + "200"), ancestors);
+      Assert.assertEquals("mammals", conceptHierarchy.getLabel(VOCABS + "200"));
+   }
+
+   @Test
+   public void testGetAncestorsOfTopConcept() {
+      // fishes is a top concept and the scheme is not a broader concept
+      Assert.assertTrue(conceptHierarchy.getAncestors(VOCABS + "197").isEmpty());
+      Assert.assertTrue(conceptHierarchy.getAncestors("urn:unknown").isEmpty());
+   }
+
+}
@@ -53,7 +53,7 @@ public class DocumentServiceTest {
          documentService.create(document);
       } catch (HydroidException e) {
          Assert.assertEquals("Unique index or primary key violation: \"DOCUMENTS_ORIGIN_IDX ON PUBLIC.DOCUMENTS(ORIGIN) VALUES ('origin:test1', 1)\"; SQL statement:\n" +
-               "insert into documents (origin, urn, title, type, status, status_reason, process_date, parser_name, sha1_hash) values (?, ?, ?, ?, ?, ?, ?, ?, ?) [23505-191]",
+               "insert into documents (origin, urn, title, type, status, status_reason, process_date, parser_name, sha1_hash, fingerprint) values (?, ?, ?, ?, ?, ?, ?, ?, ?, ?) [23505-191]",
                e.getMessage());
       }
    }
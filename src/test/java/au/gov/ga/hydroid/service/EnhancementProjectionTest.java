@@ -0,0 +1,86 @@
+package au.gov.ga.hydroid.service;
+
+import au.gov.ga.hydroid.HydroidConfiguration;
+import au.gov.ga.hydroid.dto.DocumentDTO;
+import au.gov.ga.hydroid.model.ConceptHierarchy;
+import au.gov.ga.hydroid.model.DocumentType;
+import au.gov.ga.hydroid.model.EnhancementProjection;
+import au.gov.ga.hydroid.model.HydroidSolrMapper;
+import au.gov.ga.hydroid.service.impl.JenaServiceImpl;
+import au.gov.ga.hydroid.utils.IOUtils;
+import org.apache.jena.rdf.model.Statement;
+import org.apache.solr.common.SolrInputDocument;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+
+public class EnhancementProjectionTest {
+
+   private HydroidConfiguration configuration;
+
+   private JenaService jenaService;
+
+   private List<Statement> rdfDocument;
+
+   @Before
+   public void setup() {
+      configuration = new HydroidConfiguration();
+      ReflectionTestUtils.setField(configuration, "s3OutputUrl", "//hydroid-output");
+      jenaService = new JenaServiceImpl();
+      String rdf = new String(IOUtils.fromInputStreamToByteArray(
+            getClass().getResourceAsStream("/testfiles/stanbol-hydroid-response.xml")));
+      rdfDocument = jenaService.parseRdf(rdf, "");
+   }
+
+   private EnhancementProjection createProjection(String predicates) {
+      ReflectionTestUtils.setField(configuration, "enhancerRdfPredicates", predicates);
+      EnhancementProjection enhancementProjection = new EnhancementProjection();
+      ReflectionTestUtils.setField(enhancementProjection, "configuration", configuration);
+      enhancementProjection.init();
+      return enhancementProjection;
+   }
+
+   private SolrInputDocument generateDocument(List<Statement> statements) {
+      HydroidSolrMapper hydroidSolrMapper = new HydroidSolrMapper();
+      ConceptHierarchy conceptHierarchy = new ConceptHierarchy();
+      conceptHierarchy.init();
+      ReflectionTestUtils.setField(hydroidSolrMapper, "configuration", configuration);
+      ReflectionTestUtils.setField(hydroidSolrMapper, "conceptHierarchy", conceptHierarchy);
+      DocumentDTO document = new DocumentDTO();
+      document.setTitle("Projection Test");
+      document.setDocType(DocumentType.DOCUMENT.name());
+      document.setOrigin("Projection Test");
+      document.setContent("This enhancement should find Corals, Terrace and Bob Marley.");
+      return hydroidSolrMapper.generateDocument(statements, document);
+   }
+
+   @Test
+   public void testProject() {
+      EnhancementProjection enhancementProjection =
+            createProjection("extracted-from,entity-reference,entity-label,selection-context");
+      List<Statement> projected = enhancementProjection.project(rdfDocument);
+      Assert.assertTrue(projected.size() < rdfDocument.size());
+      for (Statement statement : projected) {
+         Assert.assertNotEquals("confidence", statement.getPredicate().getLocalName());
+      }
+
+      // The stored RDF must still map to the same Solr document when reindexing
+      String storedRdf = jenaService.writeRdf(projected, "RDF/XML");
+      SolrInputDocument original = generateDocument(rdfDocument);
+      SolrInputDocument reparsed = generateDocument(jenaService.parseRdf(storedRdf, ""));
+      Assert.assertEquals(original.getFieldValue("about"), reparsed.getFieldValue("about"));
+      Assert.assertEquals(original.getFieldValues("label").size(), reparsed.getFieldValues("label").size());
+      Assert.assertEquals(original.getFieldValues("concept").size(), reparsed.getFieldValues("concept").size());
+   }
+
+   @Test
+   public void testProjectDisabled() {
+      EnhancementProjection enhancementProjection = createProjection("");
+      Assert.assertFalse(enhancementProjection.isEnabled());
+      Assert.assertSame(rdfDocument, enhancementProjection.project(rdfDocument));
+   }
+
+}
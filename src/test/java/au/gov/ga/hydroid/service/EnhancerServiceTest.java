@@ -5,7 +5,10 @@ import au.gov.ga.hydroid.HydroidConfiguration;
 import au.gov.ga.hydroid.dto.DocumentDTO;
 import au.gov.ga.hydroid.mock.CustomMockJenaService;
 import au.gov.ga.hydroid.mock.CustomMockStanbolClient;
+import au.gov.ga.hydroid.model.Document;
 import au.gov.ga.hydroid.model.DocumentType;
+import au.gov.ga.hydroid.model.EnhancementProjection;
+import au.gov.ga.hydroid.model.EnhancementStatus;
 import au.gov.ga.hydroid.model.HydroidSolrMapper;
 import au.gov.ga.hydroid.service.impl.EnhancerServiceImpl;
 import au.gov.ga.hydroid.service.impl.FileSystemClientImpl;
@@ -13,12 +16,16 @@ import au.gov.ga.hydroid.service.impl.ImageServiceImpl;
 import au.gov.ga.hydroid.utils.HydroidException;
 import au.gov.ga.hydroid.utils.IOUtils;
 import org.apache.http.client.utils.DateUtils;
+import org.apache.solr.common.SolrInputDocument;
 import org.apache.tika.metadata.Metadata;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Matchers;
 import org.mockito.Mock;
+import org.mockito.Mockito;
 import org.mockito.MockitoAnnotations;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.SpringApplicationConfiguration;
@@ -27,6 +34,17 @@ import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
 import org.springframework.test.util.ReflectionTestUtils;
 import org.springframework.util.ReflectionUtils;
 
+import javax.ws.rs.core.MediaType;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
 /**
  * Created by u24529 on 7/04/2016.
  */
@@ -43,12 +61,21 @@ public class EnhancerServiceTest {
    @Autowired
    private HydroidSolrMapper hydroidSolrMapper;
 
+   @Autowired
+   private EnhancementProjection enhancementProjection;
+
    @Mock
    private SolrClient solrClient;
 
    @Mock
    private DocumentService documentService;
 
+   @Mock
+   private RdfConversionService rdfConversionService;
+
+   @Mock
+   private ThumbnailService thumbnailService;
+
    private EnhancerService enhancerService;
 
    private HydroidConfiguration configuration;
@@ -77,6 +104,10 @@ public class EnhancerServiceTest {
       ReflectionTestUtils.setField(enhancerService, "applicationContext", applicationContext);
       ReflectionTestUtils.setField(hydroidSolrMapper, "configuration", configuration);
       ReflectionTestUtils.setField(enhancerService, "hydroidSolrMapper", hydroidSolrMapper);
+      ReflectionTestUtils.setField(enhancerService, "enhancementProjection", enhancementProjection);
+      ReflectionTestUtils.setField(enhancerService, "rdfConversionService", rdfConversionService);
+      ReflectionTestUtils.setField(enhancerService, "thumbnailService", thumbnailService);
+      Mockito.when(thumbnailService.getSizes()).thenReturn(Arrays.asList(200, 400));
    }
 
    @Test
@@ -113,6 +144,38 @@ public class EnhancerServiceTest {
       enhancerService.enhanceImages();
    }
 
+   @Test
+   public void testEnhanceImagesWithoutThumbnails() {
+      Mockito.when(thumbnailService.getSizes()).thenReturn(Collections.emptyList());
+      enhancerService.enhanceImages();
+      ArgumentCaptor<SolrInputDocument> indexed = ArgumentCaptor.forClass(SolrInputDocument.class);
+      Mockito.verify(solrClient).addDocument(Matchers.anyString(), indexed.capture(), Matchers.any(Runnable.class),
+            Matchers.<Consumer<Exception>>any());
+      Assert.assertNull(indexed.getValue().getFieldValue("imgThumb"));
+   }
+
+   @Test
+   @SuppressWarnings("unchecked")
+   public void testRollbackDeletesTheStoredImage() {
+      S3Client s3Client = Mockito.spy(new FileSystemClientImpl());
+      ReflectionTestUtils.setField(enhancerService, "s3Client", s3Client);
+      Mockito.doAnswer(invocation -> {
+         ((Consumer<Exception>) invocation.getArguments()[3]).accept(new Exception("Solr is down"));
+         return null;
+      }).when(solrClient).addDocument(Matchers.anyString(), Matchers.any(SolrInputDocument.class),
+            Matchers.any(Runnable.class), Matchers.<Consumer<Exception>>any());
+      enhancerService.enhanceImages();
+
+      ArgumentCaptor<Document> created = ArgumentCaptor.forClass(Document.class);
+      Mockito.verify(documentService, Mockito.atLeastOnce()).create(created.capture());
+      String urn = created.getAllValues().get(0).getUrn();
+      Assert.assertNotNull(urn);
+      Mockito.verify(s3Client).deleteFile("hydroid-output", "rdfs/" + urn);
+      Mockito.verify(s3Client).deleteFile("hydroid-output", "images/" + urn);
+      Mockito.verify(s3Client, Mockito.never()).deleteFile(Matchers.eq("hydroid"), Matchers.anyString());
+      Mockito.verify(thumbnailService).deleteThumbnails(urn);
+   }
+
    @Test
    public void testMatchedGAVocabs() {
       ReflectionTestUtils.setField(configuration, "stanbolChain", "hydroid");
@@ -125,6 +188,98 @@ public class EnhancerServiceTest {
       Assert.assertTrue(enhancerService.enhance(document));
    }
 
+   @Test
+   public void testEnhanceUnchanged() {
+      ReflectionTestUtils.setField(configuration, "stanbolChain", "hydroid");
+      DocumentDTO document = new DocumentDTO();
+      document.setTitle("Unchanged Document");
+      document.setDocType(DocumentType.DOCUMENT.name());
+      document.setOrigin("Pasted Content");
+      document.setContent("This enhancement should find Corals, Terrace and Bob Marley.");
+      Assert.assertTrue(enhancerService.enhance(document));
+
+      ArgumentCaptor<Document> created = ArgumentCaptor.forClass(Document.class);
+      Mockito.verify(documentService).create(created.capture());
+      Assert.assertNotNull(created.getValue().getFingerprint());
+      created.getValue().setId(1);
+      Mockito.when(documentService.findByOrigin("Pasted Content")).thenReturn(created.getValue());
+
+      // Only a success once Solr has the document
+      Assert.assertEquals(EnhancementStatus.INDEXING, created.getValue().getStatus());
+      ArgumentCaptor<Runnable> onIndexed = ArgumentCaptor.forClass(Runnable.class);
+      Mockito.verify(solrClient).addDocument(Matchers.anyString(), Matchers.any(SolrInputDocument.class),
+            onIndexed.capture(), Matchers.<Consumer<Exception>>any());
+      onIndexed.getValue().run();
+      Mockito.verify(documentService).update(created.getValue());
+      Assert.assertEquals(EnhancementStatus.SUCCESS, created.getValue().getStatus());
+
+      // Second run produces the same result so only the process date is touched
+      Assert.assertTrue(enhancerService.enhance(document));
+      Mockito.verify(documentService).updateProcessDate(1);
+      Mockito.verify(documentService, Mockito.times(1)).update(Matchers.any(Document.class));
+      Mockito.verify(solrClient, Mockito.times(1)).addDocument(Matchers.anyString(),
+            Matchers.any(SolrInputDocument.class), Matchers.any(Runnable.class),
+            Matchers.<Consumer<Exception>>any());
+   }
+
+   @Test
+   public void testEnhanceUnchangedWithNewEnhancementIds() {
+      // Like the real Stanbol, every call names the enhancements anew and dates them
+      ReflectionTestUtils.setField(enhancerService, "stanbolClient", new CustomMockStanbolClient() {
+         @Override
+         public String enhance(String chainName, String content, MediaType outputFormat) {
+            String enhancedText = super.enhance(chainName, content, outputFormat);
+            Matcher enhancementIds = Pattern.compile("urn:enhancement-[0-9a-f-]+").matcher(enhancedText);
+            Map<String, String> newIds = new HashMap<>();
+            StringBuffer renamed = new StringBuffer();
+            while (enhancementIds.find()) {
+               enhancementIds.appendReplacement(renamed, newIds.computeIfAbsent(enhancementIds.group(),
+                     id -> "urn:enhancement-" + UUID.randomUUID()));
+            }
+            enhancementIds.appendTail(renamed);
+            return renamed.toString().replaceAll("\\d{4}-\\d{2}-\\d{2}T[0-9:.]+Z?", Instant.now().toString());
+         }
+      });
+      ReflectionTestUtils.setField(configuration, "stanbolChain", "hydroid");
+      DocumentDTO document = new DocumentDTO();
+      document.setTitle("Unchanged Document");
+      document.setDocType(DocumentType.DOCUMENT.name());
+      document.setOrigin("Pasted Content");
+      document.setContent("This enhancement should find Corals, Terrace and Bob Marley.");
+      Assert.assertTrue(enhancerService.enhance(document));
+
+      ArgumentCaptor<Document> created = ArgumentCaptor.forClass(Document.class);
+      Mockito.verify(documentService).create(created.capture());
+      created.getValue().setId(1);
+      // Indexed by Solr
+      created.getValue().setStatus(EnhancementStatus.SUCCESS);
+      Mockito.when(documentService.findByOrigin("Pasted Content")).thenReturn(created.getValue());
+
+      Assert.assertTrue(enhancerService.enhance(document));
+      Mockito.verify(documentService).updateProcessDate(1);
+      Mockito.verify(documentService, Mockito.never()).update(Matchers.any(Document.class));
+   }
+
+   @Test
+   public void testEnhanceNowReportsIndexingFailures() {
+      ReflectionTestUtils.setField(configuration, "stanbolChain", "hydroid");
+      Mockito.doThrow(new HydroidException("Solr is down")).when(solrClient)
+            .indexDocument(Matchers.anyString(), Matchers.any(SolrInputDocument.class));
+      DocumentDTO document = new DocumentDTO();
+      document.setTitle("Manual Document");
+      document.setDocType(DocumentType.DOCUMENT.name());
+      document.setOrigin("Pasted Content");
+      document.setContent("This enhancement should find Corals, Terrace and Bob Marley.");
+      Assert.assertFalse(enhancerService.enhanceNow(document));
+
+      ArgumentCaptor<Document> created = ArgumentCaptor.forClass(Document.class);
+      Mockito.verify(documentService, Mockito.atLeastOnce()).create(created.capture());
+      Assert.assertEquals(EnhancementStatus.FAILURE, created.getValue().getStatus());
+      Mockito.verify(solrClient, Mockito.never()).addDocument(Matchers.anyString(),
+            Matchers.any(SolrInputDocument.class), Matchers.any(Runnable.class),
+            Matchers.<Consumer<Exception>>any());
+   }
+
    @Test
    public void testNotMatchedGAVocabs() {
       ReflectionTestUtils.setField(configuration, "stanbolChain", "default");
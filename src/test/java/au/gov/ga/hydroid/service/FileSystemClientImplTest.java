@@ -5,6 +5,7 @@ import au.gov.ga.hydroid.service.impl.FileSystemClientImpl;
 import au.gov.ga.hydroid.utils.IOUtils;
 import com.amazonaws.services.s3.model.ObjectMetadata;
 import com.amazonaws.services.s3.model.S3ObjectSummary;
+import org.apache.commons.codec.digest.DigestUtils;
 import org.junit.Assert;
 import org.junit.Test;
 
@@ -13,6 +14,7 @@ import java.io.File;
 import java.io.InputStream;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.util.Iterator;
 import java.util.List;
 
 public class FileSystemClientImplTest {
@@ -75,6 +77,38 @@ public class FileSystemClientImplTest {
       Assert.assertEquals("/foo/test.txt", dataObjs.get(0).getKey());
    }
 
+   @Test
+   public void testIterateObjects() throws Exception {
+      fsClient.storeFile("test", "foo/test.txt", "Hello", "text/plain");
+      Iterator<DataObjectSummary> dataObjs = fsClient.iterateObjects("test", "foo/");
+      Assert.assertTrue(dataObjs.hasNext());
+      DataObjectSummary object = dataObjs.next();
+      Assert.assertEquals("/foo/test.txt", object.getKey());
+      Assert.assertEquals(5, object.getSize());
+      Assert.assertNotNull(object.getLastModified());
+      Assert.assertEquals(fsClient.getObjectMetadata("test", "foo/test.txt").getETag(), object.getETag());
+      Assert.assertFalse(dataObjs.hasNext());
+      Assert.assertFalse(fsClient.iterateObjects("test", "missing/").hasNext());
+   }
+
+   @Test
+   public void testListObjectsIsRecursive() throws Exception {
+      fsClient.storeFile("test", "walk/a/b.txt", "Hello", "text/plain");
+      fsClient.storeFile("test", "walk/c.txt", "Hello", "text/plain");
+      List<DataObjectSummary> dataObjs = fsClient.listObjects("test", "walk");
+      Assert.assertEquals(2, dataObjs.size());
+      Assert.assertTrue(dataObjs.stream().anyMatch(object -> "/walk/a/b.txt".equals(object.getKey())));
+   }
+
+   @Test
+   public void testStoreFileReplacesContent() throws Exception {
+      fsClient.storeFile("test", "atomic/test.txt", "Hello World", "text/plain");
+      fsClient.storeFile("test", "atomic/test.txt", new ByteArrayInputStream("Bye".getBytes()), "text/plain", 3);
+      Assert.assertEquals("Bye", new String(fsClient.getFileAsByteArray("test", "atomic/test.txt")));
+      // Nothing is left behind from the temp file it was written to
+      Assert.assertEquals(1, fsClient.listObjects("test", "atomic/").size());
+   }
+
    @Test
    public void testCopyObject() throws Exception {
       fsClient.deleteFile("test1", "test1.txt");
@@ -114,6 +148,51 @@ public class FileSystemClientImplTest {
       Assert.assertNotNull(objectMetadata);
       Assert.assertEquals(5, objectMetadata.getContentLength());
       Assert.assertEquals(5, objectMetadata.getInstanceLength());
+      Assert.assertNotNull(objectMetadata.getETag());
+      Assert.assertNotNull(objectMetadata.getLastModified());
+   }
+
+   @Test
+   public void testGetFileRange() throws Exception {
+      fsClient.storeFile("test", "range.txt", "Hello World", "text/plain");
+      try (InputStream is = fsClient.getFile("test", "range.txt", 6, 9)) {
+         Assert.assertEquals("Worl", new String(IOUtils.fromInputStreamToByteArray(is)));
+      }
+      Assert.assertNull(fsClient.getFile("test", "missing.txt", 0, 1));
+   }
+
+   @Test
+   public void testGetObjectMetadataGzipped() throws Exception {
+      byte[] gzipped = IOUtils.gzip("Hello".getBytes());
+      fsClient.storeFile("test", "test.rdf", new ByteArrayInputStream(gzipped), "application/xml",
+            IOUtils.GZIP_ENCODING, gzipped.length);
+      ObjectMetadata objectMetadata = fsClient.getObjectMetadata("test", "test.rdf");
+      Assert.assertEquals(IOUtils.GZIP_ENCODING, objectMetadata.getContentEncoding());
+      Assert.assertEquals("Hello", new String(IOUtils.decompressIfGzipped(fsClient.getFileAsByteArray("test", "test.rdf"))));
+      Assert.assertNull(fsClient.getObjectMetadata("test", "test.txt").getContentEncoding());
+   }
+
+   @Test
+   public void testStoredMetadataIsKept() throws Exception {
+      fsClient.storeFile("test", "meta/test.txt", "Hello", "text/plain");
+      fsClient.copyObject("test", "meta/test.txt", "test", "meta/copy.txt");
+      ObjectMetadata objectMetadata = fsClient.getObjectMetadata("test", "meta/copy.txt");
+      Assert.assertEquals("text/plain", objectMetadata.getContentType());
+      Assert.assertEquals(DigestUtils.md5Hex("Hello"), objectMetadata.getETag());
+      Assert.assertEquals(2, fsClient.listObjects("test", "meta/").size());
+   }
+
+   @Test
+   public void testMetadataOfFileWrittenElsewhere() throws Exception {
+      File file = new File(System.getProperty("java.io.tmpdir"), "test/elsewhere.txt");
+      Files.write(file.toPath(), "Hello".getBytes());
+      ObjectMetadata objectMetadata = fsClient.getObjectMetadata("test", "elsewhere.txt");
+      Assert.assertNull(objectMetadata.getContentType());
+      Assert.assertEquals(DigestUtils.md5Hex("Hello"), objectMetadata.getETag());
+
+      // Changing the file makes the stored metadata stale
+      Files.write(file.toPath(), "Hello World".getBytes());
+      Assert.assertEquals(DigestUtils.md5Hex("Hello World"), fsClient.getObjectMetadata("test", "elsewhere.txt").getETag());
    }
 
-}
\ No newline at end of file
+}
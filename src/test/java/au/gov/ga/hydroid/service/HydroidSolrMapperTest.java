@@ -0,0 +1,86 @@
+package au.gov.ga.hydroid.service;
+
+import au.gov.ga.hydroid.HydroidConfiguration;
+import au.gov.ga.hydroid.dto.DocumentDTO;
+import au.gov.ga.hydroid.model.ConceptHierarchy;
+import au.gov.ga.hydroid.model.DocumentType;
+import au.gov.ga.hydroid.model.HydroidSolrMapper;
+import au.gov.ga.hydroid.service.impl.JenaServiceImpl;
+import au.gov.ga.hydroid.utils.IOUtils;
+import org.apache.jena.rdf.model.Statement;
+import org.apache.solr.common.SolrInputDocument;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+
+public class HydroidSolrMapperTest {
+
+   private HydroidSolrMapper hydroidSolrMapper;
+
+   private DocumentDTO document;
+
+   @Before
+   public void setup() {
+      HydroidConfiguration configuration = new HydroidConfiguration();
+      ReflectionTestUtils.setField(configuration, "s3OutputUrl", "//hydroid-output");
+      hydroidSolrMapper = new HydroidSolrMapper();
+      ReflectionTestUtils.setField(hydroidSolrMapper, "configuration", configuration);
+      ConceptHierarchy conceptHierarchy = new ConceptHierarchy();
+      conceptHierarchy.init();
+      ReflectionTestUtils.setField(hydroidSolrMapper, "conceptHierarchy", conceptHierarchy);
+
+      document = new DocumentDTO();
+      document.setTitle("Mapper Test");
+      document.setDocType(DocumentType.DOCUMENT.name());
+      document.setOrigin("Mapper Test");
+      document.setContent("This enhancement should find Corals, Terrace and Bob Marley.");
+   }
+
+   private List<Statement> readStatements() {
+      String rdf = new String(IOUtils.fromInputStreamToByteArray(
+            getClass().getResourceAsStream("/testfiles/stanbol-hydroid-response.xml")));
+      return new JenaServiceImpl().parseRdf(rdf, "");
+   }
+
+   @Test
+   public void testGenerateDocument() {
+      List<Statement> rdfDocument = readStatements();
+      int statementCount = rdfDocument.size();
+      SolrInputDocument solrDocument = hydroidSolrMapper.generateDocument(rdfDocument, document);
+
+      String about = (String) solrDocument.getFieldValue("about");
+      Assert.assertNotNull(about);
+      Assert.assertEquals("Mapper Test", solrDocument.getFieldValue("title"));
+      Assert.assertEquals("//hydroid-output/rdfs/" + about, solrDocument.getFieldValue("docUrl"));
+
+      // Multi-valued fields hold every value once
+      Collection<Object> labels = solrDocument.getFieldValues("label");
+      Assert.assertFalse(labels.isEmpty());
+      Assert.assertEquals(new HashSet<>(labels).size(), labels.size());
+      Collection<Object> concepts = solrDocument.getFieldValues("concept");
+      Assert.assertFalse(concepts.isEmpty());
+      Assert.assertEquals(new HashSet<>(concepts).size(), concepts.size());
+
+      // Sharks (204) is narrower than fishes (197)
+      Collection<Object> hierarchy = solrDocument.getFieldValues("conceptHierarchy");
+      Assert.assertTrue(hierarchy.contains("https://editor.vocabs.ands.org.au/GAPublicVocabsSandbox/204"));
+      Assert.assertTrue(hierarchy.contains("https://editor.vocabs.ands.org.au/GAPublicVocabsSandbox/197"));
+      Assert.assertTrue(solrDocument.getFieldValues("conceptHierarchyLabel").contains("fishes"));
+
+      // Type and label statements are added to the RDF
+      Assert.assertEquals(statementCount + 2, rdfDocument.size());
+   }
+
+   @Test
+   public void testGenerateDocumentWithoutMatches() {
+      SolrInputDocument solrDocument = hydroidSolrMapper.generateDocument(new ArrayList<>(), document);
+      Assert.assertTrue(solrDocument.isEmpty());
+   }
+
+}
@@ -0,0 +1,62 @@
+package au.gov.ga.hydroid.service;
+
+import au.gov.ga.hydroid.service.impl.JenaTdbServiceImpl;
+import au.gov.ga.hydroid.utils.IOUtils;
+import org.apache.jena.rdf.model.Statement;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.List;
+
+public class JenaTdbServiceTest {
+
+   private JenaTdbServiceImpl jenaService;
+
+   private String rdfString;
+
+   @Before
+   public void setup() throws Exception {
+      jenaService = new JenaTdbServiceImpl(Files.createTempDirectory("hydroid-tdb").toString());
+      InputStream rdfStream = this.getClass().getResourceAsStream("/testfiles/test.rdf");
+      rdfString = new String(IOUtils.fromInputStreamToByteArray(rdfStream));
+   }
+
+   @After
+   public void tearDown() {
+      jenaService.close();
+   }
+
+   @Test
+   public void testStoreReadAndDeleteRdf() {
+      jenaService.storeRdf("urn:test:1", rdfString, "");
+      List<Statement> statements = jenaService.readRdf("urn:test:1");
+      Assert.assertNotNull(statements);
+      Assert.assertFalse(statements.isEmpty());
+      jenaService.deleteRdf("urn:test:1");
+      Assert.assertNull(jenaService.readRdf("urn:test:1"));
+   }
+
+   @Test
+   public void testStoreRdfReplacesGraph() {
+      jenaService.storeRdf("urn:test:2", rdfString, "");
+      int size = jenaService.readRdf("urn:test:2").size();
+      jenaService.storeRdf("urn:test:2", rdfString, "");
+      Assert.assertEquals(size, jenaService.readRdf("urn:test:2").size());
+   }
+
+   @Test
+   public void testStoreAndDeleteRdfDefault() {
+      jenaService.storeRdfDefault(rdfString, "");
+      List<Statement> statements = jenaService.readRdf(null);
+      Assert.assertEquals(jenaService.parseRdf(rdfString, "").size(), statements.size());
+      // Named graphs are not part of the default one
+      Assert.assertNull(jenaService.readRdf("urn:test:3"));
+      jenaService.deleteRdfDefault();
+      Assert.assertTrue(jenaService.readRdf(null).isEmpty());
+   }
+
+}
@@ -0,0 +1,136 @@
+package au.gov.ga.hydroid.service;
+
+import au.gov.ga.hydroid.HydroidConfiguration;
+import au.gov.ga.hydroid.model.RdfFormat;
+import au.gov.ga.hydroid.service.impl.JenaServiceImpl;
+import au.gov.ga.hydroid.service.impl.RdfConversionServiceImpl;
+import au.gov.ga.hydroid.utils.IOUtils;
+import com.amazonaws.services.s3.model.AmazonS3Exception;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Matchers;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.MockitoAnnotations;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+
+public class RdfConversionServiceTest {
+
+   @Mock
+   private S3Client s3Client;
+
+   private HydroidConfiguration configuration;
+
+   private RdfConversionService rdfConversionService;
+
+   @Before
+   public void setup() {
+      MockitoAnnotations.initMocks(this);
+      configuration = new HydroidConfiguration();
+      ReflectionTestUtils.setField(configuration, "s3OutputBucket", "hydroid-output");
+      ReflectionTestUtils.setField(configuration, "s3EnhancerOutput", "rdfs/");
+      ReflectionTestUtils.setField(configuration, "rdfConversionCacheSize", 10);
+      rdfConversionService = new RdfConversionServiceImpl();
+      ReflectionTestUtils.setField(rdfConversionService, "configuration", configuration);
+      ReflectionTestUtils.setField(rdfConversionService, "jenaService", new JenaServiceImpl());
+      ReflectionTestUtils.setField(rdfConversionService, "s3Client", s3Client);
+
+      byte[] rdf = IOUtils.fromInputStreamToByteArray(
+            getClass().getResourceAsStream("/testfiles/stanbol-hydroid-response.xml"));
+      Mockito.when(s3Client.getFileAsByteArray("hydroid-output", "rdfs/urn1")).thenReturn(IOUtils.gzip(rdf));
+   }
+
+   private String getConverted(RdfFormat format) {
+      byte[] converted = rdfConversionService.getConverted("urn1", format);
+      return new String(IOUtils.decompressIfGzipped(converted), StandardCharsets.UTF_8);
+   }
+
+   @Test
+   public void testConversionsAreCached() {
+      Assert.assertTrue(getConverted(RdfFormat.TURTLE).contains("@prefix"));
+      Assert.assertTrue(getConverted(RdfFormat.TURTLE).contains("@prefix"));
+      Assert.assertTrue(getConverted(RdfFormat.JSON_LD).trim().startsWith("{"));
+      Mockito.verify(s3Client, Mockito.times(2)).getFileAsByteArray("hydroid-output", "rdfs/urn1");
+
+      rdfConversionService.invalidate("urn1");
+      getConverted(RdfFormat.TURTLE);
+      Mockito.verify(s3Client, Mockito.times(3)).getFileAsByteArray("hydroid-output", "rdfs/urn1");
+   }
+
+   @Test
+   public void testConversionsArePersisted() {
+      ReflectionTestUtils.setField(configuration, "rdfConversionPersist", true);
+      getConverted(RdfFormat.N_TRIPLES);
+      Mockito.verify(s3Client).storeFile(Matchers.eq("hydroid-output"), Matchers.eq("rdfs/urn1.nt"),
+            Matchers.any(InputStream.class), Matchers.eq("application/n-triples"), Matchers.eq("gzip"),
+            Matchers.anyLong());
+      rdfConversionService.invalidate("urn1");
+      Mockito.verify(s3Client).deleteFile("hydroid-output", "rdfs/urn1.nt");
+   }
+
+   @Test
+   public void testOnlyPersistedConversionsAreDeleted() {
+      ReflectionTestUtils.setField(configuration, "rdfConversionPersist", true);
+      rdfConversionService.invalidate("urn1");
+      getConverted(RdfFormat.TURTLE);
+      rdfConversionService.invalidate("urn1");
+      Mockito.verify(s3Client, Mockito.times(1)).deleteFile(Matchers.anyString(), Matchers.anyString());
+      Mockito.verify(s3Client).deleteFile("hydroid-output", "rdfs/urn1.ttl");
+   }
+
+   @Test
+   public void testConversionOlderThanTheRdfIsNotUsed() {
+      ReflectionTestUtils.setField(configuration, "rdfConversionPersist", true);
+      ObjectMetadata converted = new ObjectMetadata();
+      converted.setLastModified(new Date(1000));
+      ObjectMetadata original = new ObjectMetadata();
+      original.setLastModified(new Date(2000));
+      Mockito.when(s3Client.getObjectMetadata("hydroid-output", "rdfs/urn1.ttl")).thenReturn(converted);
+      Mockito.when(s3Client.getObjectMetadata("hydroid-output", "rdfs/urn1")).thenReturn(original);
+      getConverted(RdfFormat.TURTLE);
+      Mockito.verify(s3Client, Mockito.never()).getFileAsByteArray("hydroid-output", "rdfs/urn1.ttl");
+      Mockito.verify(s3Client).getFileAsByteArray("hydroid-output", "rdfs/urn1");
+
+      // A current one is used as it is
+      original.setLastModified(new Date(500));
+      byte[] persisted = IOUtils.gzip("@prefix ex: <http://example.org/> .".getBytes(StandardCharsets.UTF_8));
+      Mockito.when(s3Client.getFileAsByteArray("hydroid-output", "rdfs/urn1.nt")).thenReturn(persisted);
+      Mockito.when(s3Client.getObjectMetadata("hydroid-output", "rdfs/urn1.nt")).thenReturn(converted);
+      Assert.assertArrayEquals(persisted, rdfConversionService.getConverted("urn1", RdfFormat.N_TRIPLES));
+   }
+
+   @Test
+   public void testFirstConversionIsPersisted() {
+      ReflectionTestUtils.setField(configuration, "rdfConversionPersist", true);
+      AmazonS3Exception notFound = new AmazonS3Exception("Not Found");
+      notFound.setStatusCode(404);
+      Mockito.when(s3Client.getObjectMetadata("hydroid-output", "rdfs/urn1.ttl")).thenThrow(notFound);
+      Assert.assertTrue(getConverted(RdfFormat.TURTLE).contains("@prefix"));
+      Mockito.verify(s3Client).storeFile(Matchers.eq("hydroid-output"), Matchers.eq("rdfs/urn1.ttl"),
+            Matchers.any(InputStream.class), Matchers.eq("text/turtle"), Matchers.eq("gzip"), Matchers.anyLong());
+   }
+
+   @Test
+   public void testPersistedKeysAreBounded() {
+      ReflectionTestUtils.setField(configuration, "rdfConversionPersist", true);
+      ReflectionTestUtils.setField(configuration, "rdfConversionCacheSize", 1);
+      getConverted(RdfFormat.TURTLE);
+      getConverted(RdfFormat.N_TRIPLES);
+      rdfConversionService.invalidate("urn1");
+      // The Turtle one was dropped, it is not used again before being checked against the RDF
+      Mockito.verify(s3Client, Mockito.times(1)).deleteFile(Matchers.anyString(), Matchers.anyString());
+      Mockito.verify(s3Client).deleteFile("hydroid-output", "rdfs/urn1.nt");
+   }
+
+   @Test
+   public void testMissingRdf() {
+      Assert.assertNull(rdfConversionService.getConverted("missing-urn", RdfFormat.TURTLE));
+   }
+
+}
@@ -0,0 +1,182 @@
+package au.gov.ga.hydroid.service;
+
+import au.gov.ga.hydroid.HydroidConfiguration;
+import au.gov.ga.hydroid.service.impl.S3ClientImpl;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.Headers;
+import com.amazonaws.services.s3.model.AmazonS3Exception;
+import com.amazonaws.services.s3.model.CompleteMultipartUploadRequest;
+import com.amazonaws.services.s3.model.GetObjectRequest;
+import com.amazonaws.services.s3.model.InitiateMultipartUploadRequest;
+import com.amazonaws.services.s3.model.InitiateMultipartUploadResult;
+import com.amazonaws.services.s3.model.ObjectListing;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.S3Object;
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+import com.amazonaws.services.s3.model.UploadPartRequest;
+import com.amazonaws.services.s3.model.UploadPartResult;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentMatcher;
+import org.mockito.Matchers;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.MockitoAnnotations;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class S3ClientImplTest {
+
+   @Mock
+   private AmazonS3 amazonS3;
+
+   private S3ClientImpl s3Client;
+
+   @Before
+   public void setup() {
+      MockitoAnnotations.initMocks(this);
+      s3Client = new S3ClientImpl();
+      ReflectionTestUtils.setField(s3Client, "configuration", new HydroidConfiguration());
+      ReflectionTestUtils.setField(s3Client, "amazonS3", amazonS3);
+   }
+
+   @Test
+   public void testBucketExistenceIsCached() {
+      Mockito.when(amazonS3.doesBucketExist("hydroid-output")).thenReturn(true);
+      s3Client.storeFile("hydroid-output", "rdfs/urn1", "<rdf:RDF/>", "application/xml");
+      s3Client.storeFile("hydroid-output", "rdfs/urn2", "<rdf:RDF/>", "application/xml");
+      s3Client.deleteFile("hydroid-output", "rdfs/urn1");
+      Mockito.verify(amazonS3, Mockito.times(1)).doesBucketExist("hydroid-output");
+      Mockito.verify(amazonS3, Mockito.times(2)).putObject(Matchers.eq("hydroid-output"), Matchers.anyString(),
+            Matchers.any(InputStream.class), Matchers.any(ObjectMetadata.class));
+   }
+
+   @Test
+   public void testMissingBucketIsCreatedOnce() {
+      Mockito.when(amazonS3.doesBucketExist("new-bucket")).thenReturn(false);
+      s3Client.storeFile("new-bucket", "rdfs/urn1", "<rdf:RDF/>", "application/xml");
+      s3Client.storeFile("new-bucket", "rdfs/urn2", "<rdf:RDF/>", "application/xml");
+      Mockito.verify(amazonS3, Mockito.times(1)).doesBucketExist("new-bucket");
+      Mockito.verify(amazonS3, Mockito.times(1)).createBucket("new-bucket", "ap-southeast-2");
+   }
+
+   @Test
+   public void testClientIsShared() {
+      HydroidConfiguration configuration = new HydroidConfiguration();
+      ReflectionTestUtils.setField(configuration, "s3MaxConnections", 10);
+      S3ClientImpl client = new S3ClientImpl();
+      ReflectionTestUtils.setField(client, "configuration", configuration);
+      Object first = ReflectionTestUtils.invokeMethod(client, "getAmazonS3");
+      Object second = ReflectionTestUtils.invokeMethod(client, "getAmazonS3");
+      Assert.assertSame(first, second);
+      client.shutdown();
+   }
+
+   private ObjectListing mockListing(boolean truncated, String... keys) {
+      ObjectListing listing = new ObjectListing();
+      listing.setTruncated(truncated);
+      for (String key : keys) {
+         S3ObjectSummary objectSummary = new S3ObjectSummary();
+         objectSummary.setBucketName("hydroid");
+         objectSummary.setKey(key);
+         listing.getObjectSummaries().add(objectSummary);
+      }
+      return listing;
+   }
+
+   @Test
+   public void testObjectsAreListedPageByPage() {
+      ObjectListing firstPage = mockListing(true, "enhancer/input/documents/a.pdf");
+      ObjectListing secondPage = mockListing(false, "enhancer/input/documents/b.pdf");
+      Mockito.when(amazonS3.listObjects("hydroid", "enhancer/input/documents")).thenReturn(firstPage);
+      Mockito.when(amazonS3.listNextBatchOfObjects(firstPage)).thenReturn(secondPage);
+
+      Iterator<DataObjectSummary> objects = s3Client.iterateObjects("hydroid", "enhancer/input/documents");
+      Assert.assertEquals("enhancer/input/documents/a.pdf", objects.next().getKey());
+      Mockito.verify(amazonS3, Mockito.never()).listNextBatchOfObjects(firstPage);
+      Assert.assertEquals("enhancer/input/documents/b.pdf", objects.next().getKey());
+      Assert.assertFalse(objects.hasNext());
+      Mockito.verify(amazonS3, Mockito.times(1)).listNextBatchOfObjects(firstPage);
+   }
+
+   private HydroidConfiguration multipartConfiguration(int thresholdMb, int partSizeMb) {
+      HydroidConfiguration configuration = new HydroidConfiguration();
+      ReflectionTestUtils.setField(configuration, "s3MultipartThresholdMb", thresholdMb);
+      ReflectionTestUtils.setField(configuration, "s3MultipartPartSizeMb", partSizeMb);
+      ReflectionTestUtils.setField(configuration, "s3MultipartThreads", 2);
+      ReflectionTestUtils.setField(s3Client, "configuration", configuration);
+      return configuration;
+   }
+
+   @Test
+   public void testLargeObjectIsDownloadedInRanges() {
+      multipartConfiguration(1, 1);
+      byte[] content = new byte[2621440];
+      for (int i = 0; i < content.length; i++) {
+         content[i] = (byte) i;
+      }
+      Mockito.when(amazonS3.getObject(Matchers.any(GetObjectRequest.class))).thenAnswer(invocation -> {
+         long[] range = ((GetObjectRequest) invocation.getArguments()[0]).getRange();
+         long last = Math.min(range[1], content.length - 1);
+         S3Object object = new S3Object();
+         object.setObjectContent(new ByteArrayInputStream(Arrays.copyOfRange(content, (int) range[0], (int) last + 1)));
+         object.getObjectMetadata().setHeader(Headers.CONTENT_RANGE,
+               "bytes " + range[0] + "-" + last + "/" + content.length);
+         object.getObjectMetadata().setHeader(Headers.ETAG, "etag");
+         return object;
+      });
+      Assert.assertArrayEquals(content, s3Client.getFileAsByteArray("hydroid", "documents/big.pdf"));
+      Mockito.verify(amazonS3, Mockito.times(3)).getObject(Matchers.any(GetObjectRequest.class));
+   }
+
+   @Test
+   public void testEmptyObjectIsDownloadedInRanges() {
+      multipartConfiguration(1, 1);
+      AmazonS3Exception rangeNotSatisfiable = new AmazonS3Exception("InvalidRange");
+      rangeNotSatisfiable.setStatusCode(416);
+      Mockito.when(amazonS3.getObject(Matchers.any(GetObjectRequest.class))).thenThrow(rangeNotSatisfiable);
+      Assert.assertEquals(0, s3Client.getFileAsByteArray("hydroid", "documents/empty.txt").length);
+   }
+
+   @Test
+   public void testFailedUploadPartIsRetried() {
+      multipartConfiguration(5, 5);
+      Mockito.when(amazonS3.doesBucketExist("hydroid-output")).thenReturn(true);
+      InitiateMultipartUploadResult initiated = new InitiateMultipartUploadResult();
+      initiated.setUploadId("upload1");
+      Mockito.when(amazonS3.initiateMultipartUpload(Matchers.any(InitiateMultipartUploadRequest.class)))
+            .thenReturn(initiated);
+      AtomicBoolean failed = new AtomicBoolean();
+      Mockito.when(amazonS3.uploadPart(Matchers.any(UploadPartRequest.class))).thenAnswer(invocation -> {
+         UploadPartRequest request = (UploadPartRequest) invocation.getArguments()[0];
+         if (request.getPartNumber() == 2 && failed.compareAndSet(false, true)) {
+            throw new AmazonS3Exception("Connection reset");
+         }
+         UploadPartResult result = new UploadPartResult();
+         result.setPartNumber(request.getPartNumber());
+         result.setETag("etag" + request.getPartNumber());
+         return result;
+      });
+
+      int length = 11 * 1024 * 1024;
+      s3Client.storeFile("hydroid-output", "rdfs/big", new ByteArrayInputStream(new byte[length]),
+            "application/xml", length);
+      Mockito.verify(amazonS3, Mockito.times(4)).uploadPart(Matchers.any(UploadPartRequest.class));
+      Mockito.verify(amazonS3).completeMultipartUpload(Matchers.argThat(
+            new ArgumentMatcher<CompleteMultipartUploadRequest>() {
+               @Override
+               public boolean matches(Object argument) {
+                  return ((CompleteMultipartUploadRequest) argument).getPartETags().size() == 3;
+               }
+            }));
+      Mockito.verify(amazonS3, Mockito.never()).putObject(Matchers.anyString(), Matchers.anyString(),
+            Matchers.any(InputStream.class), Matchers.any(ObjectMetadata.class));
+   }
+
+}
@@ -0,0 +1,131 @@
+package au.gov.ga.hydroid.service;
+
+import au.gov.ga.hydroid.service.impl.DataObjectSummaryImpl;
+import au.gov.ga.hydroid.service.impl.S3ObjectPrefetcher;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.MockitoAnnotations;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+public class S3ObjectPrefetcherTest {
+
+   @Mock
+   private S3Client s3Client;
+
+   private ExecutorService executor;
+
+   @Before
+   public void setup() {
+      MockitoAnnotations.initMocks(this);
+      executor = Executors.newCachedThreadPool();
+   }
+
+   @After
+   public void tearDown() {
+      executor.shutdownNow();
+   }
+
+   private DataObjectSummary mockObject(String key, int size) {
+      byte[] content = new byte[size];
+      Arrays.fill(content, (byte) key.charAt(0));
+      Mockito.when(s3Client.getFileAsByteArray("bucket", key)).thenReturn(content);
+      Mockito.when(s3Client.getFile("bucket", key)).thenAnswer(invocation -> new ByteArrayInputStream(content));
+      return new DataObjectSummaryImpl("bucket", key, size, null, null);
+   }
+
+   @Test
+   public void testNextObjectsAreDownloadedAhead() throws Exception {
+      List<DataObjectSummary> objects = Arrays.asList(mockObject("a", 10), mockObject("b", 10),
+            mockObject("c", 10));
+      try (S3ObjectPrefetcher prefetcher = new S3ObjectPrefetcher(s3Client, objects.iterator(), executor, 1,
+            100, Long.MAX_VALUE)) {
+         S3ObjectPrefetcher.PrefetchedObject first = prefetcher.next();
+         Assert.assertEquals("a", first.getSummary().getKey());
+         Assert.assertEquals(10, first.getContent().length);
+         // b is already on its way, c is not requested until b is taken
+         Mockito.verify(s3Client, Mockito.timeout(1000)).getFileAsByteArray("bucket", "b");
+         Mockito.verify(s3Client, Mockito.never()).getFileAsByteArray("bucket", "c");
+         Assert.assertEquals('b', prefetcher.next().getContent()[0]);
+         Assert.assertEquals('c', prefetcher.next().getContent()[0]);
+         Assert.assertFalse(prefetcher.hasNext());
+      }
+   }
+
+   @Test
+   public void testObjectsOverTheBudgetAreSpilled() throws Exception {
+      List<DataObjectSummary> objects = Arrays.asList(mockObject("a", 60), mockObject("b", 60),
+            mockObject("c", 200));
+      try (S3ObjectPrefetcher prefetcher = new S3ObjectPrefetcher(s3Client, objects.iterator(), executor, 2,
+            100, 150)) {
+         Assert.assertEquals(60, prefetcher.next().getContent().length);
+         Assert.assertEquals(60, prefetcher.next().getContent().length);
+         Assert.assertEquals(200, prefetcher.next().getContent().length);
+      }
+      // a fitted in the budget, b was written to a temp file and c was too big to fetch ahead
+      Mockito.verify(s3Client).getFileAsByteArray("bucket", "a");
+      Mockito.verify(s3Client).getFile("bucket", "b");
+      Mockito.verify(s3Client, Mockito.never()).getFile("bucket", "c");
+      Mockito.verify(s3Client).getFileAsByteArray("bucket", "c");
+   }
+
+   @Test
+   public void testNoPrefetch() {
+      List<DataObjectSummary> objects = Arrays.asList(mockObject("a", 10), mockObject("b", 10));
+      try (S3ObjectPrefetcher prefetcher = new S3ObjectPrefetcher(s3Client, objects.iterator(), executor, 0,
+            100, Long.MAX_VALUE)) {
+         prefetcher.next();
+         Mockito.verify(s3Client, Mockito.never()).getFileAsByteArray("bucket", "a");
+         Assert.assertEquals(10, prefetcher.next().getContent().length);
+      }
+      Mockito.verify(s3Client, Mockito.never()).getFileAsByteArray("bucket", "a");
+   }
+
+   @Test
+   public void testClosingStopsTheListing() {
+      List<DataObjectSummary> objects = Arrays.asList(mockObject("a", 10), mockObject("b", 10),
+            mockObject("c", 10));
+      ClosableListing listing = new ClosableListing(objects.iterator());
+      try (S3ObjectPrefetcher prefetcher = new S3ObjectPrefetcher(s3Client, listing,
+            object -> !"a".equals(object.getKey()), executor, 1, 100, Long.MAX_VALUE)) {
+         Assert.assertEquals("b", prefetcher.next().getSummary().getKey());
+      }
+      Assert.assertTrue(listing.closed);
+   }
+
+   private static class ClosableListing implements Iterator<DataObjectSummary>, Closeable {
+
+      private final Iterator<DataObjectSummary> objects;
+      private boolean closed;
+
+      ClosableListing(Iterator<DataObjectSummary> objects) {
+         this.objects = objects;
+      }
+
+      @Override
+      public boolean hasNext() {
+         return objects.hasNext();
+      }
+
+      @Override
+      public DataObjectSummary next() {
+         return objects.next();
+      }
+
+      @Override
+      public void close() {
+         closed = true;
+      }
+   }
+
+}
@@ -0,0 +1,97 @@
+package au.gov.ga.hydroid.service;
+
+import au.gov.ga.hydroid.HydroidConfiguration;
+import au.gov.ga.hydroid.service.impl.SolrClientImpl;
+import org.apache.solr.client.solrj.SolrServer;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.common.SolrInputDocument;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Matchers;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.MockitoAnnotations;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+public class SolrClientImplTest {
+
+   @Mock
+   private SolrServer solrServer;
+
+   private SolrClientImpl solrClient;
+
+   private final List<String> indexed = new ArrayList<>();
+
+   private final List<String> failed = new ArrayList<>();
+
+   @Before
+   @SuppressWarnings("unchecked")
+   public void setup() {
+      MockitoAnnotations.initMocks(this);
+      HydroidConfiguration configuration = new HydroidConfiguration();
+      ReflectionTestUtils.setField(configuration, "solrBatchSize", 3);
+      ReflectionTestUtils.setField(configuration, "solrCommitWithin", 1000);
+      solrClient = new SolrClientImpl();
+      ReflectionTestUtils.setField(solrClient, "configuration", configuration);
+      solrClient.init();
+      ((Map<String, SolrServer>) ReflectionTestUtils.getField(solrClient, "servers")).put("hydroid", solrServer);
+   }
+
+   private SolrInputDocument addDocument(String id) {
+      SolrInputDocument document = new SolrInputDocument();
+      document.addField("about", id);
+      solrClient.addDocument("hydroid", document, () -> indexed.add(id), e -> failed.add(id));
+      return document;
+   }
+
+   @Test
+   @SuppressWarnings("unchecked")
+   public void testDocumentsAreSentInBatches() throws Exception {
+      addDocument("urn:1");
+      addDocument("urn:2");
+      Mockito.verify(solrServer, Mockito.never()).add(Matchers.anyCollectionOf(SolrInputDocument.class),
+            Matchers.anyInt());
+      Assert.assertTrue(indexed.isEmpty());
+      addDocument("urn:3");
+      ArgumentCaptor<Collection> batch = ArgumentCaptor.forClass(Collection.class);
+      Mockito.verify(solrServer).add(batch.capture(), Matchers.eq(1000));
+      Assert.assertEquals(3, batch.getValue().size());
+      Assert.assertEquals(3, indexed.size());
+   }
+
+   @Test
+   public void testFlushSendsTheLastBatch() throws Exception {
+      addDocument("urn:1");
+      solrClient.flush();
+      Mockito.verify(solrServer).add(Matchers.anyCollectionOf(SolrInputDocument.class), Matchers.eq(1000));
+      Mockito.verify(solrServer).commit(false, false, true);
+      // Nothing is left to send
+      solrClient.flush();
+      Mockito.verify(solrServer, Mockito.times(1)).add(Matchers.anyCollectionOf(SolrInputDocument.class),
+            Matchers.anyInt());
+   }
+
+   @Test
+   public void testFailedBatchIsRetriedOneByOne() throws Exception {
+      Mockito.when(solrServer.add(Matchers.anyCollectionOf(SolrInputDocument.class), Matchers.anyInt()))
+            .thenThrow(new SolrServerException("Batch failed"));
+      addDocument("urn:1");
+      SolrInputDocument bad = addDocument("urn:2");
+      Mockito.when(solrServer.add(Matchers.same(bad), Matchers.anyInt()))
+            .thenThrow(new SolrServerException("Document failed"));
+      addDocument("urn:3");
+      Mockito.verify(solrServer, Mockito.times(3)).add(Matchers.any(SolrInputDocument.class), Matchers.eq(1000));
+      Assert.assertEquals(1, failed.size());
+      Assert.assertEquals("urn:2", failed.get(0));
+      Assert.assertEquals(2, indexed.size());
+      Assert.assertFalse(indexed.contains("urn:2"));
+   }
+
+}
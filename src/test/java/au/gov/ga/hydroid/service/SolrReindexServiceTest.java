@@ -0,0 +1,162 @@
+package au.gov.ga.hydroid.service;
+
+import au.gov.ga.hydroid.HydroidApplication;
+import au.gov.ga.hydroid.HydroidConfiguration;
+import au.gov.ga.hydroid.mock.CustomMockJenaService;
+import au.gov.ga.hydroid.model.Document;
+import au.gov.ga.hydroid.model.DocumentType;
+import au.gov.ga.hydroid.model.EnhancementStatus;
+import au.gov.ga.hydroid.model.HydroidSolrMapper;
+import au.gov.ga.hydroid.service.impl.SolrReindexServiceImpl;
+import au.gov.ga.hydroid.utils.HydroidException;
+import au.gov.ga.hydroid.utils.IOUtils;
+import org.apache.solr.common.SolrInputDocument;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
+import org.mockito.Matchers;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.MockitoAnnotations;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.SpringApplicationConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.function.Consumer;
+
+@RunWith(SpringJUnit4ClassRunner.class)
+@SpringApplicationConfiguration(HydroidApplication.class)
+public class SolrReindexServiceTest {
+
+   @Autowired
+   private HydroidConfiguration configuration;
+
+   @Autowired
+   private HydroidSolrMapper hydroidSolrMapper;
+
+   @Mock
+   private SolrClient solrClient;
+
+   @Mock
+   private S3Client s3Client;
+
+   @Mock
+   private DocumentService documentService;
+
+   private SolrReindexService solrReindexService;
+
+   private Document newDocument(String urn) {
+      Document document = new Document();
+      document.setUrn(urn);
+      document.setTitle("Title for " + urn);
+      document.setType(DocumentType.DOCUMENT);
+      document.setOrigin("Manual Enhancement/UI");
+      document.setStatus(EnhancementStatus.SUCCESS);
+      return document;
+   }
+
+   @Before
+   public void setup() {
+      MockitoAnnotations.initMocks(this);
+      solrReindexService = new SolrReindexServiceImpl();
+      ReflectionTestUtils.setField(hydroidSolrMapper, "configuration", configuration);
+      ReflectionTestUtils.setField(solrReindexService, "configuration", configuration);
+      ReflectionTestUtils.setField(solrReindexService, "solrClient", solrClient);
+      ReflectionTestUtils.setField(solrReindexService, "jenaService", new CustomMockJenaService());
+      ReflectionTestUtils.setField(solrReindexService, "s3Client", s3Client);
+      ReflectionTestUtils.setField(solrReindexService, "documentService", documentService);
+      ReflectionTestUtils.setField(solrReindexService, "hydroidSolrMapper", hydroidSolrMapper);
+   }
+
+   @Test
+   public void testReindex() {
+      byte[] rdf = IOUtils.fromInputStreamToByteArray(
+            getClass().getResourceAsStream("/testfiles/stanbol-hydroid-response.xml"));
+      Mockito.when(documentService.findByStatus(EnhancementStatus.SUCCESS))
+            .thenReturn(Arrays.asList(newDocument("urn:stored"), newDocument("urn:missing")));
+      Mockito.when(s3Client.getFileAsByteArray(configuration.getS3OutputBucket(),
+            configuration.getS3EnhancerOutput() + "urn:stored")).thenReturn(rdf);
+
+      Assert.assertEquals(1, solrReindexService.reindex("hydroid-reindex"));
+      Mockito.verify(solrClient, Mockito.times(1)).addDocument(Matchers.eq("hydroid-reindex"),
+            Matchers.any(SolrInputDocument.class), Matchers.<Consumer<Exception>>any());
+      Mockito.verify(solrClient).flush();
+   }
+
+   @Test
+   public void testRebuild() {
+      Mockito.when(documentService.findByStatus(EnhancementStatus.SUCCESS))
+            .thenReturn(Arrays.asList(newDocument("urn:missing")));
+      Mockito.when(solrClient.getAliasedCollections("hydroid")).thenReturn(Arrays.asList("hydroid_old"));
+
+      String collectionName = solrReindexService.rebuild("hydroid");
+      Assert.assertTrue(collectionName.startsWith("hydroid_"));
+      InOrder inOrder = Mockito.inOrder(solrClient);
+      inOrder.verify(solrClient).createCollection(collectionName);
+      inOrder.verify(solrClient).createAlias("hydroid", collectionName);
+      inOrder.verify(solrClient).deleteCollection("hydroid_old");
+   }
+
+   @Test
+   public void testRebuildKeepsTheAliasWhenDocumentsFail() {
+      byte[] rdf = IOUtils.fromInputStreamToByteArray(
+            getClass().getResourceAsStream("/testfiles/stanbol-hydroid-response.xml"));
+      Mockito.when(documentService.findByStatus(EnhancementStatus.SUCCESS))
+            .thenReturn(Arrays.asList(newDocument("urn:stored")));
+      Mockito.when(s3Client.getFileAsByteArray(configuration.getS3OutputBucket(),
+            configuration.getS3EnhancerOutput() + "urn:stored")).thenReturn(rdf);
+      Mockito.doAnswer(invocation -> {
+         ((Consumer<Exception>) invocation.getArguments()[2]).accept(new Exception("Solr is down"));
+         return null;
+      }).when(solrClient).addDocument(Matchers.anyString(), Matchers.any(SolrInputDocument.class),
+            Matchers.<Consumer<Exception>>any());
+
+      try {
+         solrReindexService.rebuild("hydroid");
+         Assert.fail("The rebuild should have failed");
+      } catch (HydroidException e) {
+         ArgumentCaptor<String> collectionName = ArgumentCaptor.forClass(String.class);
+         Mockito.verify(solrClient).createCollection(collectionName.capture());
+         Mockito.verify(solrClient).deleteCollection(collectionName.getValue());
+         Mockito.verify(solrClient, Mockito.never()).createAlias(Matchers.anyString(), Matchers.anyString());
+      }
+   }
+
+   @Test
+   public void testRebuildKeepsTheAliasWhenDocumentsAreMissing() {
+      byte[] rdf = IOUtils.fromInputStreamToByteArray(
+            getClass().getResourceAsStream("/testfiles/stanbol-hydroid-response.xml"));
+      Mockito.when(documentService.findByStatus(EnhancementStatus.SUCCESS))
+            .thenReturn(Arrays.asList(newDocument("urn:stored")));
+      Mockito.when(s3Client.getFileAsByteArray(configuration.getS3OutputBucket(),
+            configuration.getS3EnhancerOutput() + "urn:stored")).thenReturn(rdf);
+      Mockito.when(solrClient.countDocuments(Matchers.anyString())).thenReturn(0L);
+
+      try {
+         solrReindexService.rebuild("hydroid");
+         Assert.fail("The rebuild should have failed");
+      } catch (HydroidException e) {
+         Mockito.verify(solrClient, Mockito.never()).createAlias(Matchers.anyString(), Matchers.anyString());
+      }
+   }
+
+   @Test
+   public void testRebuildCatchesUpAfterTheSwitch() {
+      // Rolled back right before the alias was switched
+      Mockito.when(documentService.findByStatus(EnhancementStatus.SUCCESS))
+            .thenReturn(Arrays.asList(newDocument("urn:missing")), Arrays.asList(newDocument("urn:missing")),
+                  Collections.emptyList());
+
+      String collectionName = solrReindexService.rebuild("hydroid");
+      InOrder inOrder = Mockito.inOrder(solrClient);
+      inOrder.verify(solrClient).createAlias("hydroid", collectionName);
+      inOrder.verify(solrClient).deleteDocument(collectionName, "urn:missing");
+   }
+
+}
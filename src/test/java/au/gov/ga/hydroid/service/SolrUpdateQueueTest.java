@@ -0,0 +1,114 @@
+package au.gov.ga.hydroid.service;
+
+import au.gov.ga.hydroid.service.impl.SolrUpdate;
+import au.gov.ga.hydroid.service.impl.SolrUpdateQueue;
+import org.apache.solr.common.SolrInputDocument;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+public class SolrUpdateQueueTest {
+
+   private final List<String> sent = Collections.synchronizedList(new ArrayList<>());
+
+   private final List<String> failed = Collections.synchronizedList(new ArrayList<>());
+
+   private SolrUpdateQueue updateQueue;
+
+   @Before
+   public void setup() {
+      updateQueue = new SolrUpdateQueue(new SolrUpdateQueue.Sender() {
+         @Override
+         public void add(String collectionName, List<SolrUpdate> updates) {
+            for (SolrUpdate update : updates) {
+               if (update.getId().startsWith("bad")) {
+                  update.getOnFailure().accept(new Exception("Failed " + update.getId()));
+               } else {
+                  sent.add("add:" + update.getId());
+               }
+            }
+         }
+
+         @Override
+         public void delete(String collectionName, String id) {
+            sent.add("delete:" + id);
+         }
+      }, 2, 10, 5);
+   }
+
+   @After
+   public void tearDown() {
+      updateQueue.shutdown();
+   }
+
+   private SolrUpdate add(String id) {
+      SolrInputDocument document = new SolrInputDocument();
+      document.addField("about", id);
+      return SolrUpdate.add("hydroid", id, document, e -> failed.add(id));
+   }
+
+   @Test
+   public void testFlushSendsEverything() {
+      for (int i = 0; i < 50; i++) {
+         updateQueue.add(add("urn:" + i));
+      }
+      updateQueue.flush();
+      Assert.assertEquals(50, sent.size());
+      Assert.assertTrue(failed.isEmpty());
+   }
+
+   @Test
+   public void testFailuresAreReportedPerDocument() {
+      updateQueue.add(add("urn:good"));
+      updateQueue.add(add("bad:urn"));
+      updateQueue.flush();
+      Assert.assertEquals(1, sent.size());
+      Assert.assertEquals(1, failed.size());
+      Assert.assertEquals("bad:urn", failed.get(0));
+   }
+
+   @Test
+   public void testUpdatesForSameDocumentKeepTheirOrder() {
+      updateQueue.add(add("urn:1"));
+      updateQueue.add(SolrUpdate.delete("hydroid", "urn:1"));
+      updateQueue.flush();
+      Assert.assertEquals("add:urn:1", sent.get(0));
+      Assert.assertEquals("delete:urn:1", sent.get(1));
+   }
+
+   @Test(timeout = 10000)
+   public void testFailureCallbackCanQueueUpdates() {
+      SolrUpdateQueue smallQueue = new SolrUpdateQueue(new SolrUpdateQueue.Sender() {
+         @Override
+         public void add(String collectionName, List<SolrUpdate> updates) {
+            updates.forEach(update -> update.getOnFailure().accept(new Exception("Failed " + update.getId())));
+         }
+
+         @Override
+         public void delete(String collectionName, String id) {
+            sent.add("delete:" + id);
+         }
+      }, 1, 1, 1);
+      try {
+         // Like a rollback, every failure deletes the document while the queue is kept full
+         for (int i = 0; i < 20; i++) {
+            String id = "bad:" + i;
+            SolrInputDocument document = new SolrInputDocument();
+            smallQueue.add(SolrUpdate.add("hydroid", id, document,
+                  e -> smallQueue.add(SolrUpdate.delete("hydroid", id))));
+         }
+         smallQueue.flush();
+         // The deletes were queued by the callbacks after the first flush marker
+         smallQueue.flush();
+         Assert.assertEquals(20, sent.size());
+      } finally {
+         smallQueue.shutdown();
+      }
+   }
+
+}
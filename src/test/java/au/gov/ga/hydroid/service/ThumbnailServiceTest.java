@@ -0,0 +1,113 @@
+package au.gov.ga.hydroid.service;
+
+import au.gov.ga.hydroid.HydroidConfiguration;
+import au.gov.ga.hydroid.service.impl.ThumbnailServiceImpl;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Matchers;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.MockitoAnnotations;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+
+public class ThumbnailServiceTest {
+
+   @Mock
+   private S3Client s3Client;
+
+   private ThumbnailServiceImpl thumbnailService;
+
+   @Before
+   public void setup() {
+      MockitoAnnotations.initMocks(this);
+      HydroidConfiguration configuration = new HydroidConfiguration();
+      ReflectionTestUtils.setField(configuration, "s3OutputBucket", "hydroid-output");
+      ReflectionTestUtils.setField(configuration, "s3EnhancerOutputImages", "images/");
+      ReflectionTestUtils.setField(configuration, "thumbnailSizes", "200, 50");
+      ReflectionTestUtils.setField(configuration, "thumbnailQuality", 0.8f);
+      ReflectionTestUtils.setField(configuration, "thumbnailThreads", 1);
+      ReflectionTestUtils.setField(configuration, "thumbnailCacheSize", 10);
+      thumbnailService = new ThumbnailServiceImpl();
+      ReflectionTestUtils.setField(thumbnailService, "configuration", configuration);
+      ReflectionTestUtils.setField(thumbnailService, "s3Client", s3Client);
+   }
+
+   @After
+   public void tearDown() {
+      thumbnailService.shutdown();
+   }
+
+   private byte[] createImage(int width, int height) throws Exception {
+      ByteArrayOutputStream os = new ByteArrayOutputStream();
+      ImageIO.write(new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB), "png", os);
+      return os.toByteArray();
+   }
+
+   private BufferedImage readStored(String key) throws Exception {
+      ArgumentCaptor<InputStream> content = ArgumentCaptor.forClass(InputStream.class);
+      Mockito.verify(s3Client, Mockito.timeout(5000)).storeFile(Matchers.eq("hydroid-output"), Matchers.eq(key),
+            content.capture(), Matchers.eq("image/jpeg"), Matchers.anyLong());
+      return ImageIO.read(content.getValue());
+   }
+
+   @Test
+   public void testKeys() {
+      Assert.assertEquals(200, thumbnailService.getSizes().get(0).intValue());
+      Assert.assertEquals("images/urn1_thumb", thumbnailService.getThumbnailKey("urn1", 200));
+      Assert.assertEquals("images/urn1_thumb_50", thumbnailService.getThumbnailKey("urn1", 50));
+   }
+
+   @Test
+   public void testEverySizeIsGeneratedInTheBackground() throws Exception {
+      thumbnailService.generateThumbnails("urn1", createImage(1000, 500));
+      BufferedImage thumbnail = readStored("images/urn1_thumb");
+      Assert.assertEquals(200, thumbnail.getWidth());
+      Assert.assertEquals(100, thumbnail.getHeight());
+      Assert.assertEquals(50, readStored("images/urn1_thumb_50").getWidth());
+      // The image was handed over, it is not downloaded again
+      Mockito.verify(s3Client, Mockito.never()).getFileAsByteArray(Matchers.anyString(), Matchers.anyString());
+   }
+
+   @Test
+   public void testMissingThumbnailIsGeneratedOnDemand() throws Exception {
+      Mockito.when(s3Client.getFileAsByteArray("hydroid-output", "images/urn1")).thenReturn(createImage(300, 600));
+      byte[] thumbnail = thumbnailService.getThumbnail("urn1", 50);
+      Assert.assertEquals(50, ImageIO.read(new ByteArrayInputStream(thumbnail)).getHeight());
+      Assert.assertEquals(50, readStored("images/urn1_thumb_50").getHeight());
+
+      // Served from memory afterwards
+      Assert.assertSame(thumbnail, thumbnailService.getThumbnail("urn1", 50));
+      Mockito.verify(s3Client, Mockito.times(1)).getFileAsByteArray("hydroid-output", "images/urn1_thumb_50");
+      Mockito.verify(s3Client, Mockito.times(1)).getFileAsByteArray("hydroid-output", "images/urn1");
+   }
+
+   @Test
+   public void testDeleteThumbnails() throws Exception {
+      Mockito.when(s3Client.getFileAsByteArray("hydroid-output", "images/urn1_thumb")).thenReturn(createImage(10, 10));
+      thumbnailService.getThumbnail("urn1", 200);
+      thumbnailService.deleteThumbnails("urn1");
+      Mockito.verify(s3Client).deleteFile("hydroid-output", "images/urn1_thumb");
+      Mockito.verify(s3Client).deleteFile("hydroid-output", "images/urn1_thumb_50");
+
+      // No longer served from memory either
+      thumbnailService.getThumbnail("urn1", 200);
+      Mockito.verify(s3Client, Mockito.times(2)).getFileAsByteArray("hydroid-output", "images/urn1_thumb");
+   }
+
+   @Test
+   public void testMissingImage() {
+      Assert.assertNull(thumbnailService.getThumbnail("urn1", 200));
+      Mockito.verify(s3Client, Mockito.never()).storeFile(Matchers.anyString(), Matchers.anyString(),
+            Matchers.any(InputStream.class), Matchers.anyString(), Matchers.anyLong());
+   }
+
+}
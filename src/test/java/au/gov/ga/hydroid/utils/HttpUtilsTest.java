@@ -0,0 +1,42 @@
+package au.gov.ga.hydroid.utils;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class HttpUtilsTest {
+
+   @Test
+   public void testQuoteETag() {
+      Assert.assertEquals("\"abc\"", HttpUtils.quoteETag("abc"));
+      Assert.assertEquals("\"abc\"", HttpUtils.quoteETag("\"abc\""));
+      Assert.assertEquals("W/\"abc\"", HttpUtils.quoteETag("W/\"abc\""));
+      Assert.assertNull(HttpUtils.quoteETag(null));
+   }
+
+   @Test
+   public void testIsNotModified() {
+      Assert.assertTrue(HttpUtils.isNotModified("\"abc\"", "\"abc\""));
+      Assert.assertTrue(HttpUtils.isNotModified("\"xyz\", W/\"abc\"", "\"abc\""));
+      Assert.assertTrue(HttpUtils.isNotModified("*", "\"abc\""));
+      Assert.assertFalse(HttpUtils.isNotModified("\"xyz\"", "\"abc\""));
+      Assert.assertFalse(HttpUtils.isNotModified(null, "\"abc\""));
+      Assert.assertFalse(HttpUtils.isNotModified("*", null));
+   }
+
+   @Test
+   public void testGetRange() {
+      Assert.assertArrayEquals(new long[] {0, 499}, HttpUtils.getRange("bytes=0-499", 1000));
+      Assert.assertArrayEquals(new long[] {500, 999}, HttpUtils.getRange("bytes=500-", 1000));
+      Assert.assertArrayEquals(new long[] {900, 999}, HttpUtils.getRange("bytes=-100", 1000));
+      Assert.assertArrayEquals(new long[] {990, 999}, HttpUtils.getRange("bytes=990-2000", 1000));
+      Assert.assertSame(HttpUtils.UNSATISFIABLE_RANGE, HttpUtils.getRange("bytes=1000-", 1000));
+      Assert.assertSame(HttpUtils.UNSATISFIABLE_RANGE, HttpUtils.getRange("bytes=5-2", 1000));
+      Assert.assertNull(HttpUtils.getRange("bytes=0-1,5-6", 1000));
+      Assert.assertNull(HttpUtils.getRange("items=0-1", 1000));
+      Assert.assertNull(HttpUtils.getRange("bytes=a-b", 1000));
+      Assert.assertNull(HttpUtils.getRange("bytes=0-1", -1));
+      Assert.assertEquals("bytes 0-499/1000", HttpUtils.getContentRange(new long[] {0, 499}, 1000));
+      Assert.assertEquals("bytes */1000", HttpUtils.getContentRange(HttpUtils.UNSATISFIABLE_RANGE, 1000));
+   }
+
+}
@@ -6,9 +6,12 @@ import org.junit.Test;
 import org.springframework.http.HttpStatus;
 import org.springframework.mock.web.MockHttpServletResponse;
 
+import java.io.BufferedInputStream;
 import java.io.ByteArrayInputStream;
 import java.io.InputStream;
 import java.net.ConnectException;
+import java.util.Arrays;
+import java.util.Random;
 
 /**
  * Created by u24529 on 15/04/2016.
@@ -31,6 +34,44 @@ public class IOUtilsTest {
       }
    }
 
+   @Test
+   public void testGzip() {
+      byte[] testBytes = "<rdf:RDF></rdf:RDF>".getBytes();
+      byte[] gzipped = IOUtils.gzip(testBytes);
+      Assert.assertTrue(IOUtils.isGzipped(gzipped));
+      Assert.assertFalse(IOUtils.isGzipped(testBytes));
+      Assert.assertArrayEquals(testBytes, IOUtils.decompressIfGzipped(gzipped));
+      Assert.assertSame(testBytes, IOUtils.decompressIfGzipped(testBytes));
+      Assert.assertArrayEquals(testBytes, IOUtils.fromInputStreamToByteArray(
+            IOUtils.decompressIfGzipped(new ByteArrayInputStream(gzipped))));
+   }
+
+   @Test
+   public void testPeek() throws Exception {
+      byte[] testBytes = new byte[20000];
+      new Random(1).nextBytes(testBytes);
+      InputStream is = new BufferedInputStream(new ByteArrayInputStream(testBytes));
+      Assert.assertArrayEquals(Arrays.copyOf(testBytes, 8192), IOUtils.peek(is, 8192));
+      Assert.assertArrayEquals(testBytes, IOUtils.fromInputStreamToByteArray(is));
+      Assert.assertEquals(3, IOUtils.peek(new BufferedInputStream(new ByteArrayInputStream("abc".getBytes())), 10)
+            .length);
+   }
+
+   @Test
+   public void testDecompressHead() {
+      StringBuilder content = new StringBuilder();
+      for (int i = 0; i < 5000; i++) {
+         content.append("<rdf:Description rdf:about=\"urn:").append(i).append("\"/>");
+      }
+      byte[] testBytes = content.toString().getBytes();
+      byte[] gzipped = IOUtils.gzip(testBytes);
+      byte[] head = IOUtils.decompressHead(Arrays.copyOf(gzipped, 1000), 4096);
+      Assert.assertTrue(head.length > 0);
+      Assert.assertArrayEquals(Arrays.copyOf(testBytes, head.length), head);
+      Assert.assertArrayEquals(Arrays.copyOf(testBytes, 4096), IOUtils.decompressHead(gzipped, 4096));
+      Assert.assertEquals(0, IOUtils.decompressHead(Arrays.copyOf(gzipped, 5), 4096).length);
+   }
+
    @Test
    public void testParseStreamNullMetadata() {
       try {
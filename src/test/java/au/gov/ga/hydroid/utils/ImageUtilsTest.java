@@ -0,0 +1,37 @@
+package au.gov.ga.hydroid.utils;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+
+public class ImageUtilsTest {
+
+   private byte[] png(int width, int height) throws Exception {
+      ByteArrayOutputStream os = new ByteArrayOutputStream();
+      ImageIO.write(new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB), "png", os);
+      return os.toByteArray();
+   }
+
+   @Test
+   public void testReadSubsampled() throws Exception {
+      BufferedImage image = ImageUtils.readSubsampled(new ByteArrayInputStream(png(2000, 1000)), 200);
+      Assert.assertEquals(400, image.getWidth());
+      Assert.assertEquals(200, image.getHeight());
+   }
+
+   @Test
+   public void testSmallImageIsNotSubsampled() throws Exception {
+      BufferedImage image = ImageUtils.readSubsampled(new ByteArrayInputStream(png(300, 150)), 200);
+      Assert.assertEquals(300, image.getWidth());
+   }
+
+   @Test
+   public void testNotAnImage() {
+      Assert.assertNull(ImageUtils.readSubsampled(new ByteArrayInputStream("Hello".getBytes()), 200));
+   }
+
+}
@@ -1,5 +1,5 @@
-insert into documents values (null, 'origin:test1', 'urn:test1', 'Title for (urn:test1)', 'DOCUMENT', 'SUCCESS', null, now(), null, 'd751cdfbf49e8ea17afd9cdca03f06f87ce37277');
-insert into documents values (null, 'origin:delete', 'urn:delete', 'Title for (urn:delete)', 'DOCUMENT', 'PENDING', null, now(), null, 'edab181efcb958c9612c9478997ef748da8def97');
+insert into documents values (null, 'origin:test1', 'urn:test1', 'Title for (urn:test1)', 'DOCUMENT', 'SUCCESS', null, now(), null, 'd751cdfbf49e8ea17afd9cdca03f06f87ce37277', null);
+insert into documents values (null, 'origin:delete', 'urn:delete', 'Title for (urn:delete)', 'DOCUMENT', 'PENDING', null, now(), null, 'edab181efcb958c9612c9478997ef748da8def97', null);
 
 insert into image_metadata values ('origin:whale', 'Whale, Mammal, Fish');
 insert into image_metadata values ('origin:monkey', 'Animal, Mammal, Primate');
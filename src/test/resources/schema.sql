@@ -9,7 +9,8 @@ CREATE TABLE documents (
     status_reason varchar(1000) NULL,
     process_date timestamp NOT NULL,
     parser_name varchar(50) NULL,
-    sha1_hash varchar(100) NULL
+    sha1_hash varchar(100) NULL,
+    fingerprint varchar(100) NULL
 );
 
 CREATE UNIQUE INDEX documents_urn_idx ON documents (urn);